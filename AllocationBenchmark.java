@@ -0,0 +1,99 @@
+// AllocationBenchmark.java
+import java.io.*;
+import java.util.*;
+
+/**
+ * The AllocationBenchmark class compares the greedy allocation (allocateResources) with the
+ * optimal min-cost flow allocation (allocateResourcesOptimal) on the same network, in terms
+ * of total transportation cost, units served and running time.
+ *
+ * Usage: java AllocationBenchmark [cities] [warehouses] [nearest] [seed]
+ *        java AllocationBenchmark <inputFilePath> [nearest]
+ *
+ *   cities, warehouses: size of the random network (default 2000 and 200)
+ *   nearest:            if positive, use a sparse cost graph with this many warehouses per city
+ *   seed:               seed of the random network (default 42)
+ *
+ * Random networks come from NetworkGenerator: cities and warehouses uniform on a 1000 x 1000
+ * grid, demands between 10 and 100 units, capacities sized so that the total supply covers
+ * about 90% of the total demand, and the three priorities in equal proportions.
+ */
+public class AllocationBenchmark {
+    public static void main(String[] args) throws IOException {
+        List<EmergencySupplyNetwork.City> cities1, cities2;
+        List<EmergencySupplyNetwork.Warehouse> warehouses1, warehouses2;
+        int nearest = 0;
+
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            // Benchmark an input file (parsed twice since both allocations consume their inputs)
+            InputParser.ParsedData first = InputParser.parseInput(args[0]);
+            InputParser.ParsedData second = InputParser.parseInput(args[0]);
+            cities1 = first.cities;
+            warehouses1 = first.warehouses;
+            cities2 = second.cities;
+            warehouses2 = second.warehouses;
+            if (args.length > 1) nearest = Integer.parseInt(args[1]);
+        } else {
+            int cityCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+            int warehouseCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            nearest = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+            NetworkColumns network = new NetworkGenerator().setCities(cityCount).setWarehouses(warehouseCount)
+                    .setSide(1000).setCapacityRatio(0.9).setSeed(seed).generate();
+            cities1 = network.toCities();
+            cities2 = network.toCities();
+            warehouses1 = network.toWarehouses();
+            warehouses2 = network.toWarehouses();
+        }
+
+        System.out.println("Cities: " + cities1.size() + ", Warehouses: " + warehouses1.size()
+                + (nearest > 0 ? ", Nearest warehouses per city: " + nearest : ", Dense cost matrix"));
+
+        EmergencySupplyNetwork greedyNetwork = createNetwork(cities1, warehouses1, nearest);
+        EmergencySupplyNetwork optimalNetwork = createNetwork(cities2, warehouses2, nearest);
+
+        long start = System.nanoTime();
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> greedy = greedyNetwork.allocateResources();
+        long greedyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> optimal = optimalNetwork.allocateResourcesOptimal();
+        long optimalTime = System.nanoTime() - start;
+
+        report("Greedy", greedyNetwork, greedy, greedyTime);
+        report("Min-cost flow", optimalNetwork, optimal, optimalTime);
+
+        double greedyCost = MinCostFlowAllocator.totalCost(greedyNetwork, greedy);
+        double optimalCost = MinCostFlowAllocator.totalCost(optimalNetwork, optimal);
+        if (greedyCost > 0) {
+            System.out.printf("Cost saved by the min-cost flow: %.2f (%.2f%%)%n", greedyCost - optimalCost,
+                    100 * (greedyCost - optimalCost) / greedyCost);
+        }
+    }
+
+    /**
+     * Creates the network on the dense cost matrix, or on a sparse cost graph if nearest is positive.
+     */
+    private static EmergencySupplyNetwork createNetwork(List<EmergencySupplyNetwork.City> cities,
+                                                        List<EmergencySupplyNetwork.Warehouse> warehouses, int nearest) {
+        if (nearest > 0) {
+            return new EmergencySupplyNetwork(cities, warehouses, SpatialCostGraph.nearest(cities, warehouses, nearest));
+        }
+        return new EmergencySupplyNetwork(cities, warehouses);
+    }
+
+    /**
+     * Prints the cost, units served and running time of an allocation.
+     */
+    private static void report(String name, EmergencySupplyNetwork network,
+                               Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations, long nanos) {
+        long units = 0;
+        for (List<EmergencySupplyNetwork.ResourceAllocation> list : allocations.values()) {
+            for (EmergencySupplyNetwork.ResourceAllocation allocation : list) {
+                units += allocation.units;
+            }
+        }
+        System.out.printf("%-14s cost = %.2f, units served = %d, time = %.1f ms%n", name,
+                MinCostFlowAllocator.totalCost(network, allocations), units, nanos / 1e6);
+    }
+}
@@ -0,0 +1,370 @@
+// AllocationState.java
+import java.util.*;
+
+/**
+ * The AllocationState class is one allocation run on a NetworkSnapshot: the remaining demand
+ * of every city and the remaining capacity of every warehouse, as int[] indexed like the
+ * snapshot, and the allocations made so far, as parallel int[] columns. The City and
+ * Warehouse objects of the snapshot are never modified, so any number of states can share
+ * the same snapshot and run concurrently, one thread per state.
+ *
+ * A state starts with the demands and capacities of the snapshot. They can be changed before
+ * allocating, to try a scenario (a city needing more, a warehouse destroyed...), and reset()
+ * goes back to the snapshot without copying anything but the two arrays. The priority of a
+ * city can also be changed: the cities are then served in the order allocateResources()
+ * would serve them with the new priorities (the City objects, as reported to the listener,
+ * keep their own priority). The order is also computed again when a demand is changed and
+ * the city ordering of the snapshot breaks ties by demand.
+ *
+ * allocate() is the greedy allocation of allocateResources(): the cities are served by
+ * priority, each from its cheapest warehouses with remaining capacity, and the allocations
+ * are the same. Calling it again serves the demand left unmet, from the capacity left (for
+ * instance after adding capacity); the new allocations are appended to the previous ones.
+ * revokeWarehouse() takes the allocations of a warehouse back after the fact, as when it
+ * goes offline: the next allocate() serves the cities again from the other warehouses.
+ *
+ * Methods:
+ *   {allocate()}, {allocate(NetworkListener)}: Serve the remaining demand in priority order.
+ *   {redistribution(TargetLevel, TargetLevel)}: Redistributes the remaining capacities of this state.
+ *   {setDemand(int, int)}, {setCapacity(int, int)}: Change the remaining demand or capacity.
+ *   {setPriority(int, Priority)}, {getPriority(int)}: Change or return the priority of a city.
+ *   {revokeWarehouse(int, NetworkListener)}: Takes a warehouse offline, giving its allocations back to the cities.
+ *   {getRemainingDemand(int)}, {getRemainingCapacity(int)}: Return the remaining demand or capacity.
+ *   {getRemainingCapacities()}: Returns a copy of the remaining capacities.
+ *   {getUnmetDemand()}: Returns the total demand left unmet.
+ *   {getAllocations()}: Returns the allocations made, as allocateResources() does.
+ *   {getAllocationColumns()}: Returns the allocations made, in columnar form.
+ *   {getTotalCost()}: Returns the total transportation cost of the allocations.
+ *   {copy()}: Copies the state, to branch a scenario.
+ *   {reset()}: Goes back to the demands, capacities and priorities of the snapshot, without allocations.
+ */
+public class AllocationState {
+    private final NetworkSnapshot snapshot;
+    private final int[] demand; // Remaining demand of each city, by index
+    private final int[] capacity; // Remaining capacity of each warehouse, by index
+    private EmergencySupplyNetwork.Priority[] priorities; // Priority of each city, null while none was changed
+    private int[] order; // City indices in allocation order, null to recompute after a priority or demand change
+    // Allocations made, in the order they were made: units[k] units from warehouseRows[k] to cityRows[k]
+    private int[] cityRows = new int[16];
+    private int[] warehouseRows = new int[16];
+    private int[] units = new int[16];
+    private int allocationCount;
+
+    /**
+     * Creates a state with the demands and capacities of the snapshot (see NetworkSnapshot.newState()).
+     */
+    AllocationState(NetworkSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.demand = snapshot.copyDemands();
+        this.capacity = snapshot.copyCapacities();
+        this.order = snapshot.allocationOrder();
+    }
+
+    private AllocationState(AllocationState other) {
+        this.snapshot = other.snapshot;
+        this.demand = other.demand.clone();
+        this.capacity = other.capacity.clone();
+        this.priorities = other.priorities == null ? null : other.priorities.clone();
+        this.order = other.order;
+        this.cityRows = Arrays.copyOf(other.cityRows, Math.max(16, other.allocationCount));
+        this.warehouseRows = Arrays.copyOf(other.warehouseRows, Math.max(16, other.allocationCount));
+        this.units = Arrays.copyOf(other.units, Math.max(16, other.allocationCount));
+        this.allocationCount = other.allocationCount;
+    }
+
+    /**
+     * Returns the snapshot the state runs on.
+     *
+     * @return the snapshot
+     */
+    public NetworkSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Serves the remaining demand of the cities, by priority, from their cheapest warehouses
+     * with remaining capacity (the greedy allocation of allocateResources()).
+     *
+     * @return the allocations made by this call, sorted by city ID (see getAllocations() for all of them)
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocate() {
+        return allocate(NetworkListener.NONE);
+    }
+
+    /**
+     * Serves the remaining demand of the cities like allocate(), reporting every city served
+     * and every allocation to the listener.
+     *
+     * @param listener the listener of the allocation events
+     * @return the allocations made by this call, sorted by city ID
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocate(NetworkListener listener) {
+        int first = allocationCount;
+        WarehouseRanking ranking = snapshot.getWarehouseRanking();
+        for (int cityIndex : allocationOrder()) {
+            EmergencySupplyNetwork.City city = snapshot.getCity(cityIndex);
+            listener.onCityAllocation(city);
+
+            // Go through the ranked warehouses of the city, from the cheapest to the most expensive
+            for (int warehouseIndex : ranking.rank(cityIndex)) {
+                if (demand[cityIndex] == 0) break;
+                if (capacity[warehouseIndex] > 0) {
+                    int allocatedUnits = Math.min(demand[cityIndex], capacity[warehouseIndex]);
+                    capacity[warehouseIndex] -= allocatedUnits;
+                    demand[cityIndex] -= allocatedUnits;
+                    record(cityIndex, warehouseIndex, allocatedUnits);
+                    listener.onAllocation(city, snapshot.getWarehouse(warehouseIndex), allocatedUnits);
+                }
+            }
+        }
+        return toMap(first, allocationCount);
+    }
+
+    /**
+     * Creates a redistribution of the remaining capacities of this state: its transfers update
+     * this state, not the warehouses.
+     *
+     * @param needLevel    the level below which a warehouse receives (up to that level)
+     * @param surplusLevel the level above which a warehouse gives (down to that level)
+     * @return the redistribution, to run with redistributeResources()
+     */
+    public ResourceRedistribution redistribution(ResourceRedistribution.TargetLevel needLevel, ResourceRedistribution.TargetLevel surplusLevel) {
+        return new ResourceRedistribution(snapshot.getWarehouses(), capacity, needLevel, surplusLevel);
+    }
+
+    /**
+     * Sets the remaining demand of a city.
+     *
+     * @param cityIndex the index of the city
+     * @param units     the remaining demand, not negative
+     */
+    public void setDemand(int cityIndex, int units) {
+        if (units < 0) {
+            throw new IllegalArgumentException("The demand must not be negative: " + units);
+        }
+        demand[cityIndex] = units;
+        if (snapshot.getCityOrdering().usesDemand()) {
+            order = null;
+        }
+    }
+
+    /**
+     * Sets the remaining capacity of a warehouse (0 to take it out of the network).
+     *
+     * @param warehouseIndex the index of the warehouse
+     * @param units          the remaining capacity, not negative
+     */
+    public void setCapacity(int warehouseIndex, int units) {
+        if (units < 0) {
+            throw new IllegalArgumentException("The capacity must not be negative: " + units);
+        }
+        capacity[warehouseIndex] = units;
+    }
+
+    /**
+     * Takes a warehouse offline after allocating: every allocation it made is taken back (the
+     * units are added back to the remaining demand of the city, and reported to the listener),
+     * and its remaining capacity becomes 0. The next allocate() serves the demand given back
+     * from the other warehouses.
+     *
+     * @param warehouseIndex the index of the warehouse
+     * @param listener       notified of every allocation taken back
+     * @return the number of units taken back
+     */
+    public long revokeWarehouse(int warehouseIndex, NetworkListener listener) {
+        long revoked = 0;
+        int kept = 0;
+        for (int k = 0; k < allocationCount; k++) {
+            if (warehouseRows[k] != warehouseIndex) {
+                cityRows[kept] = cityRows[k];
+                warehouseRows[kept] = warehouseRows[k];
+                units[kept++] = units[k];
+                continue;
+            }
+            demand[cityRows[k]] += units[k];
+            revoked += units[k];
+            listener.onRevocation(snapshot.getCity(cityRows[k]), snapshot.getWarehouse(warehouseIndex), units[k]);
+        }
+        allocationCount = kept;
+        capacity[warehouseIndex] = 0;
+        if (revoked > 0 && snapshot.getCityOrdering().usesDemand()) {
+            order = null;
+        }
+        return revoked;
+    }
+
+    /**
+     * Sets the priority of a city, which changes the order in which the cities are served.
+     *
+     * @param cityIndex the index of the city
+     * @param priority  the new priority
+     */
+    public void setPriority(int cityIndex, EmergencySupplyNetwork.Priority priority) {
+        Objects.requireNonNull(priority);
+        if (priority == getPriority(cityIndex)) return;
+        if (priorities == null) {
+            priorities = new EmergencySupplyNetwork.Priority[snapshot.cityCount()];
+            for (int i = 0; i < priorities.length; i++) {
+                priorities[i] = snapshot.getCity(i).priority;
+            }
+        }
+        priorities[cityIndex] = priority;
+        order = null;
+    }
+
+    /**
+     * Returns the priority of a city in this state.
+     *
+     * @param cityIndex the index of the city
+     * @return the priority of the city
+     */
+    public EmergencySupplyNetwork.Priority getPriority(int cityIndex) {
+        return priorities == null ? snapshot.getCity(cityIndex).priority : priorities[cityIndex];
+    }
+
+    /**
+     * Returns the demand of a city that is not served yet.
+     *
+     * @param cityIndex the index of the city
+     * @return the remaining demand
+     */
+    public int getRemainingDemand(int cityIndex) {
+        return demand[cityIndex];
+    }
+
+    /**
+     * Returns the remaining capacity of a warehouse.
+     *
+     * @param warehouseIndex the index of the warehouse
+     * @return the remaining capacity
+     */
+    public int getRemainingCapacity(int warehouseIndex) {
+        return capacity[warehouseIndex];
+    }
+
+    /**
+     * Returns a copy of the remaining capacities of the warehouses (for instance for
+     * ResourceRedistribution.percentile).
+     *
+     * @return the remaining capacities, indexed like the warehouses
+     */
+    public int[] getRemainingCapacities() {
+        return capacity.clone();
+    }
+
+    /**
+     * Returns the total demand that is not served yet.
+     *
+     * @return the sum of the remaining demands
+     */
+    public long getUnmetDemand() {
+        long total = 0;
+        for (int units : demand) {
+            total += units;
+        }
+        return total;
+    }
+
+    /**
+     * Returns all the allocations made on this state, like allocateResources() returns them.
+     *
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects, sorted by city ID.
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> getAllocations() {
+        return toMap(0, allocationCount);
+    }
+
+    /**
+     * Returns all the allocations made on this state in columnar form, as stored by NetworkBinaryFormat.
+     *
+     * @return the allocations
+     */
+    public NetworkBinaryFormat.Allocations getAllocationColumns() {
+        return new NetworkBinaryFormat.Allocations(allocationCount, Arrays.copyOf(cityRows, allocationCount),
+                Arrays.copyOf(warehouseRows, allocationCount), Arrays.copyOf(units, allocationCount));
+    }
+
+    /**
+     * Returns the total transportation cost of the allocations (units times the cost of the pair).
+     *
+     * @return the total cost
+     */
+    public double getTotalCost() {
+        CostProvider costs = snapshot.getCostProvider();
+        double total = 0;
+        for (int k = 0; k < allocationCount; k++) {
+            total += units[k] * costs.cost(cityRows[k], warehouseRows[k]);
+        }
+        return total;
+    }
+
+    /**
+     * Copies the state (remaining demands, capacities and allocations), to branch a scenario.
+     *
+     * @return an independent copy on the same snapshot
+     */
+    public AllocationState copy() {
+        return new AllocationState(this);
+    }
+
+    /**
+     * Goes back to the demands, capacities and priorities of the snapshot, and forgets the allocations.
+     */
+    public void reset() {
+        for (int i = 0; i < demand.length; i++) {
+            demand[i] = snapshot.getDemand(i);
+        }
+        for (int j = 0; j < capacity.length; j++) {
+            capacity[j] = snapshot.getCapacity(j);
+        }
+        allocationCount = 0;
+        priorities = null;
+        order = snapshot.allocationOrder();
+    }
+
+    /**
+     * Returns the city indices in allocation order, computed again with the city ordering of
+     * the snapshot after a change of the priorities (or of the demands it depends on).
+     */
+    private int[] allocationOrder() {
+        if (order == null) {
+            int n = snapshot.cityCount();
+            int[] priorityOrdinals = new int[n], ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                priorityOrdinals[i] = getPriority(i).ordinal();
+                ids[i] = snapshot.getCity(i).id;
+            }
+            order = snapshot.getCityOrdering().order(priorityOrdinals, ids, demand, snapshot.getWarehouseRanking(), snapshot.getCostProvider());
+        }
+        return order;
+    }
+
+    /**
+     * Appends an allocation to the columns.
+     */
+    private void record(int cityIndex, int warehouseIndex, int allocatedUnits) {
+        if (allocationCount == units.length) {
+            int size = allocationCount + (allocationCount >> 1);
+            cityRows = Arrays.copyOf(cityRows, size);
+            warehouseRows = Arrays.copyOf(warehouseRows, size);
+            units = Arrays.copyOf(units, size);
+        }
+        cityRows[allocationCount] = cityIndex;
+        warehouseRows[allocationCount] = warehouseIndex;
+        units[allocationCount] = allocatedUnits;
+        allocationCount++;
+    }
+
+    /**
+     * Builds the map of the allocations from first (inclusive) to last (exclusive), sorted by city ID.
+     */
+    private Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> toMap(int first, int last) {
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations =
+                new TreeMap<>((c1, c2) -> Integer.compare(c1.id, c2.id));
+        for (int k = first; k < last; k++) {
+            allocations.computeIfAbsent(snapshot.getCity(cityRows[k]), city -> new ArrayList<>())
+                       .add(new EmergencySupplyNetwork.ResourceAllocation(snapshot.getWarehouse(warehouseRows[k]), units[k]));
+        }
+        return allocations;
+    }
+}
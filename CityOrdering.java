@@ -0,0 +1,232 @@
+// CityOrdering.java
+import java.util.*;
+
+/**
+ * The CityOrdering class gives the order in which the greedy allocation serves the cities:
+ * by priority, from HIGH to LOW, and within a priority by a list of tie-breakers, the city
+ * ID always being the last one. The order is thus total and deterministic: it does not depend
+ * on the order of the input, on the internals of a heap, or on the number of threads, and
+ * the same network always gives the same allocations.
+ *
+ * The tie-breakers are:
+ *   ID                  the smallest city ID first (the default, and always the final tie-breaker)
+ *   LARGEST_DEMAND      the largest demand first
+ *   SMALLEST_DEMAND     the smallest demand first
+ *   CHEAPEST_WAREHOUSE  the city whose cheapest warehouse is the cheapest first (cities
+ *                       without any candidate warehouse last)
+ *
+ * Each criterion is turned once into a primitive key per city, and the cities are sorted by
+ * a stable LSD radix sort: one counting pass per byte of each key, from the last tie-breaker
+ * to the priority, skipping the bytes that are the same for every city. This is O(C) per
+ * key byte, with no comparator and no boxing, instead of O(C log C) heap polls.
+ *
+ * The demands used are the ones of the cities when the order is computed (that is, at the
+ * start of an allocation run). IncrementalAllocator compares two cities with the same keys
+ * (compare), and moves a city when its demand changes under a demand tie-breaker.
+ *
+ * Methods:
+ *   {CityOrdering(TieBreaker...)}: Creates an ordering with the given tie-breakers.
+ *   {parse(String)}: Parses a comma-separated list of tie-breakers ("demand,id", "-demand", "cost").
+ *   {order(List, WarehouseRanking, CostProvider)}: Returns the city indices in allocation order.
+ *   {usesDemand()}: Tells if the order depends on the demands.
+ *   {compare(int, int, int, double, int, int, int, double)}: Compares two cities in allocation order.
+ */
+public class CityOrdering {
+    /**
+     * How cities of the same priority are ordered.
+     */
+    public enum TieBreaker {
+        ID, // The smallest ID first
+        LARGEST_DEMAND, // The largest demand first
+        SMALLEST_DEMAND, // The smallest demand first
+        CHEAPEST_WAREHOUSE // The smallest cost to the cheapest warehouse first
+    }
+
+    /**
+     * The default ordering: by priority, then by city ID.
+     */
+    public static final CityOrdering BY_ID = new CityOrdering(TieBreaker.ID);
+
+    private static final int PRIORITY_COUNT = EmergencySupplyNetwork.Priority.values().length;
+
+    private final TieBreaker[] tieBreakers; // Applied in order, ID last
+
+    /**
+     * Creates an ordering by priority, then by the given tie-breakers, then by city ID.
+     *
+     * @param tieBreakers the tie-breakers, from the most to the least significant
+     */
+    public CityOrdering(TieBreaker... tieBreakers) {
+        List<TieBreaker> list = new ArrayList<>();
+        for (TieBreaker tieBreaker : tieBreakers) {
+            Objects.requireNonNull(tieBreaker);
+            if (tieBreaker == TieBreaker.ID) break; // The ID is unique enough, the next ones would never be used
+            if (!list.contains(tieBreaker)) list.add(tieBreaker);
+        }
+        list.add(TieBreaker.ID);
+        this.tieBreakers = list.toArray(new TieBreaker[0]);
+    }
+
+    /**
+     * Parses a comma-separated list of tie-breakers: "id", "demand" or "-demand" (largest
+     * demand first), "+demand" (smallest demand first) and "cost" (cheapest warehouse first).
+     *
+     * @param spec the tie-breakers
+     * @return the ordering
+     * @throws IllegalArgumentException If a tie-breaker is unknown.
+     */
+    public static CityOrdering parse(String spec) {
+        List<TieBreaker> tieBreakers = new ArrayList<>();
+        for (String name : spec.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "id": tieBreakers.add(TieBreaker.ID); break;
+                case "demand":
+                case "-demand": tieBreakers.add(TieBreaker.LARGEST_DEMAND); break;
+                case "+demand": tieBreakers.add(TieBreaker.SMALLEST_DEMAND); break;
+                case "cost": tieBreakers.add(TieBreaker.CHEAPEST_WAREHOUSE); break;
+                default: throw new IllegalArgumentException("Unknown tie-breaker: " + name
+                        + " (expected id, demand, -demand, +demand or cost)");
+            }
+        }
+        return new CityOrdering(tieBreakers.toArray(new TieBreaker[0]));
+    }
+
+    /**
+     * Tells if the order depends on the demands of the cities.
+     *
+     * @return true if a tie-breaker is a demand
+     */
+    public boolean usesDemand() {
+        for (TieBreaker tieBreaker : tieBreakers) {
+            if (tieBreaker == TieBreaker.LARGEST_DEMAND || tieBreaker == TieBreaker.SMALLEST_DEMAND) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indices of the cities in allocation order.
+     *
+     * @param cities  the cities, with their current priority and demand
+     * @param ranking the warehouse ranking of the cities (only used by CHEAPEST_WAREHOUSE)
+     * @param costs   the costs of the ranking (only used by CHEAPEST_WAREHOUSE)
+     * @return the city indices in allocation order
+     */
+    public int[] order(List<EmergencySupplyNetwork.City> cities, WarehouseRanking ranking, CostProvider costs) {
+        int n = cities.size();
+        int[] priorities = new int[n], ids = new int[n], demands = new int[n];
+        for (int i = 0; i < n; i++) {
+            EmergencySupplyNetwork.City city = cities.get(i);
+            priorities[i] = city.priority.ordinal();
+            ids[i] = city.id;
+            demands[i] = city.demand;
+        }
+        return order(priorities, ids, demands, ranking, costs);
+    }
+
+    /**
+     * Returns the indices of the cities in allocation order, from their priority ordinals,
+     * IDs and demands.
+     */
+    int[] order(int[] priorities, int[] ids, int[] demands, WarehouseRanking ranking, CostProvider costs) {
+        int n = priorities.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[n];
+        long[] key = new long[n];
+
+        // LSD: the least significant criterion first, each pass being stable
+        for (int t = tieBreakers.length - 1; t >= 0; t--) {
+            TieBreaker tieBreaker = tieBreakers[t];
+            for (int i = 0; i < n; i++) {
+                double cheapest = 0;
+                if (tieBreaker == TieBreaker.CHEAPEST_WAREHOUSE) {
+                    int[] ranked = ranking.rank(i);
+                    cheapest = ranked.length == 0 ? Double.POSITIVE_INFINITY : costs.cost(i, ranked[0]);
+                }
+                key[i] = key(tieBreaker, ids[i], demands[i], cheapest);
+            }
+            radixSort(order, buffer, key, tieBreaker == TieBreaker.CHEAPEST_WAREHOUSE ? 64 : 32);
+        }
+        for (int i = 0; i < n; i++) {
+            key[i] = PRIORITY_COUNT - 1 - priorities[i]; // HIGH first
+        }
+        radixSort(order, buffer, key, 8);
+        return order;
+    }
+
+    /**
+     * Compares two cities in allocation order, with the same keys as order(): negative if the
+     * first city is served before the second one.
+     *
+     * @param priority1 the priority ordinal of the first city
+     * @param id1       the ID of the first city
+     * @param demand1   the demand of the first city
+     * @param cheapest1 the cost to the cheapest warehouse of the first city (infinite if none)
+     * @param priority2 the priority ordinal of the second city
+     * @param id2       the ID of the second city
+     * @param demand2   the demand of the second city
+     * @param cheapest2 the cost to the cheapest warehouse of the second city (infinite if none)
+     * @return a negative number, zero, or a positive number as the first city is served before,
+     *         with, or after the second one
+     */
+    int compare(int priority1, int id1, int demand1, double cheapest1,
+                int priority2, int id2, int demand2, double cheapest2) {
+        if (priority1 != priority2) return Integer.compare(priority2, priority1); // HIGH first
+        for (TieBreaker tieBreaker : tieBreakers) {
+            int order = Long.compareUnsigned(key(tieBreaker, id1, demand1, cheapest1),
+                    key(tieBreaker, id2, demand2, cheapest2));
+            if (order != 0) return order;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the key of a city for a tie-breaker, the smallest (unsigned) key coming first.
+     */
+    private static long key(TieBreaker tieBreaker, int id, int demand, double cheapest) {
+        switch (tieBreaker) {
+            case ID: return (long) id - Integer.MIN_VALUE;
+            case LARGEST_DEMAND: return Integer.MAX_VALUE - (long) demand;
+            case SMALLEST_DEMAND: return (long) demand - Integer.MIN_VALUE;
+            default:
+                // The costs are not negative, so the order of their bits is the order of the values
+                return Double.doubleToLongBits(cheapest);
+        }
+    }
+
+    /**
+     * Sorts the indices by their key (the given number of low bits, unsigned), stably, one
+     * byte at a time from the least significant one.
+     */
+    private static void radixSort(int[] order, int[] buffer, long[] key, int bits) {
+        int n = order.length;
+        int[] count = new int[256];
+        for (int shift = 0; shift < bits; shift += 8) {
+            Arrays.fill(count, 0);
+            for (int i = 0; i < n; i++) {
+                count[(int) (key[i] >>> shift) & 0xFF]++;
+            }
+            if (n == 0 || count[(int) (key[0] >>> shift) & 0xFF] == n) continue; // Same byte everywhere
+
+            // Start of each bucket, then distribute in the current order
+            int start = 0;
+            for (int b = 0; b < 256; b++) {
+                int size = count[b];
+                count[b] = start;
+                start += size;
+            }
+            for (int p = 0; p < n; p++) {
+                int i = order[p];
+                buffer[count[(int) (key[i] >>> shift) & 0xFF]++] = i;
+            }
+            System.arraycopy(buffer, 0, order, 0, n);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CityOrdering" + Arrays.toString(tieBreakers);
+    }
+}
@@ -0,0 +1,179 @@
+// ClusterQueries.java
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ClusterQueries class is a batch of queries about the clusters of DynamicResourceSharing,
+ * read from a file or a stream and answered against a ClusterSnapshot. Instead of asking
+ * areInSameCluster for every pair of cities (O(C^2) queries and output), a client lists the
+ * queries it needs:
+ *
+ *   # Comments and blank lines are ignored
+ *   1 2            Are City 1 and City 2 in the same cluster?
+ *   Same 1, 3      The same, with an explicit keyword and a comma
+ *   Members 2      Which cities are in the cluster of City 2?
+ *
+ * where the numbers are city IDs. All the IDs are checked before anything is reported, the
+ * pair queries are answered together in one pass over the snapshot (in parallel if a pool is
+ * given), and the answers are then reported to a listener in the order of the queries.
+ *
+ * Methods:
+ *   {ClusterQueries()}: Creates an empty batch.
+ *   {parse(Reader)}: Reads a batch of queries.
+ *   {addSameCluster(int, int), addMembers(int)}: Add a query to the batch.
+ *   {size()}: Returns the number of queries.
+ *   {answer(ClusterSnapshot, ForkJoinPool, Listener)}: Answers every query, in order.
+ */
+public class ClusterQueries {
+    /**
+     * Listener receiving the answers, in the order of the queries.
+     */
+    public interface Listener {
+        /**
+         * Called with the answer of a pair query.
+         *
+         * @param cityId1 the ID of the first city
+         * @param cityId2 the ID of the second city
+         * @param same    true if both cities are in the same cluster
+         */
+        void onSameCluster(int cityId1, int cityId2, boolean same);
+
+        /**
+         * Called with the answer of a members query.
+         *
+         * @param cityId  the ID of the city
+         * @param members the IDs of the cities of its cluster (the city included)
+         */
+        void onMembers(int cityId, int[] members);
+    }
+
+    private int size; // Number of queries
+    private int[] cityIds1 = new int[16]; // City of each query
+    private int[] cityIds2 = new int[16]; // Second city of each pair query
+    private boolean[] isMembers = new boolean[16]; // True for a members query
+
+    /**
+     * Creates an empty batch of queries.
+     */
+    public ClusterQueries() {
+    }
+
+    /**
+     * Reads a batch of queries, one per line: "<ID> <ID>" or "Same <ID> <ID>" (the IDs
+     * separated by spaces or a comma) for a pair, "Members <ID>" for the members of a cluster.
+     * Blank lines and lines starting with '#' are ignored.
+     *
+     * @param reader the queries
+     * @return the batch of queries, in the order of the lines
+     * @throws IOException If an I/O error occurs.
+     * @throws IllegalArgumentException If a line is not a query.
+     */
+    public static ClusterQueries parse(Reader reader) throws IOException {
+        ClusterQueries queries = new ClusterQueries();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] words = line.split("[\\s,]+");
+            try {
+                if (words[0].equalsIgnoreCase("Members") && words.length == 2) {
+                    queries.addMembers(Integer.parseInt(words[1]));
+                } else if (words[0].equalsIgnoreCase("Same") && words.length == 3) {
+                    queries.addSameCluster(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+                } else if (words.length == 2) {
+                    queries.addSameCluster(Integer.parseInt(words[0]), Integer.parseInt(words[1]));
+                } else {
+                    throw new IllegalArgumentException("Line " + lineNumber
+                            + ": expected \"<ID> <ID>\", \"Same <ID> <ID>\" or \"Members <ID>\": " + line);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid city ID in " + line, e);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Adds the query "are the two cities in the same cluster?".
+     *
+     * @param cityId1 the ID of the first city
+     * @param cityId2 the ID of the second city
+     */
+    public void addSameCluster(int cityId1, int cityId2) {
+        add(cityId1, cityId2, false);
+    }
+
+    /**
+     * Adds the query "which cities are in the cluster of the city?".
+     *
+     * @param cityId the ID of the city
+     */
+    public void addMembers(int cityId) {
+        add(cityId, cityId, true);
+    }
+
+    private void add(int cityId1, int cityId2, boolean members) {
+        if (size == cityIds1.length) {
+            int capacity = size * 2;
+            cityIds1 = Arrays.copyOf(cityIds1, capacity);
+            cityIds2 = Arrays.copyOf(cityIds2, capacity);
+            isMembers = Arrays.copyOf(isMembers, capacity);
+        }
+        cityIds1[size] = cityId1;
+        cityIds2[size] = cityId2;
+        isMembers[size] = members;
+        size++;
+    }
+
+    /**
+     * Returns the number of queries.
+     *
+     * @return the number of queries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Answers every query against the snapshot and reports the answers in the order of the
+     * queries. Nothing is reported if an ID is unknown. The pairs are answered first, all
+     * together, and the members of a cluster are only listed when they are reported.
+     *
+     * @param clusters the snapshot of the clusters
+     * @param pool     the pool answering the pairs in parallel, or null to answer them in this thread
+     * @param listener notified of every answer
+     * @throws IllegalArgumentException If a city ID is not in the snapshot.
+     */
+    public void answer(DynamicResourceSharing.ClusterSnapshot clusters, ForkJoinPool pool, Listener listener) {
+        // Gather the pairs, checking the members queries on the way (the pairs are checked by the snapshot)
+        int pairCount = 0;
+        for (int q = 0; q < size; q++) {
+            if (!isMembers[q]) {
+                pairCount++;
+            } else if (!clusters.contains(cityIds1[q])) {
+                throw new IllegalArgumentException("Unknown city ID: " + cityIds1[q]);
+            }
+        }
+        int[] pairs1 = new int[pairCount], pairs2 = new int[pairCount];
+        for (int q = 0, p = 0; q < size; q++) {
+            if (isMembers[q]) continue;
+            pairs1[p] = cityIds1[q];
+            pairs2[p++] = cityIds2[q];
+        }
+        boolean[] same = clusters.areInSameCluster(pairs1, pairs2, pool);
+
+        for (int q = 0, p = 0; q < size; q++) {
+            if (isMembers[q]) {
+                listener.onMembers(cityIds1[q], clusters.members(cityIds1[q]));
+            } else {
+                listener.onSameCluster(cityIds1[q], cityIds2[q], same[p++]);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+// ConsoleEventSink.java
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The ConsoleEventSink class prints the network events (and any other line of console output)
+ * asynchronously: the computing thread only appends the events to a batch, and a background
+ * thread formats them and writes them through a large buffer. The synchronized writes to
+ * System.out, and the formatting of the messages, are thus off the critical path.
+ *
+ * The lines are printed in the order they were submitted, whether they come from the
+ * NetworkListener methods or from println. flush() waits until everything submitted so far
+ * has been written, so that the output can be interleaved with direct writes to the stream;
+ * close() flushes and stops the background thread.
+ *
+ * The batches are handed over through a bounded queue: if the console cannot keep up, the
+ * computation eventually waits instead of buffering without limit.
+ *
+ * The messages are the ones allocateResources() and NetworkApp used to print:
+ *   Allocating resources for City A (Priority: High)
+ *     Allocated 50 units from Warehouse 101
+ *   Transferred 10 units from Warehouse 101 to Warehouse 102.
+ *   Merging clusters of City 1 and City 2 into cluster 1
+ */
+public class ConsoleEventSink implements NetworkListener, Closeable {
+    private static final int BATCH_SIZE = 1024; // Events per batch handed to the printing thread
+    private static final int QUEUED_BATCHES = 64; // Batches waiting to be printed, at most
+    private static final Object STOP = new Object(); // Tells the printing thread to finish
+
+    // Priorities as they are written in the input files (capitalized once, not for every city)
+    private static final String[] PRIORITY_NAMES = new String[EmergencySupplyNetwork.Priority.values().length];
+    static {
+        for (EmergencySupplyNetwork.Priority priority : EmergencySupplyNetwork.Priority.values()) {
+            String name = priority.name();
+            PRIORITY_NAMES[priority.ordinal()] = name.substring(0, 1) + name.substring(1).toLowerCase();
+        }
+    }
+
+    private final Writer out;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private final Thread printer;
+    private Object[] batch = new Object[BATCH_SIZE];
+    private int batchSize;
+    private volatile IOException failure; // First error of the printing thread
+
+    /**
+     * Creates a sink printing to the given stream, and starts its printing thread.
+     *
+     * @param stream the stream the lines are written to (typically System.out)
+     */
+    public ConsoleEventSink(OutputStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream), 1 << 16);
+        this.printer = new Thread(this::printLoop, "console-events");
+        this.printer.setDaemon(true);
+        this.printer.start();
+    }
+
+    /**
+     * Prints a line of text, after the events and lines submitted before it.
+     *
+     * @param line the line, without its line separator
+     */
+    public void println(String line) {
+        submit(line);
+    }
+
+    @Override
+    public void onCityAllocation(EmergencySupplyNetwork.City city) {
+        submit(new Event(Event.CITY, city.name, city.priority.ordinal(), 0, 0));
+    }
+
+    @Override
+    public void onAllocation(EmergencySupplyNetwork.City city, EmergencySupplyNetwork.Warehouse warehouse, int units) {
+        submit(new Event(Event.ALLOCATION, null, units, warehouse.id, 0));
+    }
+
+    @Override
+    public void onTransfer(ResourceRedistribution.Transfer transfer) {
+        submit(new Event(Event.TRANSFER, null, transfer.units, transfer.fromWarehouse.id, transfer.toWarehouse.id));
+    }
+
+    @Override
+    public void onMerge(int cityId1, int cityId2, int clusterId) {
+        submit(new Event(Event.MERGE, null, cityId1, cityId2, clusterId));
+    }
+
+    /**
+     * Waits until everything submitted so far has been written to the stream.
+     */
+    public void flush() {
+        CountDownLatch written = new CountDownLatch(1);
+        submit(written);
+        handOver();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                written.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // Keep waiting, then restore the interrupt status
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    /**
+     * Flushes, then stops the printing thread. The stream itself is not closed.
+     */
+    @Override
+    public void close() {
+        flush();
+        submit(STOP);
+        handOver();
+        try {
+            printer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends an item to the current batch, handing the batch over when it is full.
+     */
+    private void submit(Object item) {
+        batch[batchSize++] = item;
+        if (batchSize == BATCH_SIZE) {
+            handOver();
+        }
+    }
+
+    /**
+     * Hands the current batch to the printing thread (waiting if too many are queued).
+     */
+    private void handOver() {
+        if (batchSize == 0) return;
+        Object[] full = batchSize == BATCH_SIZE ? batch : Arrays.copyOf(batch, batchSize);
+        try {
+            queue.put(full);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while printing events", e);
+        }
+        batch = new Object[BATCH_SIZE];
+        batchSize = 0;
+    }
+
+    /**
+     * Body of the printing thread: formats and writes the batches until STOP.
+     */
+    private void printLoop() {
+        try {
+            while (true) {
+                Object[] items = (Object[]) queue.take();
+                for (Object item : items) {
+                    if (item == STOP) {
+                        return;
+                    } else if (item instanceof CountDownLatch) {
+                        flushQuietly();
+                        ((CountDownLatch) item).countDown();
+                    } else {
+                        writeQuietly(item);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sink is abandoned
+        }
+    }
+
+    private void writeQuietly(Object item) {
+        if (failure != null) return;
+        try {
+            if (item instanceof String) {
+                out.write((String) item);
+            } else {
+                ((Event) item).format(out);
+            }
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void flushQuietly() {
+        if (failure != null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * An event, with the values it is printed with (copied, since cities and warehouses change).
+     */
+    private static class Event {
+        static final int CITY = 0, ALLOCATION = 1, TRANSFER = 2, MERGE = 3;
+
+        final int kind;
+        final String name;
+        final int a, b, c;
+
+        Event(int kind, String name, int a, int b, int c) {
+            this.kind = kind;
+            this.name = name;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        void format(Writer out) throws IOException {
+            switch (kind) {
+                case CITY:
+                    out.write("Allocating resources for City " + name + " (Priority: " + PRIORITY_NAMES[a] + ")");
+                    break;
+                case ALLOCATION:
+                    out.write("  Allocated " + a + " units from Warehouse " + b);
+                    break;
+                case TRANSFER:
+                    out.write("Transferred " + a + " units from Warehouse " + b + " to Warehouse " + c + ".");
+                    break;
+                default:
+                    out.write("Merging clusters of City " + a + " and City " + b + " into cluster " + c);
+                    break;
+            }
+        }
+    }
+}
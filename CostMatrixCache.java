@@ -0,0 +1,393 @@
+// CostMatrixCache.java
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The CostMatrixCache class keeps the dense cost matrix in a binary file between runs, so
+ * that a network whose coordinates did not change gets its costs from a single memory
+ * mapping instead of recomputing cities x warehouses costs.
+ *
+ * The file holds a header, the coordinates the costs were computed from, and the costs:
+ *
+ *   offset 0   long   magic ("ESNCOSTS")
+ *   offset 8   int    format version
+ *   offset 12  int    number of cities C
+ *   offset 16  int    number of warehouses W
+ *   offset 24  long   hash of the coordinate columns (the key of the cache)
+ *   offset 64  int[]  x, y of each city, then x, y of each warehouse
+ *   then       double[] the costs, row-major (city i at [i * W, (i + 1) * W))
+ *
+ * in little-endian order. When the file is opened for a network:
+ *   - if the hash of the coordinates matches, the costs are mapped as they are (HIT);
+ *   - if the counts match but some cities or warehouses moved, only the rows of the moved
+ *     cities and the columns of the moved warehouses are recomputed, in place (PATCHED);
+ *   - otherwise the file is (re)written from scratch (REBUILT).
+ * Costs are written before the coordinates, and the coordinates before the hash, so a run
+ * interrupted while updating the file leaves it in a state the next run repairs.
+ *
+ * The costs are those of DenseCostMatrix (the same function, computed in parallel), so a
+ * network gives the same results with or without the cache. Unlike DenseCostMatrix, the
+ * matrix lives in the page cache rather than in the Java heap, and is not limited to
+ * 2^31 cells: it is mapped in chunks of whole rows.
+ *
+ * Methods:
+ *   {open(Path, List, List)}: Opens (or creates) the cache of a network and maps its costs.
+ *   {MappedCostMatrix}: The CostProvider over the mapped costs, with the status of the cache.
+ */
+public class CostMatrixCache {
+    private static final long MAGIC = 0x5354534f_434e5345L; // "ESNCOSTS" in little-endian order
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final long CHUNK_BYTES = 1L << 30; // Largest mapping of costs
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 14; // Cells computed by a single task
+
+    /**
+     * How the costs of the network were obtained from the cache file.
+     */
+    public enum Status {
+        HIT, // The file matched the coordinates, nothing was computed
+        PATCHED, // Some rows or columns were recomputed
+        REBUILT // The whole matrix was computed
+    }
+
+    private CostMatrixCache() {
+    }
+
+    /**
+     * Opens the cost cache of the network stored in the given file: maps the costs if the
+     * coordinates did not change, recomputes the moved cities and warehouses otherwise, and
+     * creates the file if it does not exist or does not match the network's size.
+     *
+     * @param file       the cache file
+     * @param cities     the list of cities (rows)
+     * @param warehouses the list of warehouses (columns)
+     * @return the costs of the network, mapped from the file
+     * @throws IOException If an I/O error occurs.
+     */
+    public static MappedCostMatrix open(Path file, List<EmergencySupplyNetwork.City> cities,
+                                        List<EmergencySupplyNetwork.Warehouse> warehouses) throws IOException {
+        int cityCount = cities.size();
+        int warehouseCount = warehouses.size();
+        int[] coordinates = new int[2 * (cityCount + warehouseCount)];
+        for (int i = 0; i < cityCount; i++) {
+            coordinates[2 * i] = cities.get(i).x;
+            coordinates[2 * i + 1] = cities.get(i).y;
+        }
+        for (int j = 0; j < warehouseCount; j++) {
+            coordinates[2 * (cityCount + j)] = warehouses.get(j).x;
+            coordinates[2 * (cityCount + j) + 1] = warehouses.get(j).y;
+        }
+        long hash = hash(cityCount, warehouseCount, coordinates);
+        long costsOffset = HEADER_SIZE + 4L * coordinates.length;
+        long fileSize = costsOffset + 8L * cityCount * warehouseCount;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            boolean compatible = false;
+            if (channel.size() == fileSize) {
+                channel.read(header, 0);
+                header.flip();
+                compatible = header.remaining() == HEADER_SIZE && header.getLong(0) == MAGIC && header.getInt(8) == VERSION
+                        && header.getInt(12) == cityCount && header.getInt(16) == warehouseCount;
+            }
+
+            if (compatible && header.getLong(24) == hash) {
+                MappedByteBuffer[] regions = mapCosts(channel, FileChannel.MapMode.READ_ONLY, costsOffset, cityCount, warehouseCount);
+                return new MappedCostMatrix(cityCount, warehouseCount, regions, Status.HIT, 0, 0);
+            }
+
+            Status status;
+            int[] dirtyRows;
+            int[] dirtyColumns;
+            if (compatible) {
+                // Find the cities and warehouses whose coordinates changed since the costs were computed
+                IntBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4L * coordinates.length)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                dirtyRows = changed(stored, coordinates, 0, cityCount);
+                dirtyColumns = changed(stored, coordinates, cityCount, warehouseCount);
+                status = Status.PATCHED;
+            } else {
+                channel.truncate(0);
+                writeHeader(channel, cityCount, warehouseCount, 0); // No valid hash until the costs are written
+                channel.write(ByteBuffer.wrap(new byte[1]), fileSize - 1); // Extend the file to its size
+                dirtyRows = null;
+                dirtyColumns = null;
+                status = Status.REBUILT;
+            }
+
+            // Recompute the costs in place: all of them, or the dirty rows then the dirty columns of the other rows
+            MappedByteBuffer[] regions = mapCosts(channel, FileChannel.MapMode.READ_WRITE, costsOffset, cityCount, warehouseCount);
+            DoubleBuffer[] chunks = views(regions);
+            int[] cityXs = new int[cityCount], cityYs = new int[cityCount];
+            int[] warehouseXs = new int[warehouseCount], warehouseYs = new int[warehouseCount];
+            for (int i = 0; i < cityCount; i++) {
+                cityXs[i] = coordinates[2 * i];
+                cityYs[i] = coordinates[2 * i + 1];
+            }
+            for (int j = 0; j < warehouseCount; j++) {
+                warehouseXs[j] = coordinates[2 * (cityCount + j)];
+                warehouseYs[j] = coordinates[2 * (cityCount + j) + 1];
+            }
+            int rowShift = rowShift(warehouseCount);
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            if (status == Status.REBUILT) {
+                pool.invoke(new FillTask(chunks, rowShift, cityXs, cityYs, warehouseXs, warehouseYs, allRows(cityCount), null, 0, cityCount));
+            } else {
+                pool.invoke(new FillTask(chunks, rowShift, cityXs, cityYs, warehouseXs, warehouseYs, dirtyRows, null, 0, dirtyRows.length));
+                if (dirtyColumns.length > 0) {
+                    int[] cleanRows = complement(dirtyRows, cityCount);
+                    pool.invoke(new FillTask(chunks, rowShift, cityXs, cityYs, warehouseXs, warehouseYs, cleanRows, dirtyColumns, 0, cleanRows.length));
+                }
+            }
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+
+            // Then the coordinates, then the key
+            MappedByteBuffer stored = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, 4L * coordinates.length);
+            stored.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(coordinates);
+            stored.force();
+            writeHeader(channel, cityCount, warehouseCount, hash);
+            channel.force(false);
+
+            return new MappedCostMatrix(cityCount, warehouseCount, regions, status,
+                    dirtyRows == null ? cityCount : dirtyRows.length, dirtyColumns == null ? warehouseCount : dirtyColumns.length);
+        }
+    }
+
+    /**
+     * Hashes the counts and the coordinates (64-bit multiply-xorshift mix).
+     */
+    private static long hash(int cityCount, int warehouseCount, int[] coordinates) {
+        long h = 0x9E3779B97F4A7C15L * (VERSION + 31L * cityCount) ^ warehouseCount;
+        for (int value : coordinates) {
+            h = (h ^ value) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h; // 0 marks a file whose costs are being written
+    }
+
+    private static void writeHeader(FileChannel channel, int cityCount, int warehouseCount, long hash) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, cityCount).putInt(16, warehouseCount).putLong(24, hash);
+        channel.write(header, 0);
+    }
+
+    /**
+     * Returns the indices (relative to first) of the points whose stored coordinates differ.
+     */
+    private static int[] changed(IntBuffer stored, int[] coordinates, int first, int count) {
+        int[] result = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int k = 2 * (first + i);
+            if (stored.get(k) != coordinates[k] || stored.get(k + 1) != coordinates[k + 1]) {
+                result[size++] = i;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int[] allRows(int count) {
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the rows of [0, count) that are not in the sorted array rows.
+     */
+    private static int[] complement(int[] rows, int count) {
+        int[] result = new int[count - rows.length];
+        int size = 0, next = 0;
+        for (int i = 0; i < count; i++) {
+            if (next < rows.length && rows[next] == i) {
+                next++;
+            } else {
+                result[size++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of rows per mapped chunk, as a power of two: 1 << rowShift rows of W doubles
+     * fit in CHUNK_BYTES (at least one row per chunk).
+     */
+    private static int rowShift(int warehouseCount) {
+        long rows = CHUNK_BYTES / (8L * Math.max(1, warehouseCount));
+        return rows <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(rows);
+    }
+
+    /**
+     * Maps the costs section of the file in chunks of whole rows.
+     */
+    private static MappedByteBuffer[] mapCosts(FileChannel channel, FileChannel.MapMode mode, long costsOffset,
+                                               int cityCount, int warehouseCount) throws IOException {
+        int rowsPerChunk = 1 << rowShift(warehouseCount);
+        int chunkCount = Math.max(1, (int) ((cityCount + (long) rowsPerChunk - 1) / rowsPerChunk));
+        MappedByteBuffer[] regions = new MappedByteBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long firstRow = (long) c * rowsPerChunk;
+            long rows = Math.max(0, Math.min(rowsPerChunk, cityCount - firstRow));
+            regions[c] = channel.map(mode, costsOffset + 8L * firstRow * warehouseCount, 8L * rows * warehouseCount);
+        }
+        return regions;
+    }
+
+    /**
+     * Returns little-endian double views of the mapped regions.
+     */
+    private static DoubleBuffer[] views(MappedByteBuffer[] regions) {
+        DoubleBuffer[] chunks = new DoubleBuffer[regions.length];
+        for (int c = 0; c < regions.length; c++) {
+            chunks[c] = regions[c].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return chunks;
+    }
+
+    /**
+     * Computes the costs of a range of rows (all columns, or only the given ones) into the mapped chunks.
+     */
+    private static class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final DoubleBuffer[] chunks;
+        private final int rowShift;
+        private final int[] cityXs, cityYs, warehouseXs, warehouseYs;
+        private final int[] rows; // Rows to compute
+        private final int[] columns; // Columns to compute, null for all
+        private final int from, to; // Range of positions in rows
+
+        FillTask(DoubleBuffer[] chunks, int rowShift, int[] cityXs, int[] cityYs, int[] warehouseXs, int[] warehouseYs,
+                 int[] rows, int[] columns, int from, int to) {
+            this.chunks = chunks;
+            this.rowShift = rowShift;
+            this.cityXs = cityXs;
+            this.cityYs = cityYs;
+            this.warehouseXs = warehouseXs;
+            this.warehouseYs = warehouseYs;
+            this.rows = rows;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int width = columns == null ? warehouseXs.length : columns.length;
+            if (to - from > 1 && (long) (to - from) * width > SEQUENTIAL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FillTask(chunks, rowShift, cityXs, cityYs, warehouseXs, warehouseYs, rows, columns, from, mid),
+                          new FillTask(chunks, rowShift, cityXs, cityYs, warehouseXs, warehouseYs, rows, columns, mid, to));
+                return;
+            }
+            int warehouseCount = warehouseXs.length;
+            int rowMask = (1 << rowShift) - 1;
+            for (int n = from; n < to; n++) {
+                int i = rows[n];
+                DoubleBuffer chunk = chunks[i >>> rowShift];
+                int offset = (i & rowMask) * warehouseCount;
+                int x = cityXs[i], y = cityYs[i];
+                if (columns == null) {
+                    for (int j = 0; j < warehouseCount; j++) {
+                        chunk.put(offset + j, EmergencySupplyNetwork.transportationCost(x, y, warehouseXs[j], warehouseYs[j]));
+                    }
+                } else {
+                    for (int j : columns) {
+                        chunk.put(offset + j, EmergencySupplyNetwork.transportationCost(x, y, warehouseXs[j], warehouseYs[j]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The dense costs of a network, read from the memory-mapped cache file. Every warehouse
+     * is a candidate for every city, like DenseCostMatrix.
+     */
+    public static class MappedCostMatrix implements CostProvider {
+        private final int cityCount;
+        private final int warehouseCount;
+        private final DoubleBuffer[] chunks; // Rows [c << rowShift, (c + 1) << rowShift) of the costs
+        private final int rowShift;
+        private final int rowMask;
+        private final int[] allWarehouses; // Candidate list shared by all cities (0..W-1)
+        private final Status status;
+        private final int recomputedRows;
+        private final int recomputedColumns;
+
+        MappedCostMatrix(int cityCount, int warehouseCount, MappedByteBuffer[] regions, Status status,
+                         int recomputedRows, int recomputedColumns) {
+            this.cityCount = cityCount;
+            this.warehouseCount = warehouseCount;
+            this.chunks = views(regions);
+            this.rowShift = rowShift(warehouseCount);
+            this.rowMask = (1 << rowShift) - 1;
+            this.allWarehouses = new int[warehouseCount];
+            for (int j = 0; j < warehouseCount; j++) {
+                this.allWarehouses[j] = j;
+            }
+            this.status = status;
+            this.recomputedRows = recomputedRows;
+            this.recomputedColumns = recomputedColumns;
+        }
+
+        /**
+         * Returns how the costs were obtained: mapped as they were, patched, or computed.
+         *
+         * @return the status of the cache
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the number of city rows that were recomputed (all of them when rebuilt).
+         *
+         * @return the number of recomputed rows
+         */
+        public int getRecomputedRows() {
+            return recomputedRows;
+        }
+
+        /**
+         * Returns the number of warehouse columns that were recomputed (all of them when rebuilt).
+         *
+         * @return the number of recomputed columns
+         */
+        public int getRecomputedColumns() {
+            return recomputedColumns;
+        }
+
+        @Override
+        public int cityCount() {
+            return cityCount;
+        }
+
+        @Override
+        public int warehouseCount() {
+            return warehouseCount;
+        }
+
+        @Override
+        public double cost(int cityIndex, int warehouseIndex) {
+            return chunks[cityIndex >>> rowShift].get((cityIndex & rowMask) * warehouseCount + warehouseIndex);
+        }
+
+        @Override
+        public int[] candidates(int cityIndex) {
+            return allWarehouses;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// CostProvider.java
+
+/**
+ * The CostProvider interface abstracts how transportation costs between cities and
+ * warehouses are stored and looked up. It lets the EmergencySupplyNetwork work either
+ * with the original dense cost matrix (every city connected to every warehouse) or with
+ * a sparse cost graph in which each city only knows a few candidate warehouses.
+ *
+ * Cities and warehouses are referred to by their index in the lists the network was
+ * constructed with, which is the same indexing used by the cost matrix.
+ *
+ * Methods:
+ *   {cityCount()}: Number of cities covered by the provider.
+ *   {warehouseCount()}: Number of warehouses covered by the provider.
+ *   {cost(int, int)}: Transportation cost between a city and a warehouse.
+ *   {candidates(int)}: Warehouses that may supply a given city.
+ *   {costs(int, int[])}: Transportation costs between a city and several warehouses.
+ *   {candidatesAt(int, int)}: Warehouses that would supply a new city at the given location.
+ */
+public interface CostProvider {
+
+    /**
+     * Returns the number of cities (rows) covered by this provider.
+     *
+     * @return the number of cities
+     */
+    int cityCount();
+
+    /**
+     * Returns the number of warehouses (columns) covered by this provider.
+     *
+     * @return the number of warehouses
+     */
+    int warehouseCount();
+
+    /**
+     * Returns the transportation cost between the city and the warehouse at the given indices.
+     * The cost is always the exact distance-tiered cost, even for pairs that are not among
+     * the city's candidates (sparse providers compute those on the fly).
+     *
+     * @param cityIndex      the index of the city
+     * @param warehouseIndex the index of the warehouse
+     * @return the transportation cost
+     */
+    double cost(int cityIndex, int warehouseIndex);
+
+    /**
+     * Returns the indices of the warehouses that are allowed to supply the given city.
+     * A dense provider returns every warehouse, a sparse provider only the ones it materialized.
+     * The returned array must not be modified by the caller.
+     *
+     * @param cityIndex the index of the city
+     * @return the indices of the candidate warehouses
+     */
+    int[] candidates(int cityIndex);
+
+    /**
+     * Returns the transportation costs between the city and the given warehouses, in the same
+     * order. This is meant for the scans that look at each pair once, like the ranking of the
+     * candidates of a city: a provider that computes its costs on demand can then compute
+     * them without caching them. A provider may return costs it keeps (like the candidates),
+     * so the returned array must not be modified by the caller.
+     *
+     * @param cityIndex        the index of the city
+     * @param warehouseIndices the indices of the warehouses
+     * @return the transportation costs, aligned with the warehouse indices
+     */
+    default double[] costs(int cityIndex, int[] warehouseIndices) {
+        double[] costs = new double[warehouseIndices.length];
+        for (int n = 0; n < warehouseIndices.length; n++) {
+            costs[n] = cost(cityIndex, warehouseIndices[n]);
+        }
+        return costs;
+    }
+
+    /**
+     * Returns the indices of the warehouses that would be the candidates of a city at the
+     * given location, if the provider were built with it: a city added to the network later
+     * (see IncrementalAllocator.addCity) then gets the candidates a new run would give it.
+     * A dense provider returns every warehouse, which is the default.
+     *
+     * @param x the x-coordinate of the city
+     * @param y the y-coordinate of the city
+     * @return the indices of the candidate warehouses, in a new array
+     */
+    default int[] candidatesAt(int x, int y) {
+        int[] all = new int[warehouseCount()];
+        for (int j = 0; j < all.length; j++) {
+            all[j] = j;
+        }
+        return all;
+    }
+}
@@ -0,0 +1,172 @@
+// DenseCostMatrix.java
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The DenseCostMatrix class is the original cost representation of the network: a full
+ * matrix holding the transportation cost of every (city, warehouse) pair. Every warehouse
+ * is a candidate for every city.
+ *
+ * The matrix is stored as one contiguous double[] in row-major order (the costs of city i
+ * are at [i * W, (i + 1) * W)), so that a city's row is read sequentially. It is computed in
+ * parallel: the city rows are split across a ForkJoinPool, and the coordinates are read from
+ * primitive int[] arrays instead of the City/Warehouse objects.
+ *
+ * This is the default CostProvider used by EmergencySupplyNetwork. It is exact and fast to
+ * query, but needs cities x warehouses entries of memory.
+ *
+ * Methods:
+ *   {compute(List, List)}: Computes the matrix in parallel on the common pool.
+ *   {compute(List, List, ForkJoinPool)}: Computes the matrix in parallel on the given pool.
+ *   {cost(int, int)}: Returns the cost between a city and a warehouse.
+ *   {toArray()}: Copies the matrix into a 2D array.
+ */
+public class DenseCostMatrix implements CostProvider {
+    // Number of cells below which a block of rows is computed by a single task
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+
+    private final int cityCount;
+    private final int warehouseCount;
+    private final double[] costs; // costs[cityIndex * warehouseCount + warehouseIndex]
+    private final int[] allWarehouses; // Candidate list shared by all cities (0..W-1)
+
+    /**
+     * Constructs a DenseCostMatrix over already computed costs.
+     *
+     * @param cityCount      the number of cities (rows)
+     * @param warehouseCount the number of warehouses (columns)
+     * @param costs          the costs in row-major order, of length cityCount * warehouseCount
+     */
+    public DenseCostMatrix(int cityCount, int warehouseCount, double[] costs) {
+        if ((long) cityCount * warehouseCount != costs.length) {
+            throw new IllegalArgumentException("Expected " + ((long) cityCount * warehouseCount) + " costs, got " + costs.length);
+        }
+        this.cityCount = cityCount;
+        this.warehouseCount = warehouseCount;
+        this.costs = costs;
+        this.allWarehouses = new int[warehouseCount];
+        for (int j = 0; j < warehouseCount; j++) {
+            this.allWarehouses[j] = j;
+        }
+    }
+
+    /**
+     * Computes the cost matrix of the given cities and warehouses in parallel, on the common pool.
+     *
+     * @param cities     the list of cities (rows)
+     * @param warehouses the list of warehouses (columns)
+     * @return the computed cost matrix
+     */
+    public static DenseCostMatrix compute(List<EmergencySupplyNetwork.City> cities,
+                                          List<EmergencySupplyNetwork.Warehouse> warehouses) {
+        return compute(cities, warehouses, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the cost matrix of the given cities and warehouses in parallel, on the given pool.
+     *
+     * @param cities     the list of cities (rows)
+     * @param warehouses the list of warehouses (columns)
+     * @param pool       the pool running the row tasks
+     * @return the computed cost matrix
+     */
+    public static DenseCostMatrix compute(List<EmergencySupplyNetwork.City> cities,
+                                          List<EmergencySupplyNetwork.Warehouse> warehouses, ForkJoinPool pool) {
+        long cells = (long) cities.size() * warehouses.size();
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A dense cost matrix of " + cells + " cells does not fit in one array, use a sparse cost provider");
+        }
+
+        // Copy the coordinates into primitive arrays once
+        int[] cityXs = new int[cities.size()];
+        int[] cityYs = new int[cities.size()];
+        for (int i = 0; i < cities.size(); i++) {
+            cityXs[i] = cities.get(i).x;
+            cityYs[i] = cities.get(i).y;
+        }
+        int[] warehouseXs = new int[warehouses.size()];
+        int[] warehouseYs = new int[warehouses.size()];
+        for (int j = 0; j < warehouses.size(); j++) {
+            warehouseXs[j] = warehouses.get(j).x;
+            warehouseYs[j] = warehouses.get(j).y;
+        }
+
+        double[] costs = new double[(int) cells];
+        pool.invoke(new RowTask(cityXs, cityYs, warehouseXs, warehouseYs, costs, 0, cities.size()));
+        return new DenseCostMatrix(cities.size(), warehouses.size(), costs);
+    }
+
+    /**
+     * Fork/join task computing the rows [from, to) of the matrix, splitting the range in two
+     * until it is small enough.
+     */
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] cityXs, cityYs, warehouseXs, warehouseYs;
+        private final double[] costs;
+        private final int from, to;
+
+        RowTask(int[] cityXs, int[] cityYs, int[] warehouseXs, int[] warehouseYs, double[] costs, int from, int to) {
+            this.cityXs = cityXs;
+            this.cityYs = cityYs;
+            this.warehouseXs = warehouseXs;
+            this.warehouseYs = warehouseYs;
+            this.costs = costs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int warehouseCount = warehouseXs.length;
+            if (to - from > 1 && (long) (to - from) * warehouseCount > SEQUENTIAL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RowTask(cityXs, cityYs, warehouseXs, warehouseYs, costs, from, mid),
+                          new RowTask(cityXs, cityYs, warehouseXs, warehouseYs, costs, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                int x = cityXs[i], y = cityYs[i];
+                int offset = i * warehouseCount;
+                for (int j = 0; j < warehouseCount; j++) {
+                    costs[offset + j] = EmergencySupplyNetwork.transportationCost(x, y, warehouseXs[j], warehouseYs[j]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int cityCount() {
+        return cityCount;
+    }
+
+    @Override
+    public int warehouseCount() {
+        return warehouseCount;
+    }
+
+    @Override
+    public double cost(int cityIndex, int warehouseIndex) {
+        return costs[cityIndex * warehouseCount + warehouseIndex];
+    }
+
+    @Override
+    public int[] candidates(int cityIndex) {
+        return allWarehouses;
+    }
+
+    /**
+     * Copies the matrix into a 2D array indexed by city index then warehouse index.
+     *
+     * @return a new 2D array with the costs
+     */
+    public double[][] toArray() {
+        double[][] matrix = new double[cityCount][warehouseCount];
+        for (int i = 0; i < cityCount; i++) {
+            System.arraycopy(costs, i * warehouseCount, matrix[i], 0, warehouseCount);
+        }
+        return matrix;
+    }
+}
@@ -1,5 +1,7 @@
 // DynamicResourceSharing.java
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The DynamicResourceSharing class provides a way to manage and share resources
@@ -9,89 +11,162 @@ import java.util.*;
  * the same set of warehouses.
  * 
  * This class is initialized with a mapping of cities to their respective 
- * warehouses and uses union-find with path compression and union by rank to 
+ * warehouses and uses union-find with path halving and union by size to 
  * efficiently manage the clusters of cities.
  * 
+ * The disjoint sets are stored in primitive arrays: the city IDs are densely
+ * remapped to indices 0..n-1 (in the iteration order of the mapping), so that
+ * find and union never box integers nor look up a HashMap, and find is iterative
+ * so deep chains cannot overflow the stack. The number of clusters and the size
+ * of each cluster are maintained by union, and read in O(1).
+ * 
+ * Queries in bulk go through a ClusterSnapshot: the root of every city is resolved once
+ * into an int[], and the members of every cluster are laid out contiguously, so that a
+ * query is two array reads (and never writes, unlike find), batches of pairs can be
+ * answered from several threads, and the members of a cluster are listed without scanning
+ * all the cities.
+ * 
  * Methods:
  *   {DynamicResourceSharing(Map)}: Constructs a DynamicResourceSharing object with the given city-to-warehouse mapping.
- *   {find(int)}: Finds the root parent of the given city using path compression.
+ *   {find(int)}: Finds the root parent of the given city using path halving.
  *   {union(int, int)}: Merges the sets containing the two specified cities.
  *   {areInSameCluster(int, int)}: Determines if two cities are in the same cluster.
  *   {shareResources(int, int)}: Determines if two cities share the same set of warehouses.
+ *   {mergeSharedResources(List, MergeListener)}: Merges the clusters of all the cities sharing the same set of warehouses.
  *   {getClusters()}: Retrieves the clusters of cities based on their root parent.
+ *   {getClusterCount()}: Returns the number of clusters.
+ *   {getClusterSize(int)}: Returns the number of cities in the cluster of the given city.
+ *   {getFindCount(), getFindSteps()}: Return the number of finds and the total length of their paths.
+ *   {snapshot()}: Resolves the current clusters into a read-only ClusterSnapshot for bulk queries.
  * 
  * Fields:
- *   {private Map<Integer, Integer> parent}: A map to store the parent of each city for union-find operations.
- *   {private Map<Integer, Integer> rank}: A map to store the rank (depth) of each city for union-find operations.
+ *   {private int[] cityIds}: The city ID of each index.
+ *   {private IdIndex indexOf}: The index of each city ID.
+ *   {private int[] parent}: The parent index of each index for union-find operations.
+ *   {private int[] size}: The number of cities in the tree of each root index.
+ *   {private int clusterCount}: The current number of clusters.
  *   {private Map<Integer, List<Integer>> cityToWarehouses}: A map to store the city-to-warehouse mapping.
  */
 public class DynamicResourceSharing {
-    private Map<Integer, Integer> parent;
-    private Map<Integer, Integer> rank;
+    private final int[] cityIds; // Index -> city ID
+    private final IdIndex indexOf; // City ID -> index
+    private final int[] parent; // Parent index of each index (roots are their own parent)
+    private final int[] size; // Size of the tree of each root index
+    private int clusterCount; // Number of clusters (roots)
+    private long findCount; // Finds made so far (by find, union, areInSameCluster...)
+    private long findSteps; // Parent links followed by those finds
     private Map<Integer, List<Integer>> cityToWarehouses; // Store city-to-warehouse mapping
 
     /**
      * Constructs a DynamicResourceSharing object with the given city-to-warehouse mapping.
-     * Initializes the parent and rank maps for union-find operations.
+     * Assigns an index to every city ID, each city being its own cluster.
      *
      * @param cityToWarehouses A map where the key is a city ID and the value is a list of warehouse IDs associated with that city.
      */
     public DynamicResourceSharing(Map<Integer, List<Integer>> cityToWarehouses) {
         this.cityToWarehouses = cityToWarehouses; // Store city-to-warehouse mapping
-        parent = new HashMap<>(); // Initialize parent map
-        rank = new HashMap<>(); // Initialize rank map
+        int n = cityToWarehouses.size();
+        cityIds = new int[n];
+        indexOf = new IdIndex(n);
+        parent = new int[n];
+        size = new int[n];
 
-        // Initialize parent and rank for all city IDs
+        // Initialize parent and size for all city IDs
+        int index = 0;
         for (Integer cityId : cityToWarehouses.keySet()) {
-            parent.put(cityId, cityId);
-            rank.put(cityId, 0);
+            cityIds[index] = cityId;
+            indexOf.put(cityId, index);
+            parent[index] = index;
+            size[index] = 1;
+            index++;
         }
+        clusterCount = n;
     }
 
     /**
-     * Finds the root parent of the given city using path compression.
+     * Finds the root parent of the given city using path halving.
      * 
      * @param cityId the ID of the city to find the root parent for
      * @return the ID of the root parent city
      */
     public int find(int cityId) {
-        if (parent.get(cityId) != cityId) { // If the city is not its own parent
-            parent.put(cityId, find(parent.get(cityId))); // Recursively find the root parent, this is path compression
+        return cityIds[findIndex(index(cityId))];
+    }
+
+    /**
+     * Finds the root index of the given index. Path halving: every node on the way
+     * is linked to its grandparent, which halves the length of the path.
+     */
+    private int findIndex(int i) {
+        findCount++;
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+            findSteps++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the number of finds made so far, by all the operations.
+     *
+     * @return the number of finds
+     */
+    public long getFindCount() {
+        return findCount;
+    }
+
+    /**
+     * Returns the total length of the paths followed by the finds made so far (the number of
+     * parent links followed, after halving). Divided by getFindCount(), it is the average
+     * path length, which path halving and union by size keep close to 1.
+     *
+     * @return the number of steps of the finds
+     */
+    public long getFindSteps() {
+        return findSteps;
+    }
+
+    /**
+     * Returns the index of a city ID.
+     *
+     * @throws IllegalArgumentException if the city is not part of the mapping
+     */
+    private int index(int cityId) {
+        int i = indexOf.get(cityId);
+        if (i < 0) {
+            throw new IllegalArgumentException("Unknown city ID: " + cityId);
         }
-        return parent.get(cityId);
+        return i;
     }
 
     /**
      * Merges the sets containing the two specified cities. If the cities are 
      * already in the same set, no changes are made. This method uses path 
-     * compression to find the root representatives of the sets and union by 
-     * rank to maintain a balanced tree structure.
+     * halving to find the root representatives of the sets and union by 
+     * size to maintain a balanced tree structure.
      *
      * @param cityId1 the identifier of the first city
      * @param cityId2 the identifier of the second city
      */
     public void union(int cityId1, int cityId2) {
-    // Find the root representatives of both cities using path compression
-    int root1 = find(cityId1);
-    int root2 = find(cityId2);
+    // Find the root representatives of both cities using path halving
+    int root1 = findIndex(index(cityId1));
+    int root2 = findIndex(index(cityId2));
 
     // Only merge if cities are from different sets/clusters
     if (root1 != root2) {
-        // If tree 1 is deeper, make it the parent to maintain balance
-        if (rank.get(root1) > rank.get(root2)) {
-            parent.put(root2, root1);
-        } 
-        // If tree 2 is deeper, make it the parent to maintain balance
-        else if (rank.get(root1) < rank.get(root2)) {
-            parent.put(root1, root2);
-        }
-        // If both trees have same depth
+        // If tree 2 is larger, make it the parent to maintain balance
+        if (size[root1] < size[root2]) {
+            parent[root1] = root2;
+            size[root2] += size[root1];
+        }
+        // Otherwise (tree 1 is larger, or same size) root1 is the parent
         else {
-            // Arbitrarily choose root1 as parent
-            parent.put(root2, root1);
-            // Increment rank of root1 since tree depth increases by 1
-            rank.put(root1, rank.get(root1) + 1);
+            parent[root2] = root1;
+            size[root1] += size[root2];
             }
+        clusterCount--; // Two clusters became one
         }
     }
 
@@ -103,7 +178,36 @@ public class DynamicResourceSharing {
      * @return true if both cities are in the same cluster, false otherwise
      */
     public boolean areInSameCluster(int cityId1, int cityId2) {
-        return find(cityId1) == find(cityId2);
+        return findIndex(index(cityId1)) == findIndex(index(cityId2));
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of clusters
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Returns the number of cities in the cluster of the given city.
+     *
+     * @param cityId the ID of the city
+     * @return the size of the cluster of the city
+     */
+    public int getClusterSize(int cityId) {
+        return size[findIndex(index(cityId))];
+    }
+
+    /**
+     * Resolves the current clusters into a read-only snapshot, for bulk queries. The
+     * snapshot does not follow later unions.
+     *
+     * @return the snapshot of the clusters
+     */
+    public ClusterSnapshot snapshot() {
+        return new ClusterSnapshot(this);
     }
 
     /**
@@ -133,6 +237,124 @@ public class DynamicResourceSharing {
         return false; // No shared resources
     }
 
+    /**
+     * Listener notified of every pair of cities merged by mergeSharedResources.
+     */
+    public interface MergeListener {
+        /**
+         * Called after the clusters of the two cities have been merged.
+         *
+         * @param cityId1   the ID of the first city of the pair
+         * @param cityId2   the ID of the second city of the pair
+         * @param clusterId the root parent ID of the merged cluster
+         */
+        void onMerge(int cityId1, int cityId2, int clusterId);
+    }
+
+    /**
+     * Merges the clusters of all the cities that share the same set of warehouses.
+     * It has the same effect as calling union on every pair (i, j), i < j, of the given
+     * cities for which shareResources is true, and reports the same pairs in the same
+     * order (i ascending, then j ascending), but without comparing every pair:
+     *
+     *   1. Each city's warehouse list is canonicalized into a sorted int[] signature
+     *      (the lists are sets: a city is never served twice by the same warehouse).
+     *   2. Identical signatures are grouped with a hash map, in O(C * k).
+     *   3. The first city of each group is merged with the other members, which
+     *      already puts the whole group in one cluster; the other pairs of the group
+     *      are only reported to the listener.
+     *
+     * Cities without a warehouse list share nothing and are left alone. Cities with an
+     * empty list all share the (empty) set of warehouses, as with shareResources.
+     *
+     * @param cityIds  the IDs of the cities, in the order in which the pairs are reported
+     * @param listener notified of every merged pair, or null if the pairs are not needed
+     */
+    public void mergeSharedResources(List<Integer> cityIds, MergeListener listener) {
+        int n = cityIds.size();
+
+        // Group the cities by signature, in order of first appearance
+        Map<Signature, Integer> groupOfSignature = new HashMap<>();
+        int[] groupOf = new int[n]; // Group of each position, -1 if the city has no warehouse list
+        int[] groupSize = new int[n];
+        int groups = 0;
+        for (int p = 0; p < n; p++) {
+            List<Integer> warehouses = cityToWarehouses.get(cityIds.get(p));
+            if (warehouses == null) {
+                groupOf[p] = -1; // No warehouses assigned
+                continue;
+            }
+            Signature signature = new Signature(warehouses);
+            Integer group = groupOfSignature.get(signature);
+            if (group == null) {
+                group = groups++;
+                groupOfSignature.put(signature, group);
+            }
+            groupOf[p] = group;
+            groupSize[group]++;
+        }
+
+        // Lay the members of every group out contiguously, in ascending position
+        int[] groupStart = new int[groups + 1];
+        for (int g = 0; g < groups; g++) {
+            groupStart[g + 1] = groupStart[g] + groupSize[g];
+        }
+        int[] members = new int[groupStart[groups]];
+        int[] rankInGroup = new int[n]; // Position of each city within its group
+        int[] filled = new int[groups];
+        for (int p = 0; p < n; p++) {
+            int g = groupOf[p];
+            if (g < 0) continue;
+            rankInGroup[p] = filled[g];
+            members[groupStart[g] + filled[g]++] = p;
+        }
+
+        // Merge (and report) the pairs of every group
+        for (int p = 0; p < n; p++) {
+            int g = groupOf[p];
+            if (g < 0) continue;
+            int rank = rankInGroup[p];
+            if (rank > 0 && listener == null) continue; // Only the first row of a group merges anything
+            int cityId1 = cityIds.get(p);
+            for (int m = groupStart[g] + rank + 1; m < groupStart[g + 1]; m++) {
+                int cityId2 = cityIds.get(members[m]);
+                if (rank == 0) {
+                    union(cityId1, cityId2); // The other rows are already in the same cluster
+                }
+                if (listener != null) {
+                    listener.onMerge(cityId1, cityId2, find(cityId1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Canonical form of a set of warehouses: the sorted warehouse IDs, hashed and compared by content.
+     */
+    private static class Signature {
+        private final int[] warehouseIds;
+        private final int hash;
+
+        Signature(List<Integer> warehouses) {
+            warehouseIds = new int[warehouses.size()];
+            for (int i = 0; i < warehouseIds.length; i++) {
+                warehouseIds[i] = warehouses.get(i);
+            }
+            Arrays.sort(warehouseIds);
+            hash = Arrays.hashCode(warehouseIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(warehouseIds, ((Signature) other).warehouseIds);
+        }
+    }
+
     /**
      * Retrieves the clusters of cities based on their root parent.
      * Each cluster is represented as a list of city IDs, grouped by their root parent ID.
@@ -142,11 +364,257 @@ public class DynamicResourceSharing {
     public Map<Integer, List<Integer>> getClusters() {
         Map<Integer, List<Integer>> clusters = new HashMap<>(); // Store clusters of cities
 
-        for (int cityId : parent.keySet()) { // Iterate over all city IDs
-            int root = find(cityId); // Find the root parent of the city ID
-            clusters.putIfAbsent(root, new ArrayList<>()); // Initialize the cluster if it doesn't exist
-            clusters.get(root).add(cityId); // Add the city ID to the cluster
+        for (int i = 0; i < cityIds.length; i++) { // Iterate over all city indices
+            int root = findIndex(i); // Find the root index of the city
+            List<Integer> cluster = clusters.get(cityIds[root]);
+            if (cluster == null) { // Initialize the cluster if it doesn't exist, with its final size
+                cluster = new ArrayList<>(size[root]);
+                clusters.put(cityIds[root], cluster);
+            }
+            cluster.add(cityIds[i]); // Add the city ID to the cluster
         }
         return clusters; // Return the clusters
     }
+
+    /**
+     * A read-only view of the clusters at the time it was taken. The root of every city is
+     * resolved once (one find per city, in O(C)) into an int[], and the cities are laid out
+     * cluster by cluster, in index order, with the start of every cluster. Nothing is written
+     * after the construction, so a snapshot can be queried from any number of threads.
+     *
+     * Methods:
+     *   {contains(int)}: Tells if a city is part of the mapping.
+     *   {clusterOf(int)}: Returns the root parent ID of the cluster of a city (the same as find).
+     *   {areInSameCluster(int, int)}: Determines if two cities are in the same cluster.
+     *   {areInSameCluster(int[], int[], ForkJoinPool)}: Answers a batch of pairs, optionally in parallel.
+     *   {members(int)}: Returns the IDs of the cities in the cluster of a city.
+     *   {getClusterCount(), cityCount()}: Return the number of clusters and of cities.
+     */
+    public static class ClusterSnapshot {
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 16; // Pairs answered by one task
+
+        private final int[] cityIds; // Index -> city ID (shared with the union-find, never modified)
+        private final IdIndex indexOf; // City ID -> index (shared, never modified after construction)
+        private final int[] rootOf; // Root index of each index
+        private final int[] members; // Indices, cluster by cluster
+        private final int[] clusterStart; // Start of the cluster of each root index in members
+        private final int[] clusterSize; // Size of the cluster of each root index
+        private final int clusterCount;
+
+        private ClusterSnapshot(DynamicResourceSharing sharing) {
+            int n = sharing.cityIds.length;
+            this.cityIds = sharing.cityIds;
+            this.indexOf = sharing.indexOf;
+            this.rootOf = new int[n];
+            this.clusterSize = new int[n];
+            for (int i = 0; i < n; i++) {
+                rootOf[i] = sharing.findIndex(i);
+                clusterSize[i] = sharing.size[i]; // Only read for the roots
+            }
+            this.clusterCount = sharing.clusterCount;
+
+            // Start of every cluster, in the order of the first index of each cluster
+            this.clusterStart = new int[n];
+            int start = 0;
+            boolean[] placed = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                int root = rootOf[i];
+                if (!placed[root]) {
+                    placed[root] = true;
+                    clusterStart[root] = start;
+                    start += clusterSize[root];
+                }
+            }
+            this.members = new int[n];
+            int[] filled = new int[n];
+            for (int i = 0; i < n; i++) {
+                int root = rootOf[i];
+                members[clusterStart[root] + filled[root]++] = i;
+            }
+        }
+
+        /**
+         * Tells if a city is part of the mapping.
+         *
+         * @param cityId the ID of the city
+         * @return true if the city is known
+         */
+        public boolean contains(int cityId) {
+            return indexOf.get(cityId) >= 0;
+        }
+
+        /**
+         * Returns the root parent ID of the cluster of a city, as find did when the snapshot
+         * was taken.
+         *
+         * @param cityId the ID of the city
+         * @return the ID of the root parent city
+         */
+        public int clusterOf(int cityId) {
+            return cityIds[rootOf[index(cityId)]];
+        }
+
+        /**
+         * Determines if two cities are in the same cluster.
+         *
+         * @param cityId1 the ID of the first city
+         * @param cityId2 the ID of the second city
+         * @return true if both cities are in the same cluster, false otherwise
+         */
+        public boolean areInSameCluster(int cityId1, int cityId2) {
+            return rootOf[index(cityId1)] == rootOf[index(cityId2)];
+        }
+
+        /**
+         * Answers a batch of queries "are cityIds1[q] and cityIds2[q] in the same cluster?".
+         * The pairs are answered in one pass over the arrays, split across the pool if one
+         * is given; each answer costs the two lookups of the IDs and two array reads.
+         *
+         * @param cityIds1 the first city of each pair
+         * @param cityIds2 the second city of each pair
+         * @param pool     the pool answering the pairs in parallel, or null to answer them in this thread
+         * @return the answer of each pair
+         * @throws IllegalArgumentException if the arrays differ in length or an ID is unknown
+         */
+        public boolean[] areInSameCluster(int[] cityIds1, int[] cityIds2, ForkJoinPool pool) {
+            if (cityIds1.length != cityIds2.length) {
+                throw new IllegalArgumentException("Pairs of different lengths: " + cityIds1.length + " and " + cityIds2.length);
+            }
+            boolean[] answers = new boolean[cityIds1.length];
+            PairTask task = new PairTask(cityIds1, cityIds2, answers, 0, answers.length);
+            if (pool == null) {
+                task.answer();
+            } else {
+                pool.invoke(task);
+            }
+            return answers;
+        }
+
+        /**
+         * Fork/join task answering the pairs [from, to), splitting the range in two until it
+         * is small enough.
+         */
+        private class PairTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int[] cityIds1, cityIds2;
+            private final boolean[] answers;
+            private final int from, to;
+
+            PairTask(int[] cityIds1, int[] cityIds2, boolean[] answers, int from, int to) {
+                this.cityIds1 = cityIds1;
+                this.cityIds2 = cityIds2;
+                this.answers = answers;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > SEQUENTIAL_THRESHOLD) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new PairTask(cityIds1, cityIds2, answers, from, mid),
+                              new PairTask(cityIds1, cityIds2, answers, mid, to));
+                    return;
+                }
+                answer();
+            }
+
+            void answer() {
+                for (int q = from; q < to; q++) {
+                    answers[q] = rootOf[index(cityIds1[q])] == rootOf[index(cityIds2[q])];
+                }
+            }
+        }
+
+        /**
+         * Returns the IDs of the cities in the cluster of a city (the city included), in the
+         * order of the mapping.
+         *
+         * @param cityId the ID of the city
+         * @return the IDs of the members of its cluster
+         */
+        public int[] members(int cityId) {
+            int root = rootOf[index(cityId)];
+            int start = clusterStart[root];
+            int[] ids = new int[clusterSize[root]];
+            for (int m = 0; m < ids.length; m++) {
+                ids[m] = cityIds[members[start + m]];
+            }
+            return ids;
+        }
+
+        /**
+         * Returns the number of clusters.
+         *
+         * @return the number of clusters
+         */
+        public int getClusterCount() {
+            return clusterCount;
+        }
+
+        /**
+         * Returns the number of cities.
+         *
+         * @return the number of cities
+         */
+        public int cityCount() {
+            return cityIds.length;
+        }
+
+        /**
+         * Returns the index of a city ID.
+         *
+         * @throws IllegalArgumentException if the city is not part of the mapping
+         */
+        private int index(int cityId) {
+            int i = indexOf.get(cityId);
+            if (i < 0) {
+                throw new IllegalArgumentException("Unknown city ID: " + cityId);
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Open-addressing hash map from city ID to index, on primitive arrays (linear probing).
+     */
+    static class IdIndex {
+        private final int[] keys;
+        private final int[] values; // Index + 1, 0 marks an empty slot
+        private final int mask;
+
+        IdIndex(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1; // Load factor <= 0.5
+            keys = new int[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9; // Fibonacci hashing spreads consecutive IDs
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void put(int key, int value) {
+            int s = slot(key);
+            while (values[s] != 0 && keys[s] != key) {
+                s = (s + 1) & mask;
+            }
+            keys[s] = key;
+            values[s] = value + 1;
+        }
+
+        /**
+         * @return the index of the key, or -1 if it is absent
+         */
+        int get(int key) {
+            int s = slot(key);
+            while (values[s] != 0) {
+                if (keys[s] == key) return values[s] - 1;
+                s = (s + 1) & mask;
+            }
+            return -1;
+        }
+    }
 }
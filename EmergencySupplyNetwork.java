@@ -19,12 +19,23 @@ import java.util.*;
  * Methods:
  * - EmergencySupplyNetwork(List<City> cities, List<Warehouse> warehouses):
  *   Constructs the network with the specified list of cities and warehouses.
- * - calculateCostMatrix(): Calculates the cost matrix for transporting supplies.
+ * - EmergencySupplyNetwork(List<City> cities, List<Warehouse> warehouses, CostProvider costProvider):
+ *   Constructs the network on top of an existing cost provider (e.g. a sparse SpatialCostGraph).
+ * - calculateCostMatrix(): Calculates the cost matrix for transporting supplies (in parallel, see DenseCostMatrix).
  * - euclideanDistance(int x1, int y1, int x2, int y2): Calculates the Euclidean distance between two points.
  * - getTransportCoefficient(double distance): Determines the transport coefficient based on the distance.
  * - getCostMatrix(): Retrieves the cost matrix for the network.
+ * - getCities(), getWarehouses(): Retrieve the cities and warehouses of the network.
+ * - getCostProvider(): Retrieves the cost provider used by the network.
+ * - getWarehouseRanking(): Retrieves the cost-ordered warehouses of every city.
+ * - setRankingDepth(int depth): Limits the allocation to the k cheapest warehouses of each city.
+ * - setCityOrdering(CityOrdering ordering): Sets how the cities of the same priority are ordered (by ID by default).
+ * - setListener(NetworkListener listener): Receives the allocation events (nothing is printed by default).
  * - allocateResources(): Allocates resources from warehouses to cities based on priority and cost.
- * - calculateTransportationCost(City city, Warehouse warehouse): Calculates the transportation cost between a city and a warehouse.
+ * - allocateResourcesParallel(): Same allocation as allocateResources(), independent cities of a tier served in parallel.
+ * - snapshot(): Takes an immutable snapshot of the network, for allocation runs that do not modify it (see AllocationState).
+ * - allocateResourcesOptimal(): Same priority tiers, but at minimal total transportation cost (min-cost flow).
+ * - transportationCost(int x1, int y1, int x2, int y2): Calculates the transportation cost between two locations.
  * 
  * Nested Classes:
  * - City: Represents a city in the network with id, coordinates, demand, priority, and name.
@@ -35,10 +46,15 @@ import java.util.*;
  * - Priority: Represents priority levels (LOW, MEDIUM, HIGH) for cities.
  */
 public class EmergencySupplyNetwork {
-    private double[][] costMatrix;
+    private double[][] costMatrix; // 2D copy of the costs, only built on request by getCostMatrix()
+    private CostProvider costProvider; // Source of the costs used by the allocation
+    private WarehouseRanking ranking; // Cost-ordered warehouses of each city, built on first allocation
+    private int rankingDepth = 0; // Number of warehouses ranked per city, 0 for all candidates
     private List<City> cities;
     private List<Warehouse> warehouses;
     private boolean costReady = false;
+    private NetworkListener listener = NetworkListener.NONE; // Receives the allocation events
+    private CityOrdering cityOrdering = CityOrdering.BY_ID; // Order of the cities within a priority
 
     /**
      * Constructs an EmergencySupplyNetwork with the specified list of cities and warehouses.
@@ -50,26 +66,38 @@ public class EmergencySupplyNetwork {
     public EmergencySupplyNetwork(List<City> cities, List<Warehouse> warehouses) {
         this.cities = cities;
         this.warehouses = warehouses;
-        this.costMatrix = new double[cities.size()][warehouses.size()];
         calculateCostMatrix();
     }
 
+    /**
+     * Constructs an EmergencySupplyNetwork that takes its costs from the given provider
+     * instead of computing the dense cost matrix. This is the way to use a sparse cost
+     * graph (see SpatialCostGraph) on networks too large for the full matrix: only the
+     * candidate warehouses of each city are then considered during the allocation.
+     *
+     * @param cities       the list of cities in the network
+     * @param warehouses   the list of warehouses in the network
+     * @param costProvider the provider of the transportation costs, indexed like the two lists
+     */
+    public EmergencySupplyNetwork(List<City> cities, List<Warehouse> warehouses, CostProvider costProvider) {
+        if (costProvider.cityCount() != cities.size() || costProvider.warehouseCount() != warehouses.size()) {
+            throw new IllegalArgumentException("The cost provider does not match the number of cities and warehouses");
+        }
+        this.cities = cities;
+        this.warehouses = warehouses;
+        this.costProvider = costProvider;
+    }
+
     /**
      * Calculates the cost matrix for transporting supplies from warehouses to cities.
-     * The cost matrix is a 2D array where each element represents the transportation cost
-     * from a specific warehouse to a specific city.
+     * Each element of the matrix represents the transportation cost from a specific
+     * warehouse to a specific city.
      * 
-     * This method iterates over all cities and warehouses, calculates the transportation cost
-     * for each pair, and stores the result in the cost matrix. Once the cost matrix is fully
-     * populated, it sets the costReady flag to true.
+     * The matrix is computed in parallel by DenseCostMatrix: the city rows are split across
+     * the common ForkJoinPool and stored in one contiguous row-major array.
      */
     private void calculateCostMatrix() {
-        for (int i = 0; i < cities.size(); i++) {
-            for (int j = 0; j < warehouses.size(); j++) {
-                this.costMatrix[i][j] = calculateTransportationCost(cities.get(i), warehouses.get(j));
-            }
-        }
-        this.costReady = true;
+        this.costProvider = DenseCostMatrix.compute(cities, warehouses);
     }
 
     /**
@@ -81,8 +109,11 @@ public class EmergencySupplyNetwork {
      * @param y2 the y-coordinate of the second point
      * @return the Euclidean distance between the two points
      */
-    private double euclideanDistance(int x1, int y1, int x2, int y2) {
-        return Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
+    private static double euclideanDistance(int x1, int y1, int x2, int y2) {
+        // Squaring by multiplication gives exactly the same result as Math.pow(d, 2) on integers, but is much cheaper
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
@@ -94,32 +125,167 @@ public class EmergencySupplyNetwork {
      *         2 if the distance is greater than 10 and less than or equal to 20 (Truck),
      *         3 if the distance is greater than 20 (Rail)
      */
-    private int getTransportCoefficient(double distance) {
+    private static int getTransportCoefficient(double distance) {
         if (distance <= 10) return 1; // Drone
         else if (distance <= 20) return 2; // Truck
         else return 3; // Rail
     }
 
     /**
-     * Retrieves the cost matrix for the emergency supply network.
-     * If the cost matrix is not ready, it calculates the cost matrix first.
+     * Retrieves the cost matrix for the emergency supply network as a 2D array.
+     * The array is copied from the cost provider on the first call, so it doubles the memory
+     * used by the costs (and materializes the full matrix of a sparse cost provider);
+     * prefer getCostProvider() when possible.
      *
      * @return a 2D array representing the cost matrix.
      */
     public double[][] getCostMatrix() {
         if (!this.costReady) {
-            this.calculateCostMatrix();
+            if (this.costProvider == null) {
+                this.calculateCostMatrix();
+            }
+            if (this.costProvider instanceof DenseCostMatrix) {
+                this.costMatrix = ((DenseCostMatrix) this.costProvider).toArray();
+            } else {
+                // Ask the provider for every pair (it computes the ones it did not materialize)
+                this.costMatrix = new double[cities.size()][warehouses.size()];
+                for (int i = 0; i < cities.size(); i++) {
+                    for (int j = 0; j < warehouses.size(); j++) {
+                        this.costMatrix[i][j] = this.costProvider.cost(i, j);
+                    }
+                }
+            }
+            this.costReady = true;
         }
         return this.costMatrix;
     }
 
+    /**
+     * Retrieves the cities of the network, in the order used to index the costs.
+     *
+     * @return the list of cities
+     */
+    public List<City> getCities() {
+        return this.cities;
+    }
+
+    /**
+     * Retrieves the warehouses of the network, in the order used to index the costs.
+     *
+     * @return the list of warehouses
+     */
+    public List<Warehouse> getWarehouses() {
+        return this.warehouses;
+    }
+
+    /**
+     * Retrieves the cost provider used by the network (the dense cost matrix by default).
+     *
+     * @return the cost provider
+     */
+    public CostProvider getCostProvider() {
+        return this.costProvider;
+    }
+
+    /**
+     * Retrieves the cost-ordered warehouses of every city, building the ranking on first use.
+     * The same ranking is reused by every later call to allocateResources().
+     *
+     * @return the warehouse ranking of the network
+     */
+    public WarehouseRanking getWarehouseRanking() {
+        if (this.ranking == null) {
+            this.ranking = new WarehouseRanking(this.getCostProvider(), this.rankingDepth);
+        }
+        return this.ranking;
+    }
+
+    /**
+     * Uses a ranking computed along with the costs (see NetworkPipeline) instead of building
+     * it on first use. The ranking must be over the cost provider of the network.
+     *
+     * @param ranking the warehouse ranking of the network
+     */
+    void setWarehouseRanking(WarehouseRanking ranking) {
+        this.ranking = ranking;
+        this.rankingDepth = ranking.getDepth();
+    }
+
+    /**
+     * Limits the allocation of each city to its k cheapest candidate warehouses. The
+     * ranking then only keeps k warehouses per city, so an allocation costs O(k) per city.
+     *
+     * @param depth the number of warehouses ranked per city, or 0 to rank all candidates
+     */
+    public void setRankingDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("The ranking depth must not be negative: " + depth);
+        }
+        if (depth != this.rankingDepth) {
+            this.rankingDepth = depth;
+            this.ranking = null; // Rebuilt lazily with the new depth
+        }
+    }
+
+    /**
+     * Sets the listener notified of every city served and every allocation made by
+     * allocateResources() and allocateResourcesOptimal(). By default nobody listens and
+     * nothing is printed (see ConsoleEventSink for the console output).
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setListener(NetworkListener listener) {
+        this.listener = listener == null ? NetworkListener.NONE : listener;
+    }
+
+    /**
+     * Retrieves the listener of the allocation events.
+     *
+     * @return the listener (NetworkListener.NONE when nobody listens)
+     */
+    public NetworkListener getListener() {
+        return this.listener;
+    }
+
+    /**
+     * Sets how the cities of the same priority are ordered by the allocation (the city
+     * served first gets the scarce supply). By default, the smallest city ID first.
+     *
+     * @param ordering the ordering of the cities
+     */
+    public void setCityOrdering(CityOrdering ordering) {
+        this.cityOrdering = Objects.requireNonNull(ordering);
+    }
+
+    /**
+     * Retrieves the ordering of the cities of the same priority.
+     *
+     * @return the ordering of the cities
+     */
+    public CityOrdering getCityOrdering() {
+        return this.cityOrdering;
+    }
+
+    /**
+     * Returns the indices of the cities in the order in which allocateResources() serves them:
+     * by priority, from HIGH to LOW, then by the tie-breakers of the city ordering.
+     *
+     * @return the city indices in allocation order
+     */
+    int[] allocationOrder() {
+        // A radix sort on primitive keys (see CityOrdering), deterministic whatever the input order
+        return this.cityOrdering.order(this.cities, this.getWarehouseRanking(), this.getCostProvider());
+    }
+
     /**
      * Allocates resources from warehouses to cities based on their priority and transportation cost.
      * 
      * The method performs the following steps:
-     * 1. Sorts the cities by their priority in descending order.
+     * 1. Sorts the cities by their priority in descending order, then by ID (or the tie-breakers set with setCityOrdering).
      * 2. Initializes the remaining capacity of each warehouse.
-     * 3. Iterates through each city and allocates resources from the warehouses based on the transportation cost.
+     * 3. Iterates through each city and allocates resources from its candidate warehouses based on the transportation cost
+     *    (every warehouse with the dense cost matrix, only the materialized ones with a sparse cost provider).
+     *    The candidates of each city come already sorted from the warehouse ranking, computed once per network.
      * 4. Updates the remaining capacity of the warehouses and the demand of the cities accordingly.
      * 5. Returns a map of cities to their respective resource allocations, sorted by city ID.
      * 
@@ -127,13 +293,6 @@ public class EmergencySupplyNetwork {
      */
     public Map<City, List<ResourceAllocation>> allocateResources() {
 
-        // First, sort the cities by priority
-        PriorityQueue<City> cityQueue = new PriorityQueue<>((c1, c2) -> {
-            int result = c2.priority.compareTo(c1.priority); // Descending order
-            return result;
-        });
-
-        cityQueue.addAll(cities);
         Map<City, List<ResourceAllocation>> allocations = new HashMap<>(); // Map to store the allocations
 
         // Initialize remaining capacity of warehouses
@@ -141,48 +300,33 @@ public class EmergencySupplyNetwork {
             warehouse.remainingCapacity = warehouse.capacity;
         }
 
-        // Make sure cost matrix is ready, otherwise calculate it
-        if (!this.costReady) {
+        // Make sure the costs are ready, otherwise calculate the cost matrix
+        if (this.costProvider == null) {
             this.calculateCostMatrix();
         }
 
-        while (!cityQueue.isEmpty()) {
-            City city = cityQueue.poll();
-            // make priority Capital case
-            String priority_ = city.priority.toString();
-            priority_ = priority_.substring(0, 1).toUpperCase() + priority_.substring(1).toLowerCase();
-            System.out.println("Allocating resources for City " + city.name + " (Priority: " + priority_ + ")");
-
-            // Sort warehouses by transportation cost for the current city
-            // Create a copy of the warehouses list to avoid modifying the original list
-            // This is crucial to use the cost matrix calculated based on the original order of cities and warehouses
-            List<Warehouse> warehouses_for_city = new ArrayList<>(this.warehouses);
-            warehouses_for_city.sort((w1, w2) -> {
-                int cityIndex = this.cities.indexOf(city);
-                int warehouseIndex1 = this.warehouses.indexOf(w1);
-                int warehouseIndex2 = this.warehouses.indexOf(w2);
-                double cost1 = this.getCostMatrix()[cityIndex][warehouseIndex1];
-                double cost2 = this.getCostMatrix()[cityIndex][warehouseIndex2];
-                // Alternatively, we could calculate the transportation cost again
-                // might be faster to recalculate it than to look it up in the matrix
-                // if there are many cities and warehouses
-                // double cost1 = calculateTransportationCost(city, w1);
-                // double cost2 = calculateTransportationCost(city, w2);
-                return Double.compare(cost1, cost2);
-            });
-
-            for (Warehouse warehouse : warehouses_for_city) {
+        // The cost-ordered warehouses of each city are computed once and reused across runs
+        WarehouseRanking ranking = this.getWarehouseRanking();
+
+        // First, sort the cities by priority
+        for (int cityIndex : this.allocationOrder()) {
+            City city = this.cities.get(cityIndex);
+            listener.onCityAllocation(city); // Report the city (the listener does the printing, if any)
+
+            // Go through the candidate warehouses of the city, from the cheapest to the most expensive
+            for (int warehouseIndex : ranking.rank(cityIndex)) {
                 // If city demand is already met, stop allocating
                 if (city.demand == 0) break;
-            
+
                 // If the warehouse has remaining capacity, allocate as much as possible in the warehouse
+                Warehouse warehouse = this.warehouses.get(warehouseIndex);
                 if (warehouse.remainingCapacity > 0) {
                     int allocatedUnits = Math.min(city.demand, warehouse.remainingCapacity); // Allocate the minimum of the two
                     allocations.putIfAbsent(city, new ArrayList<>());
                     allocations.get(city).add(new ResourceAllocation(warehouse, allocatedUnits));
                     warehouse.remainingCapacity -= allocatedUnits; // Update remaining capacity of the warehouse
                     city.demand -= allocatedUnits; // Update demand of the city
-                    System.out.println("  Allocated " + allocatedUnits + " units from Warehouse " + warehouse.id);
+                    listener.onAllocation(city, warehouse, allocatedUnits);
                 }
             }
 
@@ -196,14 +340,51 @@ public class EmergencySupplyNetwork {
     
     
     /**
-     * Calculates the transportation cost between a city and a warehouse.
+     * Allocates resources exactly like allocateResources(), but serves in parallel the cities
+     * of a priority tier that do not compete for the same warehouses (see ParallelTierAllocator).
+     * The allocations, demands, remaining capacities and listener events are the same.
+     *
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects representing the resources allocated to that city.
+     */
+    public Map<City, List<ResourceAllocation>> allocateResourcesParallel() {
+        return new ParallelTierAllocator(this).allocate();
+    }
+
+    /**
+     * Takes an immutable snapshot of the network (current demands, capacities, costs and
+     * warehouse ranking). Allocation runs on the states of the snapshot give the same
+     * allocations as allocateResources(), but never modify the cities and warehouses, so
+     * many scenarios can share the snapshot, also concurrently.
+     *
+     * @return the snapshot of the network
+     */
+    public NetworkSnapshot snapshot() {
+        return new NetworkSnapshot(this);
+    }
+
+    /**
+     * Allocates resources from warehouses to cities at minimal total transportation cost,
+     * serving the HIGH, then MEDIUM, then LOW priority cities as much as possible (see MinCostFlowAllocator). Like allocateResources(), it
+     * updates the demand of the cities and the remaining capacity of the warehouses.
+     *
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects representing the resources allocated to that city.
+     */
+    public Map<City, List<ResourceAllocation>> allocateResourcesOptimal() {
+        return new MinCostFlowAllocator(this).allocate();
+    }
+
+    /**
+     * Calculates the transportation cost between two locations, given by their coordinates.
+     * This is the cost function shared by the dense cost matrix and the sparse cost providers.
      *
-     * @param city The city for which the transportation cost is being calculated.
-     * @param warehouse The warehouse from which the transportation cost is being calculated.
+     * @param x1 the x-coordinate of the first location
+     * @param y1 the y-coordinate of the first location
+     * @param x2 the x-coordinate of the second location
+     * @param y2 the y-coordinate of the second location
      * @return The transportation cost based on the distance and a transport coefficient.
      */
-    private double calculateTransportationCost(City city, Warehouse warehouse) {
-        double distance = euclideanDistance(city.x, city.y, warehouse.x, warehouse.y);
+    static double transportationCost(int x1, int y1, int x2, int y2) {
+        double distance = euclideanDistance(x1, y1, x2, y2);
         int coefficient = getTransportCoefficient(distance);
         return distance * coefficient;
     }
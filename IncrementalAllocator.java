@@ -0,0 +1,553 @@
+// IncrementalAllocator.java
+import java.util.*;
+
+/**
+ * The IncrementalAllocator class keeps the result of the priority-then-cheapest-cost greedy
+ * of EmergencySupplyNetwork.allocateResources() up to date while city demands and warehouse
+ * capacities change, without recomputing the whole allocation after each change.
+ *
+ * The greedy serves the cities one after the other (by priority), and each city takes what
+ * it needs from its warehouses from the cheapest to the most expensive, stopping as soon as
+ * its demand is met. The allocation of a city therefore only depends on what was left, when
+ * its turn came, in the warehouses it looked at (the prefix of its ranking it scanned).
+ * The allocator keeps, for every warehouse:
+ *   - the units taken by each city, in a treap ordered by the position of the city in the
+ *     greedy order where every node also holds the units of its subtree, so that what was
+ *     left for any city is a prefix sum found in O(log t) for t takers;
+ *   - the cities that looked at the warehouse during their turn (its watchers).
+ *
+ * After a change, only the directly affected cities are recomputed, in greedy order. When a
+ * recomputed city takes a different amount from a warehouse, the later watchers of that
+ * warehouse are recomputed in turn, and so on. The result is exactly the allocation a full
+ * greedy run would produce, but the work is proportional to the cities actually affected.
+ *
+ * Unlike allocateResources(), the allocator never modifies the City and Warehouse objects:
+ * demands and capacities are copied into primitive arrays when it is created, so it must be
+ * created before (or instead of) calling allocateResources() on the same objects.
+ *
+ * The greedy order is the city ordering of the network (CityOrdering.compare): cities added
+ * later are placed among the others by its tie-breakers, and when the ordering depends on the
+ * demands, a city whose demand changes first gives back all its units, then moves to its new
+ * place and is served again there. The candidate warehouses of an added city are the ones the
+ * cost provider of the network would give it (CostProvider.candidatesAt), ranked by the
+ * warehouse ranking of the network, as for the other cities.
+ *
+ * Methods:
+ *   {IncrementalAllocator(EmergencySupplyNetwork)}: Runs the initial allocation of the network.
+ *   {updateDemand(int, int)}: Changes the demand of a city by a delta.
+ *   {updateCapacity(int, int)}: Changes the capacity of a warehouse by a delta.
+ *   {addCity(City)}: Adds a new city to the network.
+ *   {removeWarehouse(int)}: Takes a warehouse out of the network.
+ *   {getAllocations()}: Returns the current allocations, in the same form as allocateResources().
+ *   {getRemainingCapacity(int)}: Returns the units left in a warehouse.
+ *   {getUnmetDemand(int)}: Returns the demand of a city that could not be served.
+ */
+public class IncrementalAllocator {
+    private final List<EmergencySupplyNetwork.City> cities;
+    private final List<EmergencySupplyNetwork.Warehouse> warehouses;
+    private final CostProvider costs; // Candidates of the added cities
+    private final WarehouseRanking ranking; // Ranks the candidates of the added cities
+    private final CityOrdering ordering; // Greedy order of the cities within a priority
+
+    // Map from IDs to indices in the lists above
+    private final Map<Integer, Integer> cityIndexById = new HashMap<>();
+    private final Map<Integer, Integer> warehouseIndexById = new HashMap<>();
+
+    // Per city state
+    private int[] demand; // Current demand (total, not what is left of it)
+    private int[] priority; // Priority ordinal, id and cost to the cheapest warehouse: with the demand,
+    private int[] id; // the keys of the city in the greedy order
+    private double[] cheapest;
+    private int[] watched; // Longest prefix of its ranking the city ever looked at (and watches)
+    private final List<int[]> rankings = new ArrayList<>(); // Warehouses of each city, cheapest first
+    private final List<int[]> allocatedWarehouses = new ArrayList<>(); // Warehouses the city takes from, in ranking order
+    private final List<int[]> allocatedUnits = new ArrayList<>(); // Units taken, aligned with allocatedWarehouses
+
+    // Per warehouse state
+    private final int[] capacity; // Current capacity
+    private final int[] taken; // Total units taken by all cities
+    private final boolean[] removed; // True once the warehouse was removed
+    private final Takers takers; // Units taken from each warehouse, in greedy order of the cities
+    private final int[] previousUnits; // Scratch of recompute(): units taken before, by warehouse (all 0 between calls)
+    private int[][] watchers; // Cities that looked at the warehouse (may contain cities that no longer do)
+    private int[] watcherCount;
+
+    // Cities waiting to be recomputed, served in greedy order
+    private final PriorityQueue<Integer> pending;
+    private boolean[] queued;
+
+    private long recomputations; // Number of city allocations recomputed so far
+
+    /**
+     * Creates the allocator over the cities and warehouses of the network and computes the
+     * initial allocation, which is the same as the one of allocateResources().
+     *
+     * @param network the network, whose cities still have their full demand
+     */
+    public IncrementalAllocator(EmergencySupplyNetwork network) {
+        this.cities = new ArrayList<>(network.getCities());
+        this.warehouses = network.getWarehouses();
+        this.costs = network.getCostProvider();
+        this.ranking = network.getWarehouseRanking();
+        this.ordering = network.getCityOrdering();
+
+        int cityCount = cities.size();
+        int warehouseCount = warehouses.size();
+        this.demand = new int[Math.max(1, cityCount)];
+        this.priority = new int[Math.max(1, cityCount)];
+        this.id = new int[Math.max(1, cityCount)];
+        this.cheapest = new double[Math.max(1, cityCount)];
+        this.watched = new int[Math.max(1, cityCount)];
+        this.queued = new boolean[Math.max(1, cityCount)];
+        this.pending = new PriorityQueue<>(this::compareOrder);
+
+        this.capacity = new int[warehouseCount];
+        this.taken = new int[warehouseCount];
+        this.removed = new boolean[warehouseCount];
+        this.takers = new Takers(warehouseCount);
+        this.previousUnits = new int[warehouseCount];
+        this.watchers = new int[warehouseCount][];
+        this.watcherCount = new int[warehouseCount];
+        for (int w = 0; w < warehouseCount; w++) {
+            EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(w);
+            warehouseIndexById.put(warehouse.id, w);
+            capacity[w] = warehouse.capacity;
+            watchers[w] = new int[4];
+        }
+
+        for (int c = 0; c < cityCount; c++) {
+            EmergencySupplyNetwork.City city = cities.get(c);
+            cityIndexById.put(city.id, c);
+            demand[c] = city.demand;
+            priority[c] = city.priority.ordinal();
+            id[c] = city.id;
+            int[] ranked = ranking.rank(c);
+            cheapest[c] = ranked.length == 0 ? Double.POSITIVE_INFINITY : costs.cost(c, ranked[0]);
+            rankings.add(ranked);
+            allocatedWarehouses.add(new int[0]);
+            allocatedUnits.add(new int[0]);
+            enqueue(c);
+        }
+        repair();
+    }
+
+    /**
+     * Changes the demand of a city and repairs the allocations it affects. When the city ordering
+     * depends on the demands, the city also moves to its new place in the greedy order.
+     *
+     * @param cityId the ID of the city
+     * @param delta  the change of demand (may be negative)
+     */
+    public void updateDemand(int cityId, int delta) {
+        int c = cityIndex(cityId);
+        if (demand[c] + delta < 0) {
+            throw new IllegalArgumentException("The demand of city " + cityId + " cannot become negative");
+        }
+        if (delta != 0 && ordering.usesDemand()) {
+            // Give back everything at the old place (the takers are ordered by the old keys), so
+            // that the cities after it see the units again, then serve the city at its new place
+            int[] oldWarehouses = allocatedWarehouses.get(c);
+            int[] oldUnits = allocatedUnits.get(c);
+            for (int m = 0; m < oldWarehouses.length; m++) {
+                applyChange(oldWarehouses[m], c, 0, -oldUnits[m]);
+            }
+            allocatedWarehouses.set(c, new int[0]);
+            allocatedUnits.set(c, new int[0]);
+        }
+        demand[c] += delta;
+        enqueue(c);
+        repair();
+    }
+
+    /**
+     * Changes the capacity of a warehouse and repairs the allocations it affects.
+     *
+     * @param warehouseId the ID of the warehouse
+     * @param delta       the change of capacity (may be negative)
+     */
+    public void updateCapacity(int warehouseId, int delta) {
+        int w = warehouseIndex(warehouseId);
+        if (removed[w]) {
+            throw new IllegalArgumentException("Warehouse " + warehouseId + " was removed");
+        }
+        if (capacity[w] + delta < 0) {
+            throw new IllegalArgumentException("The capacity of warehouse " + warehouseId + " cannot become negative");
+        }
+        capacity[w] += delta;
+        enqueueWatchers(w, -1);
+        repair();
+    }
+
+    /**
+     * Adds a city to the network. It is placed in the greedy order by the city ordering of the
+     * network, and ranks the warehouses the cost provider gives a city at its location (up to the ranking
+     * depth of the network).
+     *
+     * @param city the new city, with its full demand
+     */
+    public void addCity(EmergencySupplyNetwork.City city) {
+        if (cityIndexById.containsKey(city.id)) {
+            throw new IllegalArgumentException("City " + city.id + " is already in the network");
+        }
+        int c = cities.size();
+        cities.add(city);
+        cityIndexById.put(city.id, c);
+        if (c == demand.length) {
+            int newLength = demand.length * 2;
+            demand = Arrays.copyOf(demand, newLength);
+            priority = Arrays.copyOf(priority, newLength);
+            id = Arrays.copyOf(id, newLength);
+            cheapest = Arrays.copyOf(cheapest, newLength);
+            watched = Arrays.copyOf(watched, newLength);
+            queued = Arrays.copyOf(queued, newLength);
+        }
+        demand[c] = city.demand;
+        priority[c] = city.priority.ordinal();
+        id[c] = city.id;
+
+        // Rank the candidates of the new city, as the provider and the ranking would for a new run
+        int[] candidates = costs.candidatesAt(city.x, city.y);
+        double[] candidateCosts = new double[candidates.length];
+        for (int n = 0; n < candidates.length; n++) {
+            EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(candidates[n]);
+            candidateCosts[n] = EmergencySupplyNetwork.transportationCost(city.x, city.y, warehouse.x, warehouse.y);
+        }
+        int[] ranked = ranking.rank(candidates, candidateCosts);
+        cheapest[c] = ranked.length == 0 ? Double.POSITIVE_INFINITY
+                : EmergencySupplyNetwork.transportationCost(city.x, city.y, warehouses.get(ranked[0]).x, warehouses.get(ranked[0]).y);
+        rankings.add(ranked);
+        allocatedWarehouses.add(new int[0]);
+        allocatedUnits.add(new int[0]);
+
+        enqueue(c);
+        repair();
+    }
+
+    /**
+     * Takes a warehouse out of the network: its capacity drops to zero and the cities it
+     * supplied are served by their next cheapest warehouses.
+     *
+     * @param warehouseId the ID of the warehouse
+     */
+    public void removeWarehouse(int warehouseId) {
+        int w = warehouseIndex(warehouseId);
+        if (removed[w]) return;
+        removed[w] = true;
+        capacity[w] = 0;
+        enqueueWatchers(w, -1);
+        repair();
+    }
+
+    /**
+     * Returns the current allocations, in the same form as EmergencySupplyNetwork.allocateResources():
+     * cities sorted by ID, each with its allocations from the cheapest warehouse to the most expensive.
+     * Cities that receive nothing are not in the map.
+     *
+     * @return a map from each served city to its resource allocations
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> getAllocations() {
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations =
+                new TreeMap<>((c1, c2) -> Integer.compare(c1.id, c2.id));
+        for (int c = 0; c < cities.size(); c++) {
+            int[] cityWarehouses = allocatedWarehouses.get(c);
+            if (cityWarehouses.length == 0) continue;
+            int[] units = allocatedUnits.get(c);
+            List<EmergencySupplyNetwork.ResourceAllocation> list = new ArrayList<>();
+            for (int n = 0; n < cityWarehouses.length; n++) {
+                list.add(new EmergencySupplyNetwork.ResourceAllocation(warehouses.get(cityWarehouses[n]), units[n]));
+            }
+            allocations.put(cities.get(c), list);
+        }
+        return allocations;
+    }
+
+    /**
+     * Returns the number of units left in a warehouse after the current allocations.
+     *
+     * @param warehouseId the ID of the warehouse
+     * @return the remaining capacity of the warehouse
+     */
+    public int getRemainingCapacity(int warehouseId) {
+        int w = warehouseIndex(warehouseId);
+        return capacity[w] - taken[w];
+    }
+
+    /**
+     * Returns the part of the demand of a city that the current allocations do not cover.
+     *
+     * @param cityId the ID of the city
+     * @return the unmet demand of the city
+     */
+    public int getUnmetDemand(int cityId) {
+        int c = cityIndex(cityId);
+        int served = 0;
+        for (int units : allocatedUnits.get(c)) {
+            served += units;
+        }
+        return demand[c] - served;
+    }
+
+    /**
+     * Returns the number of city allocations recomputed since the allocator was created,
+     * including the initial allocation. Useful to check how local the repairs are.
+     *
+     * @return the number of recomputed city allocations
+     */
+    public long getRecomputations() {
+        return recomputations;
+    }
+
+    private int cityIndex(int cityId) {
+        Integer c = cityIndexById.get(cityId);
+        if (c == null) throw new IllegalArgumentException("Unknown city: " + cityId);
+        return c;
+    }
+
+    private int warehouseIndex(int warehouseId) {
+        Integer w = warehouseIndexById.get(warehouseId);
+        if (w == null) throw new IllegalArgumentException("Unknown warehouse: " + warehouseId);
+        return w;
+    }
+
+    private void enqueue(int c) {
+        if (!queued[c]) {
+            queued[c] = true;
+            pending.add(c);
+        }
+    }
+
+    /**
+     * Enqueues the watchers of a warehouse that come after the given city in the greedy order
+     * (all of them when city is -1).
+     */
+    private void enqueueWatchers(int w, int city) {
+        int[] list = watchers[w];
+        for (int n = 0; n < watcherCount[w]; n++) {
+            int c = list[n];
+            if (city < 0 || compareOrder(c, city) > 0) enqueue(c);
+        }
+    }
+
+    /**
+     * Compares two cities in greedy order: negative if c1 is served before c2.
+     */
+    private int compareOrder(int c1, int c2) {
+        return ordering.compare(priority[c1], id[c1], demand[c1], cheapest[c1],
+                priority[c2], id[c2], demand[c2], cheapest[c2]);
+    }
+
+    /**
+     * Recomputes the pending cities in greedy order until no allocation changes anymore.
+     */
+    private void repair() {
+        while (!pending.isEmpty()) {
+            int c = pending.poll();
+            queued[c] = false;
+            recompute(c);
+        }
+    }
+
+    /**
+     * Recomputes the allocation of one city from what the cities before it left in its warehouses,
+     * then propagates the changes to the later cities looking at the same warehouses.
+     */
+    private void recompute(int c) {
+        recomputations++;
+        int[] ranking = rankings.get(c);
+
+        // Same loop as the greedy, with the remaining capacity seen at the city's turn
+        int need = demand[c];
+        int[] newWarehouses = new int[Math.min(ranking.length, 4)];
+        int[] newUnits = new int[newWarehouses.length];
+        int count = 0;
+        int n = 0;
+        for (; n < ranking.length && need > 0; n++) {
+            int w = ranking[n];
+            int available = capacity[w] - (int) takers.before(w, c);
+            if (available > 0) {
+                int units = Math.min(need, available);
+                if (count == newWarehouses.length) {
+                    newWarehouses = Arrays.copyOf(newWarehouses, count * 2);
+                    newUnits = Arrays.copyOf(newUnits, count * 2);
+                }
+                newWarehouses[count] = w;
+                newUnits[count++] = units;
+                need -= units;
+            }
+        }
+        // Register the city as a watcher of the warehouses it looked at for the first time
+        for (int m = watched[c]; m < n; m++) {
+            addWatcher(ranking[m], c);
+        }
+        watched[c] = Math.max(watched[c], n);
+
+        // Apply the differences with the previous allocation and propagate them
+        // (a city takes from each warehouse at most once, so the units can be keyed by warehouse)
+        // (allocated units are positive, so 0 in the scratch means the warehouse was not or no longer taken from)
+        int[] oldWarehouses = allocatedWarehouses.get(c);
+        int[] oldUnits = allocatedUnits.get(c);
+        for (int m = 0; m < oldWarehouses.length; m++) {
+            previousUnits[oldWarehouses[m]] = oldUnits[m];
+        }
+        for (int m = 0; m < count; m++) {
+            int w = newWarehouses[m];
+            int change = newUnits[m] - previousUnits[w];
+            previousUnits[w] = 0;
+            if (change != 0) applyChange(w, c, newUnits[m], change);
+        }
+        for (int m = 0; m < oldWarehouses.length; m++) {
+            int w = oldWarehouses[m];
+            if (previousUnits[w] != 0) {
+                applyChange(w, c, 0, -previousUnits[w]); // No longer takes from this warehouse
+                previousUnits[w] = 0;
+            }
+        }
+
+        allocatedWarehouses.set(c, Arrays.copyOf(newWarehouses, count));
+        allocatedUnits.set(c, Arrays.copyOf(newUnits, count));
+    }
+
+    /**
+     * Records that city c now takes the given units from warehouse w, and recomputes the
+     * later cities that looked at w since what they saw changed.
+     */
+    private void applyChange(int w, int c, int units, int change) {
+        takers.set(w, c, units);
+        taken[w] += change;
+        enqueueWatchers(w, c);
+    }
+
+    private void addWatcher(int w, int c) {
+        if (watcherCount[w] == watchers[w].length) {
+            watchers[w] = Arrays.copyOf(watchers[w], watchers[w].length * 2);
+        }
+        watchers[w][watcherCount[w]++] = c;
+    }
+
+    /**
+     * The units taken from every warehouse: one treap per warehouse, ordered by the greedy order
+     * of the cities (compareOrder), where every node also holds the units of its subtree. The
+     * units taken before a city are then summed along one path, and a taker is set or removed
+     * in O(log t). The nodes of all the treaps share primitive arrays, node 0 being the empty
+     * tree, and the nodes freed by a removal are reused.
+     */
+    private class Takers {
+        private final int[] roots; // Root node of the treap of each warehouse, 0 if empty
+        private int[] city = new int[16]; // City of each node
+        private int[] units = new int[16]; // Units taken by the city of each node
+        private long[] sum = new long[16]; // Units of the subtree of each node
+        private int[] left = new int[16], right = new int[16]; // Children (left is the next free node once freed)
+        private int[] weight = new int[16]; // Random heap key of each node, larger at the top
+        private int nodeCount = 1; // Nodes used so far, node 0 included
+        private int free; // First free node, 0 if none
+        private int random = 0x2545F491; // Xorshift state of the weights (fixed seed, deterministic)
+        private int splitLeft, splitRight; // Results of split()
+
+        Takers(int warehouseCount) {
+            this.roots = new int[warehouseCount];
+        }
+
+        /**
+         * Returns the units taken from a warehouse by the cities served before city c.
+         */
+        long before(int w, int c) {
+            long total = 0;
+            int node = roots[w];
+            while (node != 0) {
+                if (compareOrder(city[node], c) < 0) {
+                    total += sum[left[node]] + units[node];
+                    node = right[node];
+                } else {
+                    node = left[node];
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Sets the units taken from a warehouse by city c, 0 removing the city from its takers.
+         * The city must not have changed places in the greedy order since it was set (see
+         * updateDemand).
+         */
+        void set(int w, int c, int amount) {
+            split(roots[w], c, false);
+            int lower = splitLeft;
+            split(splitRight, c, true);
+            int upper = splitRight;
+            if (splitLeft != 0) { // The previous node of the city, alone in the middle
+                left[splitLeft] = free;
+                free = splitLeft;
+            }
+            int node = amount > 0 ? newNode(c, amount) : 0;
+            roots[w] = merge(merge(lower, node), upper);
+        }
+
+        private int newNode(int c, int amount) {
+            int node;
+            if (free != 0) {
+                node = free;
+                free = left[node];
+            } else {
+                if (nodeCount == city.length) {
+                    int length = city.length * 2;
+                    city = Arrays.copyOf(city, length);
+                    units = Arrays.copyOf(units, length);
+                    sum = Arrays.copyOf(sum, length);
+                    left = Arrays.copyOf(left, length);
+                    right = Arrays.copyOf(right, length);
+                    weight = Arrays.copyOf(weight, length);
+                }
+                node = nodeCount++;
+            }
+            random ^= random << 13;
+            random ^= random >>> 17;
+            random ^= random << 5;
+            city[node] = c;
+            units[node] = amount;
+            sum[node] = amount;
+            left[node] = 0;
+            right[node] = 0;
+            weight[node] = random;
+            return node;
+        }
+
+        /**
+         * Splits a treap into the cities before c (also c itself if inclusive) in splitLeft and
+         * the others in splitRight.
+         */
+        private void split(int node, int c, boolean inclusive) {
+            if (node == 0) {
+                splitLeft = 0;
+                splitRight = 0;
+                return;
+            }
+            int order = compareOrder(city[node], c);
+            if (order < 0 || (inclusive && order == 0)) {
+                split(right[node], c, inclusive);
+                right[node] = splitLeft;
+                splitLeft = node;
+            } else {
+                split(left[node], c, inclusive);
+                left[node] = splitRight;
+                splitRight = node;
+            }
+            sum[node] = sum[left[node]] + units[node] + sum[right[node]];
+        }
+
+        /**
+         * Merges two treaps, all the cities of the first one coming before those of the second.
+         */
+        private int merge(int first, int second) {
+            if (first == 0) return second;
+            if (second == 0) return first;
+            if (weight[first] > weight[second]) {
+                right[first] = merge(right[first], second);
+                sum[first] = sum[left[first]] + units[first] + sum[right[first]];
+                return first;
+            }
+            left[second] = merge(first, left[second]);
+            sum[second] = sum[left[second]] + units[second] + sum[right[second]];
+            return second;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// IncrementalAllocatorCheck.java
+import java.util.*;
+
+/**
+ * The IncrementalAllocatorCheck class is a differential check of IncrementalAllocator: on
+ * random networks, it applies random changes (demand deltas, capacity deltas, warehouse
+ * removals, added cities) and compares, after every change, the repaired allocation with the
+ * allocation of a fresh network built from the current demands and capacities.
+ *
+ * Usage: java IncrementalAllocatorCheck [trials] [seed]
+ *
+ *   trials: number of random networks (default 200)
+ *   seed:   seed of the first network (default 1)
+ *
+ * Each network has 20 to 200 cities and 3 to 30 warehouses with scarce capacities (so that
+ * cities compete), on the dense cost matrix or a sparse graph of the nearest warehouses, and
+ * a random ranking depth and city ordering (by ID, by demand either way, by cheapest warehouse),
+ * and the added cities get random IDs, so that they land anywhere in the greedy order. A
+ * removed warehouse is a warehouse of capacity 0 in the fresh network. The check stops at
+ * the first mismatch and exits with status 1.
+ */
+public class IncrementalAllocatorCheck {
+    private static final int OPERATIONS = 30; // Changes per network
+    private static final String[] ORDERINGS = {"id", "demand", "+demand", "cost", "cost,demand"};
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long operations = 0, recomputations = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            Random random = new Random(seed + trial);
+            int cityCount = 20 + random.nextInt(181);
+            int warehouseCount = 3 + random.nextInt(28);
+            NetworkColumns columns = new NetworkGenerator().setCities(cityCount).setWarehouses(warehouseCount)
+                    .setSide(200).setCapacityRatio(0.4 + random.nextDouble() * 0.8).setSeed(seed + trial).generate();
+            List<EmergencySupplyNetwork.City> cities = columns.toCities();
+            List<EmergencySupplyNetwork.Warehouse> warehouses = columns.toWarehouses();
+            int nearest = random.nextBoolean() ? 0 : 1 + random.nextInt(warehouseCount);
+            int depth = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(warehouseCount);
+            CityOrdering ordering = CityOrdering.parse(ORDERINGS[random.nextInt(ORDERINGS.length)]);
+
+            // The current state of the network, as the fresh networks are built from it
+            Map<Integer, EmergencySupplyNetwork.City> current = new LinkedHashMap<>();
+            for (EmergencySupplyNetwork.City city : cities) {
+                current.put(city.id, copy(city, city.demand));
+            }
+            int[] capacities = new int[warehouseCount];
+            boolean[] removed = new boolean[warehouseCount];
+            for (int w = 0; w < warehouseCount; w++) {
+                capacities[w] = warehouses.get(w).capacity;
+            }
+
+            IncrementalAllocator allocator = new IncrementalAllocator(network(cities, warehouses, nearest, depth, ordering));
+            String change = "initial allocation";
+            for (int operation = 0; operation <= OPERATIONS; operation++) {
+                if (operation > 0) {
+                    change = applyRandomChange(random, allocator, current, warehouses, capacities, removed);
+                    operations++;
+                }
+                List<EmergencySupplyNetwork.Warehouse> freshWarehouses = new ArrayList<>();
+                for (int w = 0; w < warehouseCount; w++) {
+                    EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(w);
+                    freshWarehouses.add(new EmergencySupplyNetwork.Warehouse(warehouse.id, warehouse.x, warehouse.y,
+                            removed[w] ? 0 : capacities[w], warehouse.name));
+                }
+                List<EmergencySupplyNetwork.City> freshCities = new ArrayList<>();
+                for (EmergencySupplyNetwork.City city : current.values()) {
+                    freshCities.add(copy(city, city.demand));
+                }
+                Map<Integer, List<String>> expected =
+                        normalize(network(freshCities, freshWarehouses, nearest, depth, ordering).allocateResources());
+                Map<Integer, List<String>> actual = normalize(allocator.getAllocations());
+                if (!expected.equals(actual)) {
+                    System.out.println("Trial " + trial + " (" + cityCount + " cities, " + warehouseCount + " warehouses, nearest "
+                            + nearest + ", depth " + depth + ", " + ordering + "): mismatch after " + change);
+                    System.out.println("  expected " + expected);
+                    System.out.println("  actual   " + actual);
+                    System.exit(1);
+                }
+            }
+            recomputations += allocator.getRecomputations();
+        }
+        System.out.println("All " + trials + " networks match a fresh allocation after each of " + operations
+                + " changes (" + recomputations + " city allocations recomputed)");
+    }
+
+    /**
+     * Applies one random change to the allocator and to the current state, and describes it.
+     */
+    private static String applyRandomChange(Random random, IncrementalAllocator allocator,
+                                            Map<Integer, EmergencySupplyNetwork.City> current,
+                                            List<EmergencySupplyNetwork.Warehouse> warehouses,
+                                            int[] capacities, boolean[] removed) {
+        List<EmergencySupplyNetwork.City> cities = new ArrayList<>(current.values());
+        int w = random.nextInt(warehouses.size());
+        switch (random.nextInt(4)) {
+            case 0: {
+                EmergencySupplyNetwork.City city = cities.get(random.nextInt(cities.size()));
+                int delta = random.nextInt(city.demand + 61) - city.demand; // Down to 0, up by 60
+                allocator.updateDemand(city.id, delta);
+                current.put(city.id, copy(city, city.demand + delta));
+                return "demand of city " + city.id + " " + (delta >= 0 ? "+" : "") + delta;
+            }
+            case 1: {
+                if (removed[w]) return "nothing";
+                int delta = random.nextInt(capacities[w] + 81) - capacities[w]; // Down to 0, up by 80
+                allocator.updateCapacity(warehouses.get(w).id, delta);
+                capacities[w] += delta;
+                return "capacity of warehouse " + warehouses.get(w).id + " " + (delta >= 0 ? "+" : "") + delta;
+            }
+            case 2: {
+                allocator.removeWarehouse(warehouses.get(w).id);
+                removed[w] = true;
+                return "removal of warehouse " + warehouses.get(w).id;
+            }
+            default: {
+                int newId;
+                do {
+                    newId = random.nextInt(2 * current.size() + 100);
+                } while (current.containsKey(newId));
+                EmergencySupplyNetwork.Priority[] priorities = EmergencySupplyNetwork.Priority.values();
+                EmergencySupplyNetwork.City city = new EmergencySupplyNetwork.City(newId, random.nextInt(200), random.nextInt(200),
+                        random.nextInt(100), priorities[random.nextInt(priorities.length)], "N" + newId);
+                current.put(city.id, copy(city, city.demand));
+                allocator.addCity(city);
+                return "addition of city " + city.id;
+            }
+        }
+    }
+
+    private static EmergencySupplyNetwork network(List<EmergencySupplyNetwork.City> cities,
+                                                  List<EmergencySupplyNetwork.Warehouse> warehouses,
+                                                  int nearest, int depth, CityOrdering ordering) {
+        EmergencySupplyNetwork network = nearest > 0
+                ? new EmergencySupplyNetwork(cities, warehouses, SpatialCostGraph.nearest(cities, warehouses, nearest))
+                : new EmergencySupplyNetwork(cities, warehouses);
+        network.setRankingDepth(depth);
+        network.setCityOrdering(ordering);
+        return network;
+    }
+
+    private static EmergencySupplyNetwork.City copy(EmergencySupplyNetwork.City city, int demand) {
+        return new EmergencySupplyNetwork.City(city.id, city.x, city.y, demand, city.priority, city.name);
+    }
+
+    /**
+     * Turns allocations into a comparable form: city ID to its "warehouse ID x units" list.
+     */
+    private static Map<Integer, List<String>> normalize(
+            Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations) {
+        Map<Integer, List<String>> normalized = new TreeMap<>();
+        for (Map.Entry<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> entry : allocations.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            List<String> list = new ArrayList<>();
+            for (EmergencySupplyNetwork.ResourceAllocation allocation : entry.getValue()) {
+                list.add(allocation.warehouse.id + "x" + allocation.units);
+            }
+            normalized.put(entry.getKey().id, list);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,301 @@
+// JsonStreamWriter.java
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The JsonStreamWriter class writes a JSON document incrementally to an OutputStream, so
+ * that the document never has to be held in memory: values are written as soon as they are
+ * produced, through a buffer of constant size.
+ *
+ * The layout is the same as JsonUtils.mapToJson (one entry per line, the given number of
+ * spaces per level, "key": value), so that a document written with begin/end calls is
+ * byte for byte the one mapToJson produces from the equivalent nested maps and lists.
+ * Unlike mapToJson, strings (keys included) are escaped.
+ *
+ * Usage:
+ *   json.beginObject();
+ *   json.name("Cities").beginArray();
+ *   json.value("A").value("B");
+ *   json.endArray();
+ *   json.endObject();
+ *
+ * Methods:
+ *   {beginObject()}, {endObject()}: Open and close an object.
+ *   {beginArray()}, {endArray()}: Open and close an array.
+ *   {name(String)}: Write the key of the next entry of the current object.
+ *   {value(String)}, {value(Number)}, {value(long)}, {value(float)}: Write a value.
+ *   {value(Object)}: Write a Map, List, String or Number (recursively, like mapToJson).
+ *   {close()}: Flush and close the underlying stream.
+ */
+public class JsonStreamWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer out;
+    private final int indent; // Spaces per nesting level
+
+    // One entry per open container: whether it is an object, and whether it has entries yet
+    private boolean[] isObject = new boolean[16];
+    private boolean[] hasEntries = new boolean[16];
+    private int depth;
+    private boolean expectingValue; // A name was written, its value must follow
+    private boolean done; // The top-level value is complete
+    private String spaces = "                "; // Indentation, written by slices (doubled when too short)
+
+    /**
+     * Creates a writer of UTF-8 JSON to the given stream.
+     *
+     * @param out    the stream the document is written to
+     * @param indent the number of spaces per indentation level
+     */
+    public JsonStreamWriter(OutputStream out, int indent) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.indent = indent;
+    }
+
+    /**
+     * Opens an object, as a value.
+     *
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter beginObject() throws IOException {
+        return open(true, '{');
+    }
+
+    /**
+     * Closes the current object.
+     *
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter endObject() throws IOException {
+        return close(true, '}');
+    }
+
+    /**
+     * Opens an array, as a value.
+     *
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter beginArray() throws IOException {
+        return open(false, '[');
+    }
+
+    /**
+     * Closes the current array.
+     *
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter endArray() throws IOException {
+        return close(false, ']');
+    }
+
+    /**
+     * Writes the key of the next entry of the current object; a value must follow.
+     *
+     * @param name the key
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        if (depth == 0 || !isObject[depth - 1] || expectingValue) {
+            throw new IllegalStateException("A name can only be written inside an object, before a value");
+        }
+        startEntry();
+        writeString(name);
+        out.write(": ");
+        expectingValue = true;
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     *
+     * @param value the string
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Writes a number value, as its toString() (like mapToJson).
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter value(Number value) throws IOException {
+        beforeValue();
+        out.write(value.toString());
+        return this;
+    }
+
+    /**
+     * Writes an integer value.
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a float value, formatted by Float.toString (like a Float in mapToJson).
+     *
+     * @param value the number
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    public JsonStreamWriter value(float value) throws IOException {
+        beforeValue();
+        out.write(Float.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a Map (String keys), List, String or Number, recursively. Convenient for small
+     * values built as maps, for instance one row of a large array.
+     *
+     * @param value the value
+     * @return this writer
+     * @throws IOException If an I/O error occurs.
+     */
+    @SuppressWarnings("unchecked")
+    public JsonStreamWriter value(Object value) throws IOException {
+        if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                name(entry.getKey());
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof List) {
+            beginArray();
+            for (Object element : (List<Object>) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Number) {
+            return value((Number) value);
+        }
+        // If we encounter any unknown type, we throw an exception.
+        throw new IllegalArgumentException("Unsupported value type: " + (value == null ? "null" : value.getClass()));
+    }
+
+    /**
+     * Flushes the buffered output to the stream.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonStreamWriter open(boolean object, char bracket) throws IOException {
+        beforeValue();
+        if (depth == isObject.length) {
+            isObject = Arrays.copyOf(isObject, depth * 2);
+            hasEntries = Arrays.copyOf(hasEntries, depth * 2);
+        }
+        isObject[depth] = object;
+        hasEntries[depth] = false;
+        depth++;
+        out.write(bracket);
+        out.write('\n');
+        done = false;
+        return this;
+    }
+
+    private JsonStreamWriter close(boolean object, char bracket) throws IOException {
+        if (depth == 0 || isObject[depth - 1] != object || expectingValue) {
+            throw new IllegalStateException("No " + (object ? "object" : "array") + " to close");
+        }
+        depth--;
+        if (hasEntries[depth]) {
+            out.write('\n'); // End of the last entry
+        }
+        writeIndent(depth);
+        out.write(bracket);
+        done = depth == 0;
+        return this;
+    }
+
+    /**
+     * Starts an entry of the current container: separates it from the previous one and indents it.
+     */
+    private void startEntry() throws IOException {
+        if (hasEntries[depth - 1]) {
+            out.write(",\n");
+        }
+        hasEntries[depth - 1] = true;
+        writeIndent(depth);
+    }
+
+    /**
+     * Checks that a value is allowed here, and starts the array entry if inside an array.
+     */
+    private void beforeValue() throws IOException {
+        if (expectingValue) {
+            expectingValue = false; // The entry was started by name()
+        } else if (depth > 0 && !isObject[depth - 1]) {
+            startEntry();
+        } else if (depth > 0 || done) {
+            throw new IllegalStateException(depth > 0 ? "A value in an object needs a name" : "The document is complete");
+        }
+    }
+
+    private void writeIndent(int level) throws IOException {
+        int count = level * indent;
+        while (spaces.length() < count) {
+            spaces = spaces + spaces;
+        }
+        out.write(spaces, 0, count);
+    }
+
+    /**
+     * Writes a quoted string, escaping quotes, backslashes and control characters.
+     */
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape;
+            if (c == '"') escape = "\\\"";
+            else if (c == '\\') escape = "\\\\";
+            else if (c == '\n') escape = "\\n";
+            else if (c == '\r') escape = "\\r";
+            else if (c == '\t') escape = "\\t";
+            else if (c < 0x20) escape = String.format("\\u%04x", (int) c);
+            else continue;
+            out.write(s, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+}
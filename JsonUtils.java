@@ -5,6 +5,9 @@ import java.util.*;
 /**
  * Utility class for converting Java Maps (potentially containing nested Maps/Lists)
  * to a formatted JSON string and saving it to a file.
+ *
+ * The whole document is built in memory; for large outputs, JsonStreamWriter writes the
+ * same layout incrementally.
  */
 public class JsonUtils {
 
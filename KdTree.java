@@ -0,0 +1,339 @@
+// KdTree.java
+import java.util.*;
+
+/**
+ * The KdTree class is a static 2-d tree over integer (x, y) points, used as a spatial
+ * index over warehouse coordinates. It answers "k nearest points" and "points within a
+ * radius" queries without looking at every point.
+ *
+ * The tree is stored implicitly in a single permutation array: the node of the range
+ * [lo, hi) is the point at position mid = (lo + hi) / 2, its left subtree is [lo, mid)
+ * and its right subtree is [mid + 1, hi). Even depths split on x, odd depths on y.
+ *
+ * Results are always sorted by distance, with ties broken by point index, so queries are
+ * deterministic and consistent with a stable sort of the points by distance.
+ *
+ * Points can be removed (for instance warehouses whose surplus runs out): the removed
+ * points are flagged, and every node keeps the number of points of its subtree that are
+ * still there, so that queries skip the emptied subtrees. A removal costs O(log n). The
+ * counts are only allocated on the first removal.
+ *
+ * Methods:
+ *   {KdTree(int[], int[])}: Builds the tree over the given coordinates.
+ *   {nearest(int, int, int)}: Returns the k nearest points to a location.
+ *   {withinRadius(int, int, double)}: Returns all points within a distance of a location.
+ *   {remove(int)}: Removes a point from the tree.
+ *   {contains(int)}: Tells if a point is still in the tree.
+ */
+public class KdTree {
+    private final int[] xs; // x-coordinate of each point
+    private final int[] ys; // y-coordinate of each point
+    private final int[] tree; // Implicit tree: permutation of the point indices
+    private int size; // Number of points not removed
+    private int[] position; // Position of each point in the tree, null until the first removal
+    private int[] live; // Points not removed in the subtree of each position, null until the first removal
+    private boolean[] removed; // Whether each point was removed, null until the first removal
+
+    /**
+     * Builds a k-d tree over the given point coordinates. Point i is (xs[i], ys[i]).
+     *
+     * @param xs the x-coordinates of the points
+     * @param ys the y-coordinates of the points
+     */
+    public KdTree(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+        this.tree = new int[xs.length];
+        for (int i = 0; i < tree.length; i++) {
+            tree[i] = i;
+        }
+        build(0, tree.length, 0);
+        this.size = tree.length;
+    }
+
+    /**
+     * Returns the number of points in the tree (removed points excluded).
+     *
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tells if a point is in the tree, i.e. it was not removed.
+     *
+     * @param point the index of the point
+     * @return true if the point was not removed
+     */
+    public boolean contains(int point) {
+        return removed == null || !removed[point];
+    }
+
+    /**
+     * Removes a point from the tree: later queries ignore it.
+     *
+     * @param point the index of the point
+     * @return true if the point was in the tree, false if it was already removed
+     */
+    public boolean remove(int point) {
+        if (point < 0 || point >= tree.length) {
+            throw new IllegalArgumentException("No such point: " + point);
+        }
+        if (removed == null) {
+            initializeCounts();
+        }
+        if (removed[point]) return false;
+        removed[point] = true;
+        size--;
+
+        // Decrement the counts of the nodes from the root down to the point
+        int target = position[point];
+        int lo = 0, hi = tree.length;
+        while (true) {
+            int mid = (lo + hi) >>> 1;
+            live[mid]--;
+            if (mid == target) return true;
+            if (target < mid) hi = mid;
+            else lo = mid + 1;
+        }
+    }
+
+    /**
+     * Allocates the removal flags and the subtree counts (every point being still there).
+     */
+    private void initializeCounts() {
+        position = new int[tree.length];
+        for (int i = 0; i < tree.length; i++) {
+            position[tree[i]] = i;
+        }
+        live = new int[tree.length];
+        fillCounts(0, tree.length);
+        removed = new boolean[tree.length];
+    }
+
+    private void fillCounts(int lo, int hi) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        live[mid] = hi - lo;
+        fillCounts(lo, mid);
+        fillCounts(mid + 1, hi);
+    }
+
+    /**
+     * Returns the indices of the k points closest to (x, y), closest first.
+     *
+     * @param x the x-coordinate of the query location
+     * @param y the y-coordinate of the query location
+     * @param k the number of points wanted
+     * @return the indices of at most k points, sorted by distance then index
+     */
+    public int[] nearest(int x, int y, int k) {
+        if (k <= 0 || size == 0) return new int[0];
+        CandidateHeap heap = new CandidateHeap(Math.min(k, size));
+        searchNearest(0, tree.length, 0, x, y, k, heap);
+        return heap.drainSorted();
+    }
+
+    /**
+     * Returns the indices of all points at a distance of at most radius from (x, y), closest first.
+     *
+     * @param x      the x-coordinate of the query location
+     * @param y      the y-coordinate of the query location
+     * @param radius the maximum distance
+     * @return the indices of the points within the radius, sorted by distance then index
+     */
+    public int[] withinRadius(int x, int y, double radius) {
+        if (radius < 0) return new int[0];
+        CandidateHeap heap = new CandidateHeap(16);
+        searchRadius(0, tree.length, 0, x, y, radius * radius, heap);
+        return heap.drainSorted();
+    }
+
+    /**
+     * Recursively builds the subtree of the range [lo, hi) by placing the median point
+     * (on the axis of the current depth) at the middle of the range.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) return;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 2 == 0 ? xs : ys);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: rearranges tree[lo..hi] so that position k holds the point whose
+     * coordinate would be there if the range were sorted, smaller ones before it and
+     * larger ones after it.
+     */
+    private void select(int lo, int hi, int k, int[] axis) {
+        while (lo < hi) {
+            int pivot = axis[tree[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (axis[tree[i]] < pivot) i++;
+                while (axis[tree[j]] > pivot) j--;
+                if (i <= j) {
+                    int tmp = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Continue only in the part that contains position k
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    /**
+     * Squared Euclidean distance between a point of the tree and a location.
+     */
+    private long distanceSquared(int point, int x, int y) {
+        long dx = xs[point] - (long) x;
+        long dy = ys[point] - (long) y;
+        return dx * dx + dy * dy;
+    }
+
+    private void searchNearest(int lo, int hi, int depth, int x, int y, int k, CandidateHeap heap) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        if (live != null && live[mid] == 0) return; // Every point of the subtree was removed
+        int point = tree[mid];
+        if (removed == null || !removed[point]) {
+            heap.offerBounded(distanceSquared(point, x, y), point, k);
+        }
+
+        // Visit first the side of the splitting line that contains the query location
+        long delta = depth % 2 == 0 ? (long) x - xs[point] : (long) y - ys[point];
+        boolean leftFirst = delta < 0;
+        if (leftFirst) searchNearest(lo, mid, depth + 1, x, y, k, heap);
+        else searchNearest(mid + 1, hi, depth + 1, x, y, k, heap);
+
+        // The other side can only help if the splitting line is not farther than the current k-th point
+        // (equal distances are still visited so that ties are broken by index)
+        if (heap.size() < k || delta * delta <= heap.worstDistance()) {
+            if (leftFirst) searchNearest(mid + 1, hi, depth + 1, x, y, k, heap);
+            else searchNearest(lo, mid, depth + 1, x, y, k, heap);
+        }
+    }
+
+    private void searchRadius(int lo, int hi, int depth, int x, int y, double radiusSquared, CandidateHeap heap) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        if (live != null && live[mid] == 0) return; // Every point of the subtree was removed
+        int point = tree[mid];
+        long d = distanceSquared(point, x, y);
+        if (d <= radiusSquared && (removed == null || !removed[point])) heap.offer(d, point);
+
+        long delta = depth % 2 == 0 ? (long) x - xs[point] : (long) y - ys[point];
+        // Left subtree holds coordinates <= the node, right subtree coordinates >= the node
+        if (delta <= 0 || (double) delta * delta <= radiusSquared) {
+            searchRadius(lo, mid, depth + 1, x, y, radiusSquared, heap);
+        }
+        if (delta >= 0 || (double) delta * delta <= radiusSquared) {
+            searchRadius(mid + 1, hi, depth + 1, x, y, radiusSquared, heap);
+        }
+    }
+
+    /**
+     * A max-heap of (squared distance, point index) pairs stored in primitive arrays.
+     * The "largest" entry is the farthest one, and among equally far ones the highest index.
+     */
+    private static class CandidateHeap {
+        private long[] distances;
+        private int[] points;
+        private int size;
+
+        CandidateHeap(int initialCapacity) {
+            distances = new long[Math.max(1, initialCapacity)];
+            points = new int[Math.max(1, initialCapacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long worstDistance() {
+            return distances[0];
+        }
+
+        /**
+         * Adds the entry, growing the heap if needed.
+         */
+        void offer(long distance, int point) {
+            if (size == distances.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                points = Arrays.copyOf(points, size * 2);
+            }
+            distances[size] = distance;
+            points[size] = point;
+            siftUp(size++);
+        }
+
+        /**
+         * Adds the entry while keeping at most k entries (the k smallest).
+         */
+        void offerBounded(long distance, int point, int k) {
+            if (size < k) {
+                offer(distance, point);
+            } else if (less(distance, point, distances[0], points[0])) {
+                // Replace the current worst entry
+                distances[0] = distance;
+                points[0] = point;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Empties the heap and returns its points from the closest to the farthest.
+         */
+        int[] drainSorted() {
+            int[] result = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                result[i] = points[0];
+                size--;
+                distances[0] = distances[size];
+                points[0] = points[size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private static boolean less(long d1, int p1, long d2, int p2) {
+            return d1 < d2 || (d1 == d2 && p1 < p2);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!less(distances[parent], points[parent], distances[i], points[i])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1, right = left + 1, largest = i;
+                if (left < size && less(distances[largest], points[largest], distances[left], points[left])) largest = left;
+                if (right < size && less(distances[largest], points[largest], distances[right], points[right])) largest = right;
+                if (largest == i) return;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long d = distances[i];
+            distances[i] = distances[j];
+            distances[j] = d;
+            int p = points[i];
+            points[i] = points[j];
+            points[j] = p;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+// LazyCostProvider.java
+import java.util.*;
+
+/**
+ * The LazyCostProvider class computes the transportation costs on demand instead of
+ * precomputing the C x W cost matrix: every warehouse is a candidate of every city, as with
+ * the dense matrix, but a cost is only evaluated the first time it is asked for, and kept in
+ * a cache of bounded size. Huge networks can thus run in fixed memory (the coordinates, plus
+ * the cache), whatever the number of pairs.
+ *
+ * The cache is made of primitive arrays: the key of a pair is the city index and the
+ * warehouse index packed into a long, found through an open-addressing hash table (linear
+ * probing) that points into the arrays of the entries. When the cache is full, the entry to
+ * replace is chosen by the CLOCK algorithm, an approximation of LRU: every entry has a
+ * reference bit, set when the entry is used, and a hand sweeps the entries in a circle,
+ * clearing the bits it finds set and evicting the first entry whose bit is clear. A new entry
+ * starts with its bit clear, so a run of pairs used only once only recycles its own entries
+ * and does not flush the pairs that are used again. The ranking of the warehouses of every
+ * city, which looks at every pair exactly once, does not go through the cache at all: it asks
+ * for whole rows through costs(int, int[]), which are computed without locking or caching.
+ *
+ * A full ranking would still hold C x W warehouse indices, as much as the matrix it avoids,
+ * so a network on lazy costs should only rank the k cheapest warehouses of each city
+ * (EmergencySupplyNetwork.setRankingDepth, DEFAULT_RANKING_DEPTH in NetworkApp). The pairs
+ * the run then looks up again (the ranked ones, the allocated ones) go through the cache.
+ *
+ * Hits, misses and evictions are counted. The provider may be shared between threads (for
+ * instance by the states of a NetworkSnapshot): the cache is accessed under a lock.
+ *
+ * Methods:
+ *   {LazyCostProvider(List, List, int)}: Creates the provider with a cache of the given number of costs.
+ *   {cost(int, int)}: Returns a cost, from the cache or computed.
+ *   {costs(int, int[])}: Computes the costs between a city and several warehouses, bypassing the cache.
+ *   {candidates(int)}: Returns every warehouse.
+ *   {getHits(), getMisses(), getEvictions()}: Return the counters of the cache.
+ *   {size(), capacity()}: Return the number of cached costs and the maximum.
+ */
+public class LazyCostProvider implements CostProvider {
+    /**
+     * The number of warehouses ranked per city when none is given: the memory of the rankings
+     * is then cities x 32 indices, whatever the number of warehouses.
+     */
+    public static final int DEFAULT_RANKING_DEPTH = 32;
+
+    private final int[] cityXs, cityYs; // Coordinates of the cities, by index
+    private final int[] warehouseXs, warehouseYs; // Coordinates of the warehouses, by index
+    private final int[] allWarehouses; // 0..W-1, the candidates of every city
+
+    // Entries of the cache
+    private final int capacity;
+    private final long[] keys; // Packed (city, warehouse) of each entry
+    private final double[] costs; // Cost of each entry
+    private final boolean[] referenced; // CLOCK reference bit of each entry
+    private int size; // Entries in use (the first size ones)
+    private int hand; // Next entry looked at by the CLOCK
+
+    // Hash table: entry index + 1 of each slot, 0 for an empty slot
+    private final int[] table;
+    private final int shift; // 64 - log2(table length), for the multiplicative hash
+
+    private long hits, misses, evictions;
+
+    /**
+     * Creates a provider over the cities and warehouses (whose coordinates are copied), with
+     * a cache of at most the given number of costs.
+     *
+     * @param cities     the list of cities in the network
+     * @param warehouses the list of warehouses in the network
+     * @param capacity   the maximum number of costs kept in the cache, at least 1
+     */
+    public LazyCostProvider(List<EmergencySupplyNetwork.City> cities, List<EmergencySupplyNetwork.Warehouse> warehouses, int capacity) {
+        if (capacity < 1 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("The cache capacity must be between 1 and 2^29: " + capacity);
+        }
+        this.cityXs = new int[cities.size()];
+        this.cityYs = new int[cities.size()];
+        for (int i = 0; i < cityXs.length; i++) {
+            cityXs[i] = cities.get(i).x;
+            cityYs[i] = cities.get(i).y;
+        }
+        this.warehouseXs = new int[warehouses.size()];
+        this.warehouseYs = new int[warehouses.size()];
+        this.allWarehouses = new int[warehouses.size()];
+        for (int j = 0; j < warehouseXs.length; j++) {
+            warehouseXs[j] = warehouses.get(j).x;
+            warehouseYs[j] = warehouses.get(j).y;
+            allWarehouses[j] = j;
+        }
+
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.costs = new double[capacity];
+        this.referenced = new boolean[capacity];
+        int bits = 1;
+        while ((1 << bits) < 2 * capacity) { // Load factor at most 1/2
+            bits++;
+        }
+        this.table = new int[1 << bits];
+        this.shift = 64 - bits;
+    }
+
+    @Override
+    public int cityCount() {
+        return cityXs.length;
+    }
+
+    @Override
+    public int warehouseCount() {
+        return warehouseXs.length;
+    }
+
+    /**
+     * Returns the transportation cost between a city and a warehouse, from the cache if it
+     * was computed recently, otherwise computed and cached.
+     *
+     * @param cityIndex      the index of the city
+     * @param warehouseIndex the index of the warehouse
+     * @return the transportation cost
+     */
+    @Override
+    public synchronized double cost(int cityIndex, int warehouseIndex) {
+        long key = ((long) cityIndex << 32) | warehouseIndex;
+        int slot = home(key);
+        int mask = table.length - 1;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (keys[entry] == key) {
+                hits++;
+                referenced[entry] = true;
+                return costs[entry];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Miss: compute the cost, and put it in a free entry or in the one the CLOCK evicts
+        misses++;
+        double cost = EmergencySupplyNetwork.transportationCost(cityXs[cityIndex], cityYs[cityIndex],
+                warehouseXs[warehouseIndex], warehouseYs[warehouseIndex]);
+        int entry;
+        if (size < capacity) {
+            entry = size++;
+        } else {
+            entry = evict();
+            slot = home(key); // The deletion may have moved the slots of the probe
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        keys[entry] = key;
+        costs[entry] = cost;
+        referenced[entry] = false;
+        table[slot] = entry + 1;
+        return cost;
+    }
+
+    /**
+     * Computes the transportation costs between a city and the given warehouses, without
+     * looking them up in the cache nor adding them to it (nor counting them): a scan that
+     * looks at each pair once would only evict the costs that are used again.
+     *
+     * @param cityIndex        the index of the city
+     * @param warehouseIndices the indices of the warehouses
+     * @return the transportation costs, aligned with the warehouse indices
+     */
+    @Override
+    public double[] costs(int cityIndex, int[] warehouseIndices) {
+        int x = cityXs[cityIndex], y = cityYs[cityIndex];
+        double[] costs = new double[warehouseIndices.length];
+        for (int n = 0; n < warehouseIndices.length; n++) {
+            int j = warehouseIndices[n];
+            costs[n] = EmergencySupplyNetwork.transportationCost(x, y, warehouseXs[j], warehouseYs[j]);
+        }
+        return costs;
+    }
+
+    /**
+     * Returns every warehouse: the lazy provider is dense. The array is shared by all the cities.
+     *
+     * @param cityIndex the index of the city
+     * @return the indices of all the warehouses
+     */
+    @Override
+    public int[] candidates(int cityIndex) {
+        return allWarehouses;
+    }
+
+    /**
+     * Returns the number of costs found in the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of costs that had to be computed.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of costs evicted from the cache to make room for others.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of costs in the cache.
+     *
+     * @return the number of cached costs
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of costs in the cache.
+     *
+     * @return the capacity of the cache
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Chooses an entry with the CLOCK, removes its key from the hash table and returns it.
+     */
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false; // Second chance
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+        }
+        int entry = hand;
+        hand = hand + 1 == capacity ? 0 : hand + 1;
+        remove(keys[entry]);
+        evictions++;
+        return entry;
+    }
+
+    /**
+     * Removes a key from the hash table, shifting back the following keys of its cluster so
+     * that every key stays reachable from its home slot (no tombstones).
+     */
+    private void remove(long key) {
+        int mask = table.length - 1;
+        int hole = home(key);
+        while (keys[table[hole] - 1] != key) {
+            hole = (hole + 1) & mask;
+        }
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (table[slot] == 0) break;
+            int home = home(keys[table[slot] - 1]);
+            // Move the key into the hole if its home is not cyclically between the hole and its slot
+            boolean between = hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot);
+            if (!between) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * Returns the home slot of a key (Fibonacci hashing).
+     */
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -0,0 +1,407 @@
+// MappedInputParser.java
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The MappedInputParser class parses the same text format as InputParser, but is meant for
+ * very large inputs (multi-gigabyte dumps): the file is memory-mapped through a FileChannel,
+ * window by window, and the lines are recognized byte by byte by a hand-written matcher
+ * instead of regular expressions. No String is created per line; the fields go straight into
+ * the columnar primitive arrays of a NetworkColumns.
+ *
+ * The accepted grammar is exactly the one of InputParser:
+ *   - lines are split on '\n', '\r' or "\r\n" and trimmed;
+ *   - a line starting with "Cities:" or "Warehouses:" opens the corresponding section;
+ *   - in the cities section, lines of the form
+ *       City NAME: ID = N, Coordinates = (N, N), Demand = N units, Priority = LEVEL
+ *     are cities, and in the warehouses section, lines of the form
+ *       Warehouse NAME: ID = N, Coordinates = (N, N), Capacity = N units
+ *     are warehouses (NAME and LEVEL are [A-Za-z0-9_]+, N is [0-9]+);
+ *   - every other line is ignored.
+ * As with InputParser, a number that does not fit in an int raises a NumberFormatException
+ * and an unknown priority level an IllegalArgumentException.
+ *
+ * A section header resets the section whatever came before, so a file can also be parsed in
+ * two parts cut at the start of a header line, with the same result (see NetworkPipeline,
+ * which parses the warehouses first), and the records of every window can be handed over
+ * as soon as the window is parsed.
+ */
+public class MappedInputParser {
+    // Size of the mapped window; lines never span two windows (the next window starts at the cut line)
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private static final byte[] CITIES_HEADER = ascii("Cities:");
+    private static final byte[] WAREHOUSES_HEADER = ascii("Warehouses:");
+    private static final byte[] CITY_PREFIX = ascii("City ");
+    private static final byte[] WAREHOUSE_PREFIX = ascii("Warehouse ");
+    private static final byte[] ID = ascii(": ID = ");
+    private static final byte[] COORDINATES = ascii(", Coordinates = (");
+    private static final byte[] COORDINATE_SEPARATOR = ascii(", ");
+    private static final byte[] DEMAND = ascii("), Demand = ");
+    private static final byte[] PRIORITY = ascii(" units, Priority = ");
+    private static final byte[] CAPACITY = ascii("), Capacity = ");
+    private static final byte[] UNITS = ascii(" units");
+
+    private static final EmergencySupplyNetwork.Priority[] PRIORITIES = EmergencySupplyNetwork.Priority.values();
+    private static final byte[][] PRIORITY_NAMES = new byte[PRIORITIES.length][];
+    static {
+        for (int p = 0; p < PRIORITIES.length; p++) {
+            PRIORITY_NAMES[p] = ascii(PRIORITIES[p].name());
+        }
+    }
+
+    private enum Section { NONE, CITIES, WAREHOUSES }
+
+    private NetworkColumns columns = new NetworkColumns();
+    private Section section = Section.NONE;
+    private ByteBuffer buffer; // Current window
+    private int pos; // Cursor of the line matcher, within the current window
+    private int end; // End (exclusive) of the current trimmed line
+    private byte[] name = new byte[64]; // Scratch copy of the name of the current line
+
+    private MappedInputParser() {
+    }
+
+    /**
+     * Parses the input file at the specified path into columns.
+     *
+     * @param filePath The path to the input file that needs to be parsed.
+     * @return the cities and warehouses of the file, in columnar form
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    public static NetworkColumns parse(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return parse(channel, 0, channel.size(), WINDOW_SIZE, null, filePath);
+        }
+    }
+
+    /**
+     * Parses the bytes [from, to) of a file, window by window, starting outside of any section.
+     * The range must start at the start of a line and end at the end of one (or of the file).
+     * With a consumer, the cities and warehouses of every window are handed to it as soon as
+     * the window is parsed, each window in new columns.
+     *
+     * @param channel    the open file
+     * @param from       the first byte of the range
+     * @param to         the end (exclusive) of the range
+     * @param windowSize the size of the mapped windows (grown for a longer line)
+     * @param windows    receives the columns of every window, or null to parse the range into one set of columns
+     * @param filePath   the path of the file, for the error messages
+     * @return the columns of the whole range, or the (empty) columns after the last window with a consumer
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    static NetworkColumns parse(FileChannel channel, long from, long to, int windowSize, Consumer<NetworkColumns> windows,
+                                String filePath) throws IOException {
+        MappedInputParser parser = new MappedInputParser();
+        long windowStart = from;
+        int size = windowSize;
+        while (windowStart < to) {
+            int length = (int) Math.min(size, to - windowStart);
+            boolean last = windowStart + length == to;
+            int consumed = parser.parseLines(channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length), last);
+            if (consumed == 0 && !last) {
+                // A single line longer than the window: retry with a larger one
+                if (size > Integer.MAX_VALUE / 2) {
+                    throw new IOException("Line too long at offset " + windowStart + " of " + filePath);
+                }
+                size *= 2;
+                continue;
+            }
+            windowStart += consumed;
+            size = windowSize;
+            if (windows != null) {
+                windows.accept(parser.columns);
+                parser.columns = new NetworkColumns();
+            }
+        }
+        return parser.columns;
+    }
+
+    /**
+     * Finds the start of the last line of a file that opens the warehouses section (a line
+     * starting with "Warehouses:", after blanks), reading the file backwards from its end.
+     *
+     * @param channel the open file
+     * @return the offset of the "Warehouses:" header of that line, or -1 if there is none
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    static long findLastWarehousesHeader(FileChannel channel) throws IOException {
+        int chunk = 1 << 20;
+        byte[] bytes = new byte[chunk + WAREHOUSES_HEADER.length];
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - chunk);
+            int length = (int) Math.min(bytes.length, channel.size() - start);
+            read(channel, start, bytes, length);
+            for (int k = (int) (end - start) - 1; k >= 0; k--) {
+                if (k + WAREHOUSES_HEADER.length <= length && matches(bytes, k, WAREHOUSES_HEADER)
+                        && isLineStart(channel, start + k)) {
+                    return start + k;
+                }
+            }
+            end = start;
+        }
+        return -1;
+    }
+
+    /**
+     * Tells if only blanks are between the previous line break (or the start of the file) and the offset.
+     */
+    private static boolean isLineStart(FileChannel channel, long offset) throws IOException {
+        byte[] bytes = new byte[256];
+        while (offset > 0) {
+            int length = (int) Math.min(bytes.length, offset);
+            read(channel, offset - length, bytes, length);
+            for (int k = length - 1; k >= 0; k--) {
+                if (isLineBreak(bytes[k])) return true;
+                if ((bytes[k] & 0xFF) > ' ') return false;
+            }
+            offset -= length;
+        }
+        return true;
+    }
+
+    private static void read(FileChannel channel, long position, byte[] bytes, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(bytes, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + target.position()));
+            }
+        }
+    }
+
+    private static boolean matches(byte[] bytes, int from, byte[] literal) {
+        for (int k = 0; k < literal.length; k++) {
+            if (bytes[from + k] != literal[k]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a buffer holding the whole input (for instance a file read in memory).
+     *
+     * @param input the input bytes, from position 0 to the limit
+     * @return the cities and warehouses of the input, in columnar form
+     */
+    public static NetworkColumns parse(ByteBuffer input) {
+        MappedInputParser parser = new MappedInputParser();
+        parser.parseLines(input, true);
+        return parser.columns;
+    }
+
+    /**
+     * Parses the complete lines of a window.
+     *
+     * @param window the mapped window
+     * @param last   whether the window ends at the end of the input (its last line is complete)
+     * @return the number of bytes consumed: up to the end of the last complete line
+     */
+    private int parseLines(ByteBuffer window, boolean last) {
+        buffer = window;
+        int limit = window.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            // Find the end of the line
+            int lineEnd = lineStart;
+            while (lineEnd < limit && !isLineBreak(buffer.get(lineEnd))) {
+                lineEnd++;
+            }
+            if (lineEnd == limit && !last) {
+                return lineStart; // Incomplete line, parsed again from the next window
+            }
+            parseLine(lineStart, lineEnd);
+            lineStart = lineEnd + 1; // A "\r\n" leaves an empty line, which is ignored
+        }
+        return limit;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Parses the line [from, to) of the current window.
+     */
+    private void parseLine(int from, int to) {
+        // Trim, as String.trim() does
+        while (from < to && (buffer.get(from) & 0xFF) <= ' ') from++;
+        while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') to--;
+        pos = from;
+        end = to;
+
+        // Section headers
+        if (startsWith(CITIES_HEADER)) {
+            section = Section.CITIES;
+            return;
+        }
+        if (startsWith(WAREHOUSES_HEADER)) {
+            section = Section.WAREHOUSES;
+            return;
+        }
+
+        if (section == Section.CITIES) {
+            parseCity();
+        } else if (section == Section.WAREHOUSES) {
+            parseWarehouse();
+        }
+    }
+
+    /**
+     * Matches a city line and adds it to the columns; other lines are ignored.
+     */
+    private void parseCity() {
+        if (!expect(CITY_PREFIX)) return;
+        int nameLength = word();
+        if (nameLength < 0 || !expect(ID)) return;
+        long id = number();
+        if (id < 0 || !expect(COORDINATES)) return;
+        long x = number();
+        if (x < 0 || !expect(COORDINATE_SEPARATOR)) return;
+        long y = number();
+        if (y < 0 || !expect(DEMAND)) return;
+        long demand = number();
+        if (demand < 0 || !expect(PRIORITY)) return;
+        int priorityStart = pos;
+        if (!skipWord() || pos != end) return;
+
+        // The line matches: convert the fields (which may still fail, as with Integer.parseInt and valueOf)
+        int priority = priorityOrdinal(priorityStart, end);
+        columns.addCity(name, 0, nameLength, toInt(id), toInt(x), toInt(y), toInt(demand), priority);
+    }
+
+    /**
+     * Matches a warehouse line and adds it to the columns; other lines are ignored.
+     */
+    private void parseWarehouse() {
+        if (!expect(WAREHOUSE_PREFIX)) return;
+        int nameLength = word();
+        if (nameLength < 0 || !expect(ID)) return;
+        long id = number();
+        if (id < 0 || !expect(COORDINATES)) return;
+        long x = number();
+        if (x < 0 || !expect(COORDINATE_SEPARATOR)) return;
+        long y = number();
+        if (y < 0 || !expect(CAPACITY)) return;
+        long capacity = number();
+        if (capacity < 0 || !expect(UNITS) || pos != end) return;
+
+        columns.addWarehouse(name, 0, nameLength, toInt(id), toInt(x), toInt(y), toInt(capacity));
+    }
+
+    /**
+     * @return whether the line starts with the given literal (the cursor does not move)
+     */
+    private boolean startsWith(byte[] literal) {
+        if (end - pos < literal.length) return false;
+        for (int k = 0; k < literal.length; k++) {
+            if (buffer.get(pos + k) != literal[k]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the given literal.
+     *
+     * @return false if the line does not continue with it
+     */
+    private boolean expect(byte[] literal) {
+        if (!startsWith(literal)) return false;
+        pos += literal.length;
+        return true;
+    }
+
+    /**
+     * Consumes a word ([A-Za-z0-9_]+) and copies it into the name scratch buffer.
+     *
+     * @return the length of the word, or -1 if there is none
+     */
+    private int word() {
+        int start = pos;
+        if (!skipWord()) return -1;
+        int length = pos - start;
+        if (length > name.length) {
+            name = new byte[Math.max(length, name.length * 2)];
+        }
+        for (int k = 0; k < length; k++) {
+            name[k] = buffer.get(start + k);
+        }
+        return length;
+    }
+
+    /**
+     * Consumes a word ([A-Za-z0-9_]+).
+     *
+     * @return false if there is none
+     */
+    private boolean skipWord() {
+        int start = pos;
+        while (pos < end && isWordByte(buffer.get(pos))) pos++;
+        return pos > start;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    /**
+     * Consumes a number ([0-9]+). Values above Integer.MAX_VALUE saturate to Long.MAX_VALUE,
+     * so that toInt rejects them.
+     *
+     * @return the value, or -1 if there is no digit
+     */
+    private long number() {
+        int start = pos;
+        long value = 0;
+        while (pos < end) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9) break;
+            value = value > Integer.MAX_VALUE ? Long.MAX_VALUE : value * 10 + digit;
+            pos++;
+        }
+        return pos > start ? value : -1;
+    }
+
+    /**
+     * Narrows a parsed number to an int, failing like Integer.parseInt on overflow.
+     */
+    private static int toInt(long value) {
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of int range in input");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Resolves the priority level [from, to), ignoring the case, like Priority.valueOf(level.toUpperCase()).
+     *
+     * @return the ordinal of the priority
+     */
+    private int priorityOrdinal(int from, int to) {
+        for (int p = 0; p < PRIORITY_NAMES.length; p++) {
+            byte[] candidate = PRIORITY_NAMES[p];
+            if (candidate.length != to - from) continue;
+            int k = 0;
+            while (k < candidate.length && toUpper(buffer.get(from + k)) == candidate[k]) k++;
+            if (k == candidate.length) return p;
+        }
+        byte[] level = new byte[to - from];
+        for (int k = 0; k < level.length; k++) {
+            level[k] = toUpper(buffer.get(from + k));
+        }
+        throw new IllegalArgumentException("No enum constant " + EmergencySupplyNetwork.Priority.class.getCanonicalName()
+                + "." + new String(level, StandardCharsets.US_ASCII));
+    }
+
+    private static byte toUpper(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,569 @@
+// MinCostFlowAllocator.java
+import java.util.*;
+
+/**
+ * The MinCostFlowAllocator class is an optimal alternative to the greedy allocation of
+ * EmergencySupplyNetwork.allocateResources(). The greedy serves the cities one by one and
+ * can leave the total transportation cost well above the optimum; this allocator solves the
+ * transportation problem exactly as a min-cost flow, while keeping the priority tiers:
+ *
+ *   1. As many units as possible are sent to HIGH priority cities.
+ *   2. Then, as many units as possible to MEDIUM priority cities.
+ *   3. Then, as many units as possible to LOW priority cities.
+ *   4. Among all the allocations serving the tiers that much, the cheapest one is chosen.
+ *
+ * So every tier is served at least as much as with the greedy, and within a tier the supply
+ * goes where it is cheapest to send it.
+ *
+ * The flow network has one node per city and per warehouse and an extra "unmet" node:
+ *   - warehouse -> city edges for the ranked candidate warehouses of each city (transportation cost);
+ *   - unmet -> city edges carrying the demand that is not served (penalty cost of the city's tier);
+ *   - warehouse -> unmet edges carrying the capacity that is not used (no cost).
+ * The penalty of a tier is larger than the cost of any re-routing of one unit, and grows with
+ * the priority, so the min-cost flow follows the four rules above. It is solved with the
+ * primal network simplex algorithm (block search pivot rule, strongly feasible spanning trees
+ * stored with the thread/parent representation), starting from the tree in which everything
+ * is unmet.
+ *
+ * Only the ranked candidate warehouses of each city are connected, so a sparse cost provider
+ * (or a ranking depth) keeps the flow network small on large instances. Costs are converted
+ * to fixed point integers (thousandths of a unit) inside the solver so that they are compared
+ * exactly.
+ *
+ * Like allocateResources(), the allocation updates City.demand and Warehouse.remainingCapacity
+ * and returns the allocations sorted by city ID, each from the cheapest warehouse to the most
+ * expensive.
+ */
+public class MinCostFlowAllocator {
+    private static final long COST_SCALE = 1_000L; // Fixed point scale of the costs
+    private static final long INFINITE = Long.MAX_VALUE / 4; // Capacity of every edge
+
+    // Edge states: in the spanning tree, or out of it at its lower bound (zero flow)
+    // or upper bound (never happens here since capacities are infinite, kept for clarity)
+    private static final int STATE_UPPER = -1;
+    private static final int STATE_TREE = 0;
+    private static final int STATE_LOWER = 1;
+
+    // Direction of the edge linking a node to its parent: towards the parent, or from it
+    private static final int DIR_UP = 1;
+    private static final int DIR_DOWN = -1;
+
+    private final EmergencySupplyNetwork network;
+
+    // Edges
+    private int edgeCount;
+    private int[] source;
+    private int[] target;
+    private long[] cost;
+    private long[] flow;
+    private int[] state;
+
+    // Spanning tree, rooted at the unmet node
+    private int nodeCount;
+    private long[] potential;
+    private int[] parent; // Parent node, -1 for the root
+    private int[] pred; // Edge linking the node to its parent
+    private int[] predDir; // DIR_UP if pred goes from the node to its parent, DIR_DOWN otherwise
+    private int[] thread; // Next node in the preorder traversal of the tree (cyclic)
+    private int[] revThread; // Previous node in the preorder traversal
+    private int[] succNum; // Number of nodes in the subtree of the node
+    private int[] lastSucc; // Last node of the subtree of the node in the preorder traversal
+    private int[] dirtyRevs; // Scratch list used while updating the threads
+    private int dirtyRevCount;
+
+    // Pivot state
+    private int inEdge, join, uIn, vIn, uOut, vOut;
+    private long delta;
+    private int nextEdge; // Where the block search resumes
+    private int blockSize;
+
+    /**
+     * Creates an optimal allocator for the given network.
+     *
+     * @param network the network whose cities and warehouses are allocated
+     */
+    public MinCostFlowAllocator(EmergencySupplyNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * Allocates the resources of the warehouses to the cities, by priority tier, at minimal cost.
+     *
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects representing the resources allocated to that city.
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocate() {
+        List<EmergencySupplyNetwork.City> cities = network.getCities();
+        List<EmergencySupplyNetwork.Warehouse> warehouses = network.getWarehouses();
+        CostProvider costs = network.getCostProvider();
+        WarehouseRanking ranking = network.getWarehouseRanking();
+
+        // Initialize remaining capacity of warehouses
+        for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
+            warehouse.remainingCapacity = warehouse.capacity;
+        }
+
+        // Only cities with a demand and warehouses with a capacity take part in the flow
+        // Nodes: cities first, then warehouses, then the unmet node (the root)
+        int[] cityNode = new int[cities.size()];
+        int[] warehouseNode = new int[warehouses.size()];
+        int nodes = 0;
+        for (int i = 0; i < cities.size(); i++) {
+            cityNode[i] = cities.get(i).demand > 0 ? nodes++ : -1;
+        }
+        int activeCities = nodes;
+        for (int w = 0; w < warehouses.size(); w++) {
+            warehouseNode[w] = warehouses.get(w).capacity > 0 ? nodes++ : -1;
+        }
+        int activeWarehouses = nodes - activeCities;
+        int root = nodes++;
+
+        // Count the transportation edges and find the most expensive one
+        long edges = activeCities + activeWarehouses;
+        long maxCost = 0;
+        for (int i = 0; i < cities.size(); i++) {
+            if (cityNode[i] < 0) continue;
+            for (int w : ranking.rank(i)) {
+                if (warehouseNode[w] < 0) continue;
+                edges++;
+                maxCost = Math.max(maxCost, scaledCost(costs, i, w));
+            }
+        }
+        if (edges > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The flow network has too many edges (" + edges + "), use a sparse cost provider");
+        }
+
+        // Penalty of one unmet unit, per priority: re-routing one unit along an alternating path
+        // costs at most (min(cities, warehouses) + 1) * maxCost, so "bound" outweighs any of them
+        long bound = (Math.min(activeCities, activeWarehouses) + 1L) * (maxCost + 1) + 1;
+        int tiers = EmergencySupplyNetwork.Priority.values().length;
+        if (bound > INFINITE / (4L * (tiers + 1))) {
+            throw new IllegalArgumentException("The costs are too large for the min-cost flow allocation");
+        }
+
+        initialize(nodes, (int) edges);
+
+        // Initial spanning tree: unmet -> city carries the whole demand, warehouse -> unmet the whole capacity
+        for (int i = 0; i < cities.size(); i++) {
+            int u = cityNode[i];
+            if (u < 0) continue;
+            long penalty = (cities.get(i).priority.ordinal() + 1L) * bound;
+            int e = addEdge(root, u, penalty);
+            attachToRoot(u, root, e, DIR_DOWN, cities.get(i).demand, penalty);
+        }
+        for (int w = 0; w < warehouses.size(); w++) {
+            int u = warehouseNode[w];
+            if (u < 0) continue;
+            int e = addEdge(u, root, 0);
+            attachToRoot(u, root, e, DIR_UP, warehouses.get(w).capacity, 0);
+        }
+        finishInitialTree(root);
+
+        // Transportation edges, out of the tree with no flow; remember the first one of each city
+        int[] firstEdgeOfCity = new int[cities.size()];
+        for (int i = 0; i < cities.size(); i++) {
+            firstEdgeOfCity[i] = edgeCount;
+            if (cityNode[i] < 0) continue;
+            for (int w : ranking.rank(i)) {
+                if (warehouseNode[w] < 0) continue;
+                addEdge(warehouseNode[w], cityNode[i], scaledCost(costs, i, w));
+            }
+        }
+
+        // Pivot until no edge can improve the solution
+        blockSize = Math.max(10, (int) Math.ceil(Math.sqrt(edgeCount)));
+        nextEdge = 0;
+        while (findEnteringEdge()) {
+            findJoinNode();
+            boolean change = findLeavingEdge();
+            changeFlow(change);
+            if (change) {
+                updateTreeStructure();
+                updatePotential();
+            }
+        }
+
+        // Read the flow of each warehouse -> city edge, in ranking order (cheapest first)
+        NetworkListener listener = network.getListener();
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations =
+                new TreeMap<>((c1, c2) -> Integer.compare(c1.id, c2.id));
+        for (int i = 0; i < cities.size(); i++) {
+            if (cityNode[i] < 0) continue;
+            EmergencySupplyNetwork.City city = cities.get(i);
+            listener.onCityAllocation(city);
+            int e = firstEdgeOfCity[i];
+            for (int w : ranking.rank(i)) {
+                if (warehouseNode[w] < 0) continue;
+                int units = (int) flow[e++];
+                if (units > 0) {
+                    EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(w);
+                    allocations.putIfAbsent(city, new ArrayList<>());
+                    allocations.get(city).add(new EmergencySupplyNetwork.ResourceAllocation(warehouse, units));
+                    warehouse.remainingCapacity -= units; // Update remaining capacity of the warehouse
+                    city.demand -= units; // Update demand of the city
+                    listener.onAllocation(city, warehouse, units);
+                }
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * Returns the cost between a city and a warehouse in fixed point.
+     */
+    private static long scaledCost(CostProvider costs, int cityIndex, int warehouseIndex) {
+        return Math.round(costs.cost(cityIndex, warehouseIndex) * COST_SCALE);
+    }
+
+    private void initialize(int nodes, int edges) {
+        nodeCount = nodes;
+        source = new int[edges];
+        target = new int[edges];
+        cost = new long[edges];
+        flow = new long[edges];
+        state = new int[edges];
+        edgeCount = 0;
+
+        potential = new long[nodes];
+        parent = new int[nodes];
+        pred = new int[nodes];
+        predDir = new int[nodes];
+        thread = new int[nodes];
+        revThread = new int[nodes];
+        succNum = new int[nodes];
+        lastSucc = new int[nodes];
+        dirtyRevs = new int[nodes];
+    }
+
+    /**
+     * Adds an edge out of the tree, with no flow.
+     *
+     * @return the index of the edge
+     */
+    private int addEdge(int from, int to, long edgeCost) {
+        source[edgeCount] = from;
+        target[edgeCount] = to;
+        cost[edgeCount] = edgeCost;
+        state[edgeCount] = STATE_LOWER;
+        return edgeCount++;
+    }
+
+    /**
+     * Makes node u a child of the root through edge e, carrying the given flow. The potential
+     * of u is chosen so that the reduced cost of e is zero (the root has potential 0).
+     */
+    private void attachToRoot(int u, int root, int e, int direction, long edgeFlow, long edgeCost) {
+        parent[u] = root;
+        pred[u] = e;
+        predDir[u] = direction;
+        flow[e] = edgeFlow;
+        state[e] = STATE_TREE;
+        potential[u] = direction == DIR_DOWN ? edgeCost : -edgeCost;
+        succNum[u] = 1;
+        lastSucc[u] = u;
+    }
+
+    /**
+     * Links the children of the root in preorder: root, node 0, node 1, ..., back to the root.
+     */
+    private void finishInitialTree(int root) {
+        parent[root] = -1;
+        pred[root] = -1;
+        potential[root] = 0;
+        succNum[root] = nodeCount;
+        lastSucc[root] = root == 0 ? root : root - 1;
+        int previous = root;
+        for (int u = 0; u < root; u++) {
+            thread[previous] = u;
+            revThread[u] = previous;
+            previous = u;
+        }
+        thread[previous] = root;
+        revThread[root] = previous;
+    }
+
+    /**
+     * Block search pivot rule: scans the edges by blocks from where the last search stopped,
+     * and picks the most violating edge of the first block that contains one.
+     *
+     * @return true if an entering edge was found, false if the solution is optimal
+     */
+    private boolean findEnteringEdge() {
+        long minimum = 0;
+        int count = blockSize;
+        int e;
+        for (e = nextEdge; e != edgeCount; e++) {
+            long c = state[e] * (cost[e] + potential[source[e]] - potential[target[e]]);
+            if (c < minimum) {
+                minimum = c;
+                inEdge = e;
+            }
+            if (--count == 0) {
+                if (minimum < 0) {
+                    nextEdge = e + 1;
+                    return true;
+                }
+                count = blockSize;
+            }
+        }
+        for (e = 0; e != nextEdge; e++) {
+            long c = state[e] * (cost[e] + potential[source[e]] - potential[target[e]]);
+            if (c < minimum) {
+                minimum = c;
+                inEdge = e;
+            }
+            if (--count == 0) {
+                if (minimum < 0) {
+                    nextEdge = e + 1;
+                    return true;
+                }
+                count = blockSize;
+            }
+        }
+        if (minimum >= 0) return false;
+        nextEdge = e;
+        return true;
+    }
+
+    /**
+     * Finds the lowest common ancestor of the two ends of the entering edge.
+     */
+    private void findJoinNode() {
+        int u = source[inEdge];
+        int v = target[inEdge];
+        while (u != v) {
+            if (succNum[u] < succNum[v]) u = parent[u];
+            else v = parent[v];
+        }
+        join = u;
+    }
+
+    /**
+     * Finds the edge leaving the tree: the first blocking edge of the cycle closed by the
+     * entering edge, in the order that keeps the spanning tree strongly feasible.
+     *
+     * @return true if the leaving edge is not the entering edge itself
+     */
+    private boolean findLeavingEdge() {
+        int first, second;
+        if (state[inEdge] == STATE_LOWER) {
+            first = source[inEdge];
+            second = target[inEdge];
+        } else {
+            first = target[inEdge];
+            second = source[inEdge];
+        }
+        delta = INFINITE;
+        int result = 0;
+
+        // Along the path from first up to join, the flow goes down the tree
+        for (int u = first; u != join; u = parent[u]) {
+            int e = pred[u];
+            long d = predDir[u] == DIR_UP ? flow[e] : INFINITE - flow[e];
+            if (d < delta) {
+                delta = d;
+                uOut = u;
+                result = 1;
+            }
+        }
+        // Along the path from second up to join, the flow goes up the tree
+        for (int u = second; u != join; u = parent[u]) {
+            int e = pred[u];
+            long d = predDir[u] == DIR_UP ? INFINITE - flow[e] : flow[e];
+            if (d <= delta) {
+                delta = d;
+                uOut = u;
+                result = 2;
+            }
+        }
+
+        if (result == 1) {
+            uIn = first;
+            vIn = second;
+        } else {
+            uIn = second;
+            vIn = first;
+        }
+        return result != 0;
+    }
+
+    /**
+     * Pushes delta units around the cycle and updates the edge states.
+     */
+    private void changeFlow(boolean change) {
+        if (delta > 0) {
+            long value = state[inEdge] * delta;
+            flow[inEdge] += value;
+            for (int u = source[inEdge]; u != join; u = parent[u]) {
+                flow[pred[u]] -= predDir[u] * value;
+            }
+            for (int u = target[inEdge]; u != join; u = parent[u]) {
+                flow[pred[u]] += predDir[u] * value;
+            }
+        }
+        if (change) {
+            state[inEdge] = STATE_TREE;
+            state[pred[uOut]] = flow[pred[uOut]] == 0 ? STATE_LOWER : STATE_UPPER;
+        } else {
+            state[inEdge] = -state[inEdge];
+        }
+    }
+
+    /**
+     * Replaces the leaving edge by the entering edge in the tree: the subtree hanging below the
+     * leaving edge is re-rooted at uIn and attached under vIn, and the thread, parent, subtree
+     * size and last successor information is updated accordingly.
+     */
+    private void updateTreeStructure() {
+        int oldRevThread = revThread[uOut];
+        int oldSuccNum = succNum[uOut];
+        int oldLastSucc = lastSucc[uOut];
+        vOut = parent[uOut];
+
+        if (uIn == uOut) {
+            // Only the edge to the parent changes
+            parent[uIn] = vIn;
+            pred[uIn] = inEdge;
+            predDir[uIn] = uIn == source[inEdge] ? DIR_UP : DIR_DOWN;
+
+            // Move the subtree of uOut right after vIn in the thread
+            if (thread[vIn] != uOut) {
+                int after = thread[oldLastSucc];
+                thread[oldRevThread] = after;
+                revThread[after] = oldRevThread;
+                after = thread[vIn];
+                thread[vIn] = uOut;
+                revThread[uOut] = vIn;
+                thread[oldLastSucc] = after;
+                revThread[after] = oldLastSucc;
+            }
+        } else {
+            // When the subtree of uOut directly follows vIn in the thread, join is vOut
+            int threadContinue = oldRevThread == vIn ? thread[oldLastSucc] : thread[vIn];
+
+            // Walk the stem (the nodes from uIn up to uOut, whose parents are reversed)
+            int stem = uIn;
+            int parentStem = vIn;
+            int nextStem;
+            int last = lastSucc[uIn];
+            int before, after = thread[last];
+            thread[vIn] = uIn;
+            dirtyRevCount = 0;
+            dirtyRevs[dirtyRevCount++] = vIn;
+            while (stem != uOut) {
+                // Insert the next stem node into the thread list
+                nextStem = parent[stem];
+                thread[last] = nextStem;
+                dirtyRevs[dirtyRevCount++] = last;
+
+                // Remove the subtree of stem from the thread list
+                before = revThread[stem];
+                thread[before] = after;
+                revThread[after] = before;
+
+                // Change the parent node and move to the next stem node
+                parent[stem] = parentStem;
+                parentStem = stem;
+                stem = nextStem;
+
+                // Update last and after
+                last = lastSucc[stem] == lastSucc[parentStem] ? revThread[parentStem] : lastSucc[stem];
+                after = thread[last];
+            }
+            parent[uOut] = parentStem;
+            thread[last] = threadContinue;
+            revThread[threadContinue] = last;
+            lastSucc[uOut] = last;
+
+            // Remove the subtree of uOut from the thread list, unless it directly followed vIn
+            if (oldRevThread != vIn) {
+                thread[oldRevThread] = after;
+                revThread[after] = oldRevThread;
+            }
+
+            // Update revThread from the new thread values
+            for (int n = 0; n < dirtyRevCount; n++) {
+                int u = dirtyRevs[n];
+                revThread[thread[u]] = u;
+            }
+
+            // Update pred, predDir, lastSucc and succNum along the stem, from uOut down to uIn
+            int tmpSuccNum = 0, tmpLastSucc = lastSucc[uOut];
+            for (int u = uOut, p = parent[u]; u != uIn; u = p, p = parent[u]) {
+                pred[u] = pred[p];
+                predDir[u] = -predDir[p];
+                tmpSuccNum += succNum[u] - succNum[p];
+                succNum[u] = tmpSuccNum;
+                lastSucc[p] = tmpLastSucc;
+            }
+            pred[uIn] = inEdge;
+            predDir[uIn] = uIn == source[inEdge] ? DIR_UP : DIR_DOWN;
+            succNum[uIn] = oldSuccNum;
+        }
+
+        // Update lastSucc from vIn towards the root
+        int upLimitOut = lastSucc[join] == vIn ? join : -1;
+        int lastSuccOut = lastSucc[uOut];
+        for (int u = vIn; u != -1 && lastSucc[u] == vIn; u = parent[u]) {
+            lastSucc[u] = lastSuccOut;
+        }
+
+        // Update lastSucc from vOut towards the root
+        if (join != oldRevThread && vIn != oldRevThread) {
+            for (int u = vOut; u != upLimitOut && lastSucc[u] == oldLastSucc; u = parent[u]) {
+                lastSucc[u] = oldRevThread;
+            }
+        } else if (lastSuccOut != oldLastSucc) {
+            for (int u = vOut; u != upLimitOut && lastSucc[u] == oldLastSucc; u = parent[u]) {
+                lastSucc[u] = lastSuccOut;
+            }
+        }
+
+        // Update succNum from vIn to join, and from vOut to join
+        for (int u = vIn; u != join; u = parent[u]) {
+            succNum[u] += oldSuccNum;
+        }
+        for (int u = vOut; u != join; u = parent[u]) {
+            succNum[u] -= oldSuccNum;
+        }
+    }
+
+    /**
+     * Shifts the potentials of the moved subtree so that the entering edge has a zero reduced cost.
+     */
+    private void updatePotential() {
+        long sigma = potential[vIn] - potential[uIn] - predDir[uIn] * cost[inEdge];
+        int end = thread[lastSucc[uIn]];
+        for (int u = uIn; u != end; u = thread[u]) {
+            potential[u] += sigma;
+        }
+    }
+
+    /**
+     * Computes the total transportation cost of an allocation (units times cost per unit).
+     *
+     * @param network     the network the allocation was computed on
+     * @param allocations the allocations, as returned by an allocation method
+     * @return the total cost of the allocation
+     */
+    public static double totalCost(EmergencySupplyNetwork network,
+                                   Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations) {
+        // Index the cities and warehouses once to look the costs up
+        Map<EmergencySupplyNetwork.City, Integer> cityIndex = new IdentityHashMap<>();
+        for (int i = 0; i < network.getCities().size(); i++) {
+            cityIndex.put(network.getCities().get(i), i);
+        }
+        Map<EmergencySupplyNetwork.Warehouse, Integer> warehouseIndex = new IdentityHashMap<>();
+        for (int j = 0; j < network.getWarehouses().size(); j++) {
+            warehouseIndex.put(network.getWarehouses().get(j), j);
+        }
+
+        double total = 0;
+        for (Map.Entry<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> entry : allocations.entrySet()) {
+            int i = cityIndex.get(entry.getKey());
+            for (EmergencySupplyNetwork.ResourceAllocation allocation : entry.getValue()) {
+                total += allocation.units * network.getCostProvider().cost(i, warehouseIndex.get(allocation.warehouse));
+            }
+        }
+        return total;
+    }
+}
@@ -1,4 +1,12 @@
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 // NetworkApp.java
 import java.util.*;
 
@@ -8,8 +16,39 @@ import java.util.*;
  * performs resource allocation, redistribution, and dynamic resource sharing tasks, and outputs the results
  * in both console and JSON format.
  *
- * Usage: java NetworkApp <inputFilePath>
+ * Usage: java NetworkApp <inputFilePath> [options]
  * If no input file path is provided, the default file "TestCase1.txt" is used.
+ * The input file is either a text file or a binary network file (see NetworkBinaryFormat).
+ *
+ * Options:
+ *   --nearest=K  Only connect each city to its K nearest warehouses (sparse cost graph)
+ *   --radius=R   Only connect each city to the warehouses within distance R (sparse cost graph)
+ *   --cost-cache=F  Keep the dense cost matrix in the file F between runs (memory-mapped, only the moved
+ *                cities and warehouses are recomputed)
+ *   --lazy-costs=N  Compute the costs on demand, keeping at most N of them in a cache (fixed memory) instead of
+ *                computing the dense cost matrix; only the 32 cheapest warehouses of each city are ranked
+ *   --ranking-depth=K  Only rank (and allocate from) the K cheapest warehouses of each city (default all of them,
+ *                32 with --lazy-costs)
+ *   --optimal    Serve the priority tiers as much as possible at minimal total cost (min-cost flow) instead of the greedy
+ *   --parallel   Same allocation as the greedy, serving the cities that do not compete for warehouses in parallel
+ *   --pipeline   Compute the dense cost matrix and the warehouse rankings while the cities are parsed (see
+ *                NetworkPipeline), same network; ignored with the other cost options
+ *   --target=L   Target level of the redistribution: units ("50", the default), fraction of the capacity ("40%")
+ *                or percentile of the remaining capacities ("p50")
+ *   --matching=M How warehouses in need are served: "largest-first" (default), "cost-weighted" (nearby surpluses first)
+ *                or "nearest" (nearest surpluses, through a spatial index)
+ *   --tie-break=T  Order of the cities of the same priority: comma-separated "id" (default), "demand" (largest first),
+ *                "+demand" (smallest first) or "cost" (cheapest warehouse first), the ID breaking the remaining ties
+ *   --queries=F  Answer the cluster queries of the file F ("-" for the standard input, see ClusterQueries) instead of
+ *                asking if every pair of cities is in the same cluster
+ *   --metrics=F  Write the wall time, allocated bytes and items of every stage, and the counters of the algorithms,
+ *                to the json file F (see PipelineMetrics)
+ *   --jmx        Expose the same metrics, live, as an MXBean of the platform MBean server
+ *   --verbose    Print every city, cost, allocation, transfer, merge and query to the console, and the json at the end
+ *
+ * Without --verbose only a summary of each task is printed. The detailed output goes through a
+ * ConsoleEventSink: the allocation, redistribution and merging only notify it, and it prints
+ * from a background thread, so the console is never on the critical path.
  *
  * The main tasks performed by this application are:
  *
@@ -38,110 +77,298 @@ public class NetworkApp {
             System.out.println("Using file path: " + inputFilePath);
         }
 
+        // Parse the optional flags that follow the file path
+        int nearestWarehouses = 0; // 0 means the dense cost matrix is used
+        double radius = -1; // Negative means no radius-based cost graph
+        boolean optimal = false; // Use the min-cost flow allocation instead of the greedy one
+        boolean parallel = false; // Serve the independent cities of a tier concurrently (same result as the greedy)
+        boolean pipeline = false; // Overlap the parsing with the dense costs and rankings
+        String costCache = null; // File of the cached cost matrix, none by default
+        int lazyCosts = 0; // Capacity of the cache of the lazy costs, 0 for the dense cost matrix
+        int rankingDepth = -1; // Warehouses ranked per city, -1 for the default of the cost option
+        String targetLevel = null; // Target level of the redistribution, 50 units when not given
+        ResourceRedistribution.Matching matching = ResourceRedistribution.Matching.LARGEST_FIRST;
+        CityOrdering cityOrdering = CityOrdering.BY_ID; // Order of the cities of the same priority
+        String queriesFile = null; // File of the cluster queries, every pair of cities when not given
+        String metricsFile = null; // File of the metrics of the run, none by default
+        boolean jmx = false; // Register the metrics as an MXBean
+        boolean verbose = false; // Print the details of every task, not only the summaries
+        for (int i = 1; i < args.length; i++) {
+            try { // A numeric flag whose value is not a number is reported below
+                if (args[i].startsWith("--nearest=")) {
+                    nearestWarehouses = Integer.parseInt(args[i].substring("--nearest=".length()));
+                } else if (args[i].startsWith("--radius=")) {
+                    radius = Double.parseDouble(args[i].substring("--radius=".length()));
+                } else if (args[i].equals("--optimal")) {
+                    optimal = true;
+                } else if (args[i].equals("--parallel")) {
+                    parallel = true;
+                } else if (args[i].equals("--pipeline")) {
+                    pipeline = true;
+                } else if (args[i].startsWith("--cost-cache=")) {
+                    costCache = args[i].substring("--cost-cache=".length());
+                } else if (args[i].startsWith("--lazy-costs=")) {
+                    lazyCosts = Integer.parseInt(args[i].substring("--lazy-costs=".length()));
+                } else if (args[i].startsWith("--ranking-depth=")) {
+                    rankingDepth = Integer.parseInt(args[i].substring("--ranking-depth=".length()));
+                } else if (args[i].startsWith("--target=")) {
+                    targetLevel = args[i].substring("--target=".length());
+                    try { // Checked before any work, but a percentile is only resolved after the allocation
+                        ResourceRedistribution.parseLevel(targetLevel, new int[0]);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage() + " (expected units like 50, a fraction of the capacity like 40%"
+                                + " or a percentile of the remaining capacities like p50)");
+                        return;
+                    }
+                } else if (args[i].startsWith("--matching=")) {
+                    String name = args[i].substring("--matching=".length());
+                    try {
+                        matching = ResourceRedistribution.Matching.valueOf(name.toUpperCase().replace('-', '_'));
+                    } catch (IllegalArgumentException e) {
+                        StringJoiner valid = new StringJoiner(", ");
+                        for (ResourceRedistribution.Matching value : ResourceRedistribution.Matching.values()) {
+                            valid.add(value.name().toLowerCase().replace('_', '-'));
+                        }
+                        System.err.println("Unknown matching: " + name + " (expected one of " + valid + ")");
+                        return;
+                    }
+                } else if (args[i].startsWith("--tie-break=")) {
+                    try {
+                        cityOrdering = CityOrdering.parse(args[i].substring("--tie-break=".length()));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage()); // Lists the accepted tie-breakers
+                        return;
+                    }
+                } else if (args[i].startsWith("--queries=")) {
+                    queriesFile = args[i].substring("--queries=".length());
+                } else if (args[i].startsWith("--metrics=")) {
+                    metricsFile = args[i].substring("--metrics=".length());
+                } else if (args[i].equals("--jmx")) {
+                    jmx = true;
+                } else if (args[i].equals("--verbose")) {
+                    verbose = true;
+                }
+            } catch (NumberFormatException e) {
+                String flag = args[i].substring(0, args[i].indexOf('='));
+                System.err.println("Invalid value for " + flag + ": " + args[i].substring(flag.length() + 1)
+                        + (flag.equals("--radius") ? " (expected a number)" : " (expected an integer)"));
+                return;
+            }
+        }
+
+        // The stages are always measured (a few timer reads each), the metrics are only written when asked
+        PipelineMetrics metrics = new PipelineMetrics();
+        if (jmx) {
+            try {
+                metrics.register();
+                System.out.println("Metrics registered as " + PipelineMetrics.OBJECT_NAME);
+            } catch (javax.management.JMException e) {
+                System.err.println("Error registering the metrics: " + e.getMessage());
+            }
+        }
 
+        // Parse the input file, or load the whole network with its costs when pipelined (dense cost matrix only)
+        if (rankingDepth < -1) {
+            System.err.println("The ranking depth must not be negative: " + rankingDepth);
+            return;
+        }
+        // Lazy costs only rank the cheapest warehouses of each city, or the rankings would be as large as the matrix
+        int depth = rankingDepth >= 0 ? rankingDepth : lazyCosts > 0 ? LazyCostProvider.DEFAULT_RANKING_DEPTH : 0;
+        pipeline = pipeline && nearestWarehouses <= 0 && radius < 0 && lazyCosts <= 0 && costCache == null;
+        List<EmergencySupplyNetwork.City> cities;
+        List<EmergencySupplyNetwork.Warehouse> warehouses;
+        EmergencySupplyNetwork pipelined = null; // The network loaded by the pipeline, null otherwise
+        metrics.start(pipeline ? "parse and costs" : "parse");
         try {
-            // Parse the input file
-            InputParser.ParsedData parsedData = InputParser.parseInput(inputFilePath);
-
-            // To make the json, we will create nested LinkedHashMaps and Lists
-            // LinkedHashMaps will be used to represent JSON objects to maintain insertion order
-            List<EmergencySupplyNetwork.City> cities = parsedData.cities;
-            List<EmergencySupplyNetwork.Warehouse> warehouses = parsedData.warehouses;
-            LinkedHashMap<String,Object> jsonMap = new LinkedHashMap<>();
-            LinkedHashMap<String,Object> task1_2 = new LinkedHashMap<>();
-            LinkedHashMap<String,Object> task3 = new LinkedHashMap<>();
-            LinkedHashMap<String,Object> task4 = new LinkedHashMap<>();
-            LinkedHashMap<String,Object> graphRepresentation = new LinkedHashMap<>();
-            LinkedHashMap<String,Object> redisMap = new LinkedHashMap<>();
-
-            // There will be many newlines to separate the different sections of the output in the console
-            System.out.println("");
-            System.out.println("");
-
-            // Print the parsed cities and warehouses to check if the input was read correctly
-            System.out.println("Parsed Cities:"+ cities.size());
-            for (EmergencySupplyNetwork.City city : cities) {
-                System.out.println("City " + city.name + " Priority: " + city.priority);
+            if (pipeline) {
+                pipelined = NetworkPipeline.load(inputFilePath, depth, Runtime.getRuntime().availableProcessors());
+                cities = pipelined.getCities();
+                warehouses = pipelined.getWarehouses();
+            } else {
+                InputParser.ParsedData parsedData = InputParser.parseInput(inputFilePath);
+                cities = parsedData.cities;
+                warehouses = parsedData.warehouses;
             }
-            System.out.println("");
+        } catch (IOException e) {
+            System.err.println("Error reading input file: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        metrics.end(cities.size() + warehouses.size());
 
-            System.out.println("Parsed warehouses: " + warehouses.size());
-            for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
-                System.out.println("Warehouse " + warehouse.name + " Capacity: " + warehouse.capacity);
+        // Read the cluster queries up front, so that a bad file is reported before any work
+        ClusterQueries queries = null;
+        if (queriesFile != null) {
+            try (Reader reader = queriesFile.equals("-") ? new InputStreamReader(System.in) : new FileReader(queriesFile)) {
+                queries = ClusterQueries.parse(reader);
+            } catch (IOException e) {
+                System.err.println("Error reading queries file: " + e.getMessage());
+                return;
+            }
+        }
+
+        // The json is streamed to the output file as the results are produced, so it is never held in memory
+        // Small records (one allocation, one transfer...) are still built as LinkedHashMaps to maintain insertion order
+        String outputFilePath = "Output_"+ inputFilePath.replace(".txt", ".json").replace(NetworkBinaryFormat.EXTENSION, ".json"); // Change the file extension to .json
+        // The detailed console output, printed asynchronously (null when not verbose)
+        ConsoleEventSink console = verbose ? new ConsoleEventSink(System.out) : null;
+        try (JsonStreamWriter json = new JsonStreamWriter(new FileOutputStream(outputFilePath), 4)) { // 4 spaces for indentation
+            json.beginObject();
+
+            if (console != null) {
+                // There will be many newlines to separate the different sections of the output in the console
+                console.println("");
+                console.println("");
+
+                // Print the parsed cities and warehouses to check if the input was read correctly
+                console.println("Parsed Cities:"+ cities.size());
+                for (EmergencySupplyNetwork.City city : cities) {
+                    console.println("City " + city.name + " Priority: " + city.priority);
+                }
+                console.println("");
+
+                console.println("Parsed warehouses: " + warehouses.size());
+                for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
+                    console.println("Warehouse " + warehouse.name + " Capacity: " + warehouse.capacity);
+                }
+                console.println("");
+                console.println("");
+            } else {
+                System.out.println("Parsed " + cities.size() + " cities and " + warehouses.size() + " warehouses");
             }
-            System.out.println("");
-            System.out.println("");
 
             ////////////////////////////////////////////////
             // Task 1 & 2: Graph and Resource Allocation //
             //////////////////////////////////////////////
             
-            EmergencySupplyNetwork network = new EmergencySupplyNetwork(cities, warehouses); // Create the network
-            double[][] costMatrix = network.getCostMatrix(); // Get the cost matrix
+            // Create the network, either on the dense cost matrix or on a sparse cost graph
+            metrics.start("costs");
+            EmergencySupplyNetwork network;
+            if (pipelined != null) {
+                network = pipelined; // Costs and rankings already computed with the parsing
+            } else if (nearestWarehouses > 0) {
+                network = new EmergencySupplyNetwork(cities, warehouses, SpatialCostGraph.nearest(cities, warehouses, nearestWarehouses));
+            } else if (radius >= 0) {
+                network = new EmergencySupplyNetwork(cities, warehouses, SpatialCostGraph.withinRadius(cities, warehouses, radius));
+            } else if (lazyCosts > 0) {
+                network = new EmergencySupplyNetwork(cities, warehouses, new LazyCostProvider(cities, warehouses, lazyCosts));
+            } else if (costCache != null) {
+                CostMatrixCache.MappedCostMatrix cached = CostMatrixCache.open(Paths.get(costCache), cities, warehouses);
+                network = new EmergencySupplyNetwork(cities, warehouses, cached);
+                System.out.println("Cost matrix cache " + costCache + ": " + cached.getStatus().name().toLowerCase()
+                        + " (" + cached.getRecomputedRows() + " rows and " + cached.getRecomputedColumns() + " columns recomputed)");
+            } else {
+                network = new EmergencySupplyNetwork(cities, warehouses);
+            }
+            CostProvider costs = network.getCostProvider(); // Get the costs (never materializes a sparse graph)
+            metrics.end(costs.cityCount());
+            network.setRankingDepth(depth);
+            network.setCityOrdering(cityOrdering);
+            network.setListener(console); // The allocation reports to the console sink, if any
 
             // Print the graph representation (cost matrix) to the console
             // This is a very simple representation
             // may not be the most readable for large graphs
-            System.out.println("Graph Representation (Cost Matrix):");
-
-            // Calculate the number of characters needed to print one row of the cost matrix
-            // This is used to print a separator line
-            int numChars=0;
-            numChars+="cities    |".length();
-            for (int i = 0; i < warehouses.size(); i++) {
-                numChars += (" Warehouse " + warehouses.get(i).id + " |").length();
-            }
-            String separator = "-".repeat(numChars);
-            System.out.println(separator);
+            // On a sparse graph or lazy costs, a row only lists the ranked warehouses of the city (not C x W costs)
+            boolean fullRows = nearestWarehouses <= 0 && radius < 0 && lazyCosts <= 0;
+            metrics.start("cost matrix output");
+            String separator = "";
+            if (console != null && fullRows) {
+                console.println("Graph Representation (Cost Matrix):");
+
+                // Calculate the number of characters needed to print one row of the cost matrix
+                // This is used to print a separator line
+                int numChars=0;
+                numChars+="cities    |".length();
+                for (int i = 0; i < warehouses.size(); i++) {
+                    numChars += (" Warehouse " + warehouses.get(i).id + " |").length();
+                }
+                separator = "-".repeat(numChars);
+                console.println(separator);
 
-            // Print header
-            System.out.print("cities     |");
-            for (int i = 0; i < warehouses.size(); i++) {
-                System.out.printf(" Warehouse %d |", warehouses.get(i).id);
-            }
-            System.out.println();
+                // Print header
+                StringBuilder header = new StringBuilder("cities     |");
+                for (int i = 0; i < warehouses.size(); i++) {
+                    header.append(" Warehouse ").append(warehouses.get(i).id).append(" |");
+                }
+                console.println(header.toString());
 
-            // Another separator line
-            System.out.println(separator);
+                // Another separator line
+                console.println(separator);
+            }
 
             // Print rows (cities) of the cost matrix
-            List<Object> costArray = new ArrayList<>();
+            json.name("Task 1 and 2").beginObject();
+            json.name("Graph Representation").beginObject();
+            json.name("Cost Matrix").beginArray();
             for (int i = 0; i < cities.size(); i++) {
                 int spaces = 5; // Default spaces for city names, this is hardcoded, but could be adjusted based on the city names
-                System.out.print("City "+cities.get(i).name+" ".repeat(spaces)+"|"); // Print the city name
+                StringBuilder row = console == null ? null : new StringBuilder("City "+cities.get(i).name+" ".repeat(spaces)+"|"); // The city name
 
-                Map<String,Object> thiscost = new LinkedHashMap<>(); // Create a map to store the cost matrix (warehouse costs for each city) for the json
-                thiscost.put("City",cities.get(i).name);  // Add the city ID to the map
+                json.beginObject(); // Write the cost matrix row (warehouse costs for this city) to the json
+                json.name("City").value(cities.get(i).name);  // Add the city ID to the row
 
                 // Print the cost matrix values for each warehouse
-                for (int j = 0; j < warehouses.size(); j++) {
+                int[] ranked = fullRows ? null : network.getWarehouseRanking().rank(i);
+                int rowLength = fullRows ? warehouses.size() : ranked.length;
+                for (int n = 0; n < rowLength; n++) {
+                    int j = fullRows ? n : ranked[n];
                     spaces = (" Warehouse " + warehouses.get(j).id + " |").length()-2; // -2 was hardcoded visually
-                    System.out.printf(" %-"+ spaces +".2f|", costMatrix[i][j]); // Format values to 2 decimal places
-                    String twodec = String.format("%.2f",costMatrix[i][j]);
+                    double cost = costs.cost(i, j); // Through the cache of lazy costs, where the allocated pairs are found again
+                    if (row != null && fullRows) {
+                        row.append(String.format(" %-"+ spaces +".2f|", cost)); // Format values to 2 decimal places
+                    } else if (row != null) {
+                        row.append(String.format(" Warehouse %d: %.2f |", warehouses.get(j).id, cost));
+                    }
+                    String twodec = String.format("%.2f",cost);
                     float val = Float.parseFloat(twodec);
-                    thiscost.put("Warehouse "+warehouses.get(j).id,val); // Add the cost to the map for the json
+                    json.name("Warehouse "+warehouses.get(j).id).value(val); // Add the cost to the row for the json
+                }
+                json.endObject(); // End of the cost matrix row for this city
+                if (row != null) {
+                    console.println(row.toString()); // One line per row
                 }
-                costArray.add(thiscost); // Add the cost matrix for this city to the list for the json
-                System.out.println(); // New line after each row
             }
 
-            graphRepresentation.put("Cost Matrix",costArray); // Add the cost matrix to graphRepresentation for the json
-            task1_2.put("Graph Representation",graphRepresentation); // Add the graphRepresentation to task1_2 for the json
+            json.endArray(); // End of the cost matrix
+            json.endObject(); // End of the graph representation
+            metrics.end(cities.size());
 
             // Print footer line
-            System.out.println(separator);
-            System.out.println("");
-            System.out.println("");
+            if (console != null) {
+                if (fullRows) console.println(separator);
+                console.println("");
+                console.println("");
+            }
 
 
-            Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations = network.allocateResources();
+            metrics.start("allocation");
+            Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations =
+                    optimal ? network.allocateResourcesOptimal()
+                            : parallel ? network.allocateResourcesParallel() : network.allocateResources();
+            metrics.end(allocations.size());
+            metrics.count("ranking.candidates", network.getWarehouseRanking().getCandidatesRanked());
+            metrics.count("ranking.comparisons", network.getWarehouseRanking().getComparisons());
+            metrics.start("allocation output");
 
-            // Print the resource allocations to the console
-            System.out.println("");
-            System.out.println("");
+            // The resource allocations were printed by the console sink
+            if (console != null) {
+                console.println("");
+                console.println("");
+            }
+            int allocatedUnits = 0; // Total of the allocations, for the summary
+            double totalCost = 0; // Total transportation cost of the allocations, for the summary
+            Map<EmergencySupplyNetwork.City, Integer> cityIndices = new IdentityHashMap<>();
+            for (int i = 0; i < cities.size(); i++) {
+                cityIndices.put(cities.get(i), i);
+            }
+            Map<EmergencySupplyNetwork.Warehouse, Integer> warehouseIndices = new IdentityHashMap<>();
+            for (int j = 0; j < warehouses.size(); j++) {
+                warehouseIndices.put(warehouses.get(j), j);
+            }
 
             // Resource allocations for the json
-            List<Object> allocationArray = new ArrayList<>();
+            json.name("Resource Allocation").beginArray();
 
             // Each entry in the allocations list is a map that contains the city, priority, and the warehouse and units allocated
             // if there is only one warehouse allocated, it is a flat map
@@ -160,6 +387,11 @@ public class NetworkApp {
                 // Capitalize the first letter of the priority, and lowercase the rest
                 String priority = capcase.substring(0, 1).toUpperCase() + capcase.substring(1).toLowerCase();
                 thisAllocation.put("Priority",priority); // Add the priority to the map
+                int cityIndex = cityIndices.get(entry.getKey());
+                for (EmergencySupplyNetwork.ResourceAllocation allocation : entry.getValue()) {
+                    allocatedUnits += allocation.units;
+                    totalCost += allocation.units * costs.cost(cityIndex, warehouseIndices.get(allocation.warehouse));
+                }
                 
                 // Determine if the allocation is a flat map or a list of maps
                 if (entry.getValue().size() == 1){ // If there is only one allocation
@@ -176,73 +408,92 @@ public class NetworkApp {
                     }
                     thisAllocation.put("Allocated", allocs); // Add the list of allocations to the map
                 }
-                allocationArray.add(thisAllocation); // Add the resource allocations for this city to the list for the json
+                json.value(thisAllocation); // Write the resource allocations for this city to the json
             }
+            json.endArray(); // End of the resource allocations
 
 
-            Map<String,Object> remCap = new LinkedHashMap<>(); // Create a map to store the remaining capacities of the warehouses for the json
-            System.out.println("Remaining Warehouse Capacities:");
+            if (console == null) {
+                System.out.println("Allocated " + allocatedUnits + " units to " + allocations.size() + " cities"
+                        + String.format(" (total cost %.2f)", totalCost));
+            }
+
+            json.name("Remaining Capacities").beginObject(); // Remaining capacities of the warehouses for the json
+            if (console != null) console.println("Remaining Warehouse Capacities:");
             // Print the remaining capacities of the warehouses
             // And make the Remaining Capacities map for the json
             for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
-                System.out.println("  Warehouse " + warehouse.id + ": " + warehouse.remainingCapacity + " units");
-                remCap.put("Warehouse "+warehouse.id,warehouse.remainingCapacity);
+                if (console != null) console.println("  Warehouse " + warehouse.id + ": " + warehouse.remainingCapacity + " units");
+                json.name("Warehouse "+warehouse.id).value(warehouse.remainingCapacity);
             }
-
-            task1_2.put("Resource Allocation",allocationArray); // Add the resource allocations to task1_2 for the json
-            task1_2.put("Remaining Capacities",remCap); // Add the remaining capacities to task1_2 for the json
-            jsonMap.put("Task 1 and 2",task1_2);  // Add task1_2 to the jsonMap
+            json.endObject(); // End of the remaining capacities
+            json.endObject(); // End of task 1 and 2
+            metrics.end(allocations.size());
 
             //////////////////////////////////////
             // Task 3: Resource Redistribution //
             ////////////////////////////////////
             
             // Create a ResourceRedistribution object
-            ResourceRedistribution redistribution = new ResourceRedistribution(warehouses);
+            metrics.start("redistribution");
+            ResourceRedistribution redistribution = targetLevel == null
+                    ? new ResourceRedistribution(warehouses)
+                    : new ResourceRedistribution(warehouses, ResourceRedistribution.parseLevel(targetLevel, warehouses));
+            redistribution.setMatching(matching);
+            redistribution.setListener(console); // The transfers are printed by the console sink, if any
+
+            // Print the resource transfers to the console
+            if (console != null) {
+                console.println("");
+                console.println("");
+                console.println("Resource Transfers:");
+            }
 
             // Perform the resource redistribution
             List<ResourceRedistribution.Transfer> transfers = redistribution.redistributeResources();
-
-            // Print the resource transfers to the console
-            System.out.println("");
-            System.out.println("");
-            System.out.println("Resource Transfers:");
-            for (ResourceRedistribution.Transfer transfer : transfers) {
-                System.out.println(transfer);
+            metrics.end(transfers.size());
+            metrics.count("redistribution.heapOperations", redistribution.getHeapOperations());
+            metrics.start("redistribution output");
+
+            if (console != null) {
+                console.println("");
+                console.println("");
+            } else {
+                System.out.println("Performed " + transfers.size() + " transfers");
             }
-            System.out.println("");
-            System.out.println("");
 
             // Resource transfers for the json
-            List<Object> transferArray = new ArrayList<>();
+            json.name("Task 3").beginObject();
+            json.name("Resource Redistribution").beginObject();
+            json.name("Transfers").beginArray();
             for (int i = 0; i < transfers.size(); i++) {
                 ResourceRedistribution.Transfer transfer = transfers.get(i);
                 Map<String,Object> thisTransfer = new LinkedHashMap<>();
                 thisTransfer.put("From","Warehouse "+transfer.fromWarehouse.name);
                 thisTransfer.put("To","Warehouse "+transfer.toWarehouse.name);
                 thisTransfer.put("Units",transfer.units);
-                transferArray.add(thisTransfer);
+                json.value(thisTransfer);
             }
+            json.endArray(); // End of the transfers
 
 
             // Final resource levels for the json and console
-            System.out.println("Final Resource Levels:");
-            Map<String,Object> finalCap = new LinkedHashMap<>();
+            if (console != null) console.println("Final Resource Levels:");
+            json.name("Final Resource Levels").beginObject();
             for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
-                System.out.println("  Warehouse " + warehouse.id + ": " + warehouse.remainingCapacity + " units");
-                finalCap.put("Warehouse "+warehouse.id,warehouse.remainingCapacity); // Add the remaining capacity to the map for the json
+                if (console != null) console.println("  Warehouse " + warehouse.id + ": " + warehouse.remainingCapacity + " units");
+                json.name("Warehouse "+warehouse.id).value(warehouse.remainingCapacity); // Add the remaining capacity to the json
             }
-
-            redisMap.put("Transfers",transferArray); // Add the transfers to the map for the json
-            redisMap.put("Final Resource Levels",finalCap); // Add the final resource levels to the map for the json
-            task3.put("Resource Redistribution",redisMap); // Add the resource redistribution to task3 for the json
-
-            jsonMap.put("Task 3",task3); // Add task3 to the jsonMap
+            json.endObject(); // End of the final resource levels
+            json.endObject(); // End of the resource redistribution
+            json.endObject(); // End of task 3
+            metrics.end(transfers.size());
 
             ///////////////////////////////////////
             // Task 4: Dynamic Resource Sharing //
             /////////////////////////////////////
 
+            metrics.start("clustering");
             Map<Integer, List<Integer>> cityToWarehouses = new HashMap<>(); // Map city ID to list of warehouse IDs
             Map<Integer, String> cityToName = new HashMap<>(); // Map city ID to city name (this is auxiliary)
 
@@ -257,8 +508,8 @@ public class NetworkApp {
                     for (EmergencySupplyNetwork.ResourceAllocation allocation : cityAllocations) {
                         warehouseIds.add(allocation.warehouse.id);
                     }
-                } else {
-                    System.out.println("No allocations found for city: " + city.id);
+                } else if (console != null) {
+                    console.println("No allocations found for city: " + city.id);
                 }
                 cityToWarehouses.put(city.id, warehouseIds);
             }
@@ -266,101 +517,189 @@ public class NetworkApp {
 
             // Create a DynamicResourceSharing object
             DynamicResourceSharing sharing = new DynamicResourceSharing(cityToWarehouses);
-            LinkedHashMap<String,Object> DRSmap = new LinkedHashMap<>(); // DRS=Dynamic Resource Sharing for the json
+            json.name("Task 4").beginObject();
+            json.name("Dynamic Resource Sharing").beginObject();
 
             // Print initial clusters
-            System.out.println("");
-            System.out.println("");
+            if (console != null) {
+                console.println("");
+                console.println("");
+            }
 
-            LinkedHashMap<String,Object> initClusters = new LinkedHashMap<>(); // Create a map to store the initial clusters for the json
-            System.out.println("Initial Clusters:");
+            json.name("Initial Clusters").beginObject(); // The initial clusters for the json
+            if (console != null) console.println("Initial Clusters:");
             for (int cityId : cityToWarehouses.keySet()) {
-                System.out.println("City " + cityToName.get(cityId) + " belongs to cluster: " + sharing.find(cityId));
-                initClusters.put("City "+cityToName.get(cityId),"Cluster "+sharing.find(cityId)); // Add the cluster membership to the map for the json
+                if (console != null) console.println("City " + cityToName.get(cityId) + " belongs to cluster: " + sharing.find(cityId));
+                json.name("City "+cityToName.get(cityId)).value("Cluster "+sharing.find(cityId)); // Add the cluster membership to the json
             }
-            DRSmap.put("Initial Clusters",initClusters); // Add the initial clusters to the DRSmap for the json
+            json.endObject(); // End of the initial clusters
 
 
-            System.out.println("");
-            System.out.println("");
+            if (console != null) {
+                console.println("");
+                console.println("");
+            }
 
             // Perform unions based on shared resources
-            ArrayList<Object> steps = new ArrayList<>(); // Create a list to store the merging steps for the json
+            json.name("Merging Steps").beginArray(); // The merging steps for the json
 
             // Perform unions based on shared resources
-            // Iterate over all pairs of cities
-            for (int i = 0; i < cities.size(); i++) {
-                for (int j = i + 1; j < cities.size(); j++) {
-
-                    if (sharing.shareResources(cities.get(i).id, cities.get(j).id)) { // Check if cities share resources
-                        System.out.println("Merging clusters of City " + cities.get(i).name + " and City " + cities.get(j).name + "...");
-                        sharing.union(cities.get(i).id, cities.get(j).id); // Merge the clusters
-                        Map<String,Object> thisStep = new LinkedHashMap<>();
-                        thisStep.put("Action","Merge"); // Add the action to the map for the json
-                        thisStep.put("Cities",List.of("City "+cities.get(i).name,"City "+cities.get(j).name)); // Add the cities to the map for the json
-                        thisStep.put("Cluster After Merge","Cluster "+sharing.find(cities.get(i).id)); // Add the cluster after the merge to the map for the json
-                        steps.add(thisStep); // Add the merging step to the list for the json
+            // Cities are grouped by their set of warehouses, the pairs are reported in the order of the cities
+            List<Integer> cityIds = new ArrayList<>();
+            for (EmergencySupplyNetwork.City city : cities) {
+                cityIds.add(city.id);
+            }
+            try { // The json writer throws IOException, which the listener has to wrap
+                sharing.mergeSharedResources(cityIds, (cityId1, cityId2, clusterId) -> {
+                    if (console != null) console.println("Merging clusters of City " + cityToName.get(cityId1) + " and City " + cityToName.get(cityId2) + "...");
+                    Map<String,Object> thisStep = new LinkedHashMap<>();
+                    thisStep.put("Action","Merge"); // Add the action to the map for the json
+                    thisStep.put("Cities",List.of("City "+cityToName.get(cityId1),"City "+cityToName.get(cityId2))); // Add the cities to the map for the json
+                    thisStep.put("Cluster After Merge","Cluster "+clusterId); // Add the cluster after the merge to the map for the json
+                    try {
+                        json.value(thisStep); // Write the merging step to the json
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
-            DRSmap.put("Merging Steps",steps); // Add the merging steps to the DRSmap for the json
+            json.endArray(); // End of the merging steps
 
             // Print updated clusters
-            System.out.println("");
-            System.out.println("");
+            if (console != null) {
+                console.println("");
+                console.println("");
+            } else {
+                System.out.println("Merged the cities into " + sharing.getClusterCount() + " clusters");
+            }
 
-            LinkedHashMap<String,Object> finalClusters = new LinkedHashMap<>(); // Create a map to store the final clusters for the json
-            System.out.println("Updated Clusters:"); // Print the updated clusters
+            json.name("Cluster Membership After Merging").beginObject(); // The final clusters for the json
+            if (console != null) console.println("Updated Clusters:"); // Print the updated clusters
             for (int cityId : cityToWarehouses.keySet()) {
-                System.out.println("City " + cityToName.get(cityId) + " belongs to cluster: " + sharing.find(cityId));
-                finalClusters.put("City "+cityToName.get(cityId),"Cluster "+sharing.find(cityId)); // Add the cluster membership to the map for the json
+                if (console != null) console.println("City " + cityToName.get(cityId) + " belongs to cluster: " + sharing.find(cityId));
+                json.name("City "+cityToName.get(cityId)).value("Cluster "+sharing.find(cityId)); // Add the cluster membership to the json
             }
-            DRSmap.put("Cluster Membership After Merging",finalClusters); // Add the final clusters to the DRSmap for the json
+            json.endObject(); // End of the final clusters
+            metrics.end(cityToWarehouses.size());
 
 
             // Perform queries
-            System.out.println("");
-            System.out.println("");
-            System.out.println("Querying if cities are in the same cluster:");
-            ArrayList<Object> queries = new ArrayList<>(); // Create a list to store the queries for the json
-
-            // Combine all pairs of cities and check if they are in the same cluster
-            // Print in console and store the results in the json
-            for (int i = 0; i < cities.size(); i++) {
-                for (int j = i + 1; j < cities.size(); j++) { // Start from i + 1 to avoid redundant checks
-                    EmergencySupplyNetwork.City city1 = cities.get(i);
-                    EmergencySupplyNetwork.City city2 = cities.get(j);
-            
-                    // Perform the query
-                    LinkedHashMap<String,Object> thisQuery = new LinkedHashMap<>(); // Create a map to store the query and result for the json
-                    System.out.println("Query: Are City " + city1.name + " and City " + city2.name + " in the same cluster?");
-                    thisQuery.put("Query","Are City "+city1.name+" and City "+city2.name+" in the same cluster?"); // Add the query to the map for the json
-                    System.out.println(sharing.areInSameCluster(city1.id, city2.id) ? "Yes" : "No");
-                    thisQuery.put("Result",sharing.areInSameCluster(city1.id, city2.id) ? "Yes" : "No"); // Add the result to the map for the json
-                    queries.add(thisQuery); // Add the query to the list for the json
+            metrics.start("queries");
+            if (console != null) {
+                console.println("");
+                console.println("");
+                console.println("Querying if cities are in the same cluster:");
+            }
+            json.name("Queries").beginArray(); // The queries for the json
+
+            // The roots are resolved once, every query is then two array reads
+            DynamicResourceSharing.ClusterSnapshot clusters = sharing.snapshot();
+            try { // The json writer throws IOException, which writeQuery has to wrap
+                if (queries != null) {
+                    // Answer the queries of the file, the pairs all at once
+                    queries.answer(clusters, parallel ? ForkJoinPool.commonPool() : null, new ClusterQueries.Listener() {
+                        @Override
+                        public void onSameCluster(int cityId1, int cityId2, boolean same) {
+                            writeQuery("Are City " + cityToName.get(cityId1) + " and City " + cityToName.get(cityId2) + " in the same cluster?",
+                                    same ? "Yes" : "No", console, json);
+                        }
+
+                        @Override
+                        public void onMembers(int cityId, int[] members) {
+                            List<String> names = new ArrayList<>(members.length);
+                            for (int member : members) {
+                                names.add("City " + cityToName.get(member));
+                            }
+                            writeQuery("Which cities are in the cluster of City " + cityToName.get(cityId) + "?", names, console, json);
+                        }
+                    });
+                    if (console == null) System.out.println("Answered " + queries.size() + " cluster queries");
+                } else {
+                    // Combine all pairs of cities and check if they are in the same cluster
+                    // Print in console and store the results in the json
+                    for (int i = 0; i < cities.size(); i++) {
+                        for (int j = i + 1; j < cities.size(); j++) { // Start from i + 1 to avoid redundant checks
+                            EmergencySupplyNetwork.City city1 = cities.get(i);
+                            EmergencySupplyNetwork.City city2 = cities.get(j);
+                            String query = "Are City " + city1.name + " and City " + city2.name + " in the same cluster?";
+                            String result = clusters.areInSameCluster(city1.id, city2.id) ? "Yes" : "No";
+                            writeQuery(query, result, console, json);
+                        }
+                    }
                 }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
-            DRSmap.put("Queries",queries); // Add the queries to the DRSmap for the json
-
-            task4.put("Dynamic Resource Sharing",DRSmap); // Add the DRSmap to task4 for the json
-            jsonMap.put("Task 4",task4); // Add task4 to the jsonMap
-
+            json.endArray(); // End of the queries
+            metrics.end(queries != null ? queries.size() : (long) cities.size() * (cities.size() - 1) / 2);
+            metrics.count("clustering.finds", sharing.getFindCount());
+            metrics.count("clustering.findSteps", sharing.getFindSteps());
+
+            json.endObject(); // End of the dynamic resource sharing
+            json.endObject(); // End of task 4
+            if (costs instanceof LazyCostProvider) {
+                LazyCostProvider lazy = (LazyCostProvider) costs;
+                String stats = "Cost cache: " + lazy.getHits() + " hits, " + lazy.getMisses() + " misses, "
+                        + lazy.getEvictions() + " evictions (" + lazy.size() + " of " + lazy.capacity() + " costs cached)";
+                if (console != null) console.println(stats);
+                else System.out.println(stats);
+                metrics.count("costs.cacheHits", lazy.getHits());
+                metrics.count("costs.cacheMisses", lazy.getMisses());
+                metrics.count("costs.cacheEvictions", lazy.getEvictions());
+            }
+            json.endObject(); // End of the json document
+        } catch (IOException e) {
+            if (console != null) console.close(); // Print what was reported before the error
+            System.err.println("Error saving JSON: " + e.getMessage());
+            return;
+        }
 
-            // Write JSON output to file
-            try {
-                String jsonOutput = JsonUtils.mapToJson(jsonMap, 4); // Convert the jsonMap to a JSON string with 4 spaces for indentation
-                String outputFilePath = "Output_"+ inputFilePath.replace(".txt", ".json"); // Change the file extension to .json
-                System.out.println("Saving results to " + outputFilePath); // Print the output file path
-                JsonUtils.saveToJson(outputFilePath, jsonOutput); // Save the JSON to the output file
-                System.out.println(jsonOutput); // Print the JSON to the console
-                System.out.println("Results saved to " + outputFilePath); // Print a message indicating that the results were saved
+        if (metricsFile != null) {
+            try (FileOutputStream out = new FileOutputStream(metricsFile)) {
+                metrics.writeJson(out);
+                if (console != null) console.println("Metrics saved to " + metricsFile);
+                else System.out.println("Metrics saved to " + metricsFile);
             } catch (IOException e) {
-                System.err.println("Error saving JSON: " + e.getMessage());
+                System.err.println("Error saving metrics: " + e.getMessage());
             }
-            
+        }
+
+        if (console == null) {
+            System.out.println("Results saved to " + outputFilePath);
+            return;
+        }
+
+        // Print the JSON to the console, streamed back from the output file
+        console.println("Saving results to " + outputFilePath); // Print the output file path
+        console.close(); // Everything reported so far is printed before the JSON
+        try {
+            Files.copy(Paths.get(outputFilePath), System.out); // Print the JSON to the console
+            System.out.println();
+            System.out.println("Results saved to " + outputFilePath); // Print a message indicating that the results were saved
         } catch (IOException e) {
-            System.err.println("Error reading input file: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error saving JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints a cluster query and its result to the console (if verbose) and writes them to the json.
+     *
+     * @throws UncheckedIOException If the json cannot be written.
+     */
+    private static void writeQuery(String query, Object result, ConsoleEventSink console, JsonStreamWriter json) {
+        if (console != null) {
+            console.println("Query: " + query);
+            console.println(String.valueOf(result));
+        }
+        LinkedHashMap<String,Object> thisQuery = new LinkedHashMap<>(); // Create a map to store the query and result for the json
+        thisQuery.put("Query",query); // Add the query to the map for the json
+        thisQuery.put("Result",result); // Add the result to the map for the json
+        try {
+            json.value(thisQuery); // Write the query to the json
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
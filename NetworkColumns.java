@@ -0,0 +1,347 @@
+// NetworkColumns.java
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The NetworkColumns class holds the cities and warehouses of a network in columnar form:
+ * one primitive array per field (ids, xs, ys, demands, priority ordinals, capacities), and
+ * the names as ASCII bytes in a single arena. It is what MappedInputParser fills, so that
+ * very large inputs are parsed without creating one object (or one String) per line.
+ *
+ * City and Warehouse objects are only materialized on request, by city(int), warehouse(int),
+ * toCities() and toWarehouses().
+ *
+ * The columns are also what NetworkBinaryFormat saves and loads: it reads and writes the
+ * backing arrays directly, through the package-private constructor and column accessors.
+ *
+ * Methods:
+ *   {addCity(...)}, {addWarehouse(...)}: Append a row (the arrays grow as needed).
+ *   {cityCount()}, {warehouseCount()}: The number of rows.
+ *   {cityId(int)}, {cityX(int)}, ...: Read a field of a row.
+ *   {city(int)}, {warehouse(int)}: Materialize one row.
+ *   {toCities()}, {toWarehouses()}: Materialize all the rows.
+ */
+public class NetworkColumns {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final EmergencySupplyNetwork.Priority[] PRIORITIES = EmergencySupplyNetwork.Priority.values();
+
+    // City columns
+    private int cityCount;
+    private int[] cityIds = new int[INITIAL_CAPACITY];
+    private int[] cityXs = new int[INITIAL_CAPACITY];
+    private int[] cityYs = new int[INITIAL_CAPACITY];
+    private int[] cityDemands = new int[INITIAL_CAPACITY];
+    private byte[] cityPriorities = new byte[INITIAL_CAPACITY]; // Priority ordinals
+    private final NameArena cityNames;
+
+    // Warehouse columns
+    private int warehouseCount;
+    private int[] warehouseIds = new int[INITIAL_CAPACITY];
+    private int[] warehouseXs = new int[INITIAL_CAPACITY];
+    private int[] warehouseYs = new int[INITIAL_CAPACITY];
+    private int[] warehouseCapacities = new int[INITIAL_CAPACITY];
+    private final NameArena warehouseNames;
+
+    /**
+     * Creates empty columns, to be filled with addCity and addWarehouse.
+     */
+    public NetworkColumns() {
+        this.cityNames = new NameArena();
+        this.warehouseNames = new NameArena();
+    }
+
+    /**
+     * Creates columns over existing arrays, which are adopted (not copied). Each array holds
+     * at least the given number of rows; name i is the bytes [offsets[i], offsets[i + 1]).
+     */
+    NetworkColumns(int cityCount, int[] cityIds, int[] cityXs, int[] cityYs, int[] cityDemands, byte[] cityPriorities,
+                   byte[] cityNameBytes, int[] cityNameOffsets,
+                   int warehouseCount, int[] warehouseIds, int[] warehouseXs, int[] warehouseYs, int[] warehouseCapacities,
+                   byte[] warehouseNameBytes, int[] warehouseNameOffsets) {
+        for (int i = 0; i < cityCount; i++) {
+            if (cityPriorities[i] < 0 || cityPriorities[i] >= PRIORITIES.length) {
+                throw new IllegalArgumentException("Invalid priority ordinal: " + cityPriorities[i]);
+            }
+        }
+        this.cityCount = cityCount;
+        this.cityIds = cityIds;
+        this.cityXs = cityXs;
+        this.cityYs = cityYs;
+        this.cityDemands = cityDemands;
+        this.cityPriorities = cityPriorities;
+        this.cityNames = new NameArena(cityNameBytes, cityNameOffsets, cityCount);
+        this.warehouseCount = warehouseCount;
+        this.warehouseIds = warehouseIds;
+        this.warehouseXs = warehouseXs;
+        this.warehouseYs = warehouseYs;
+        this.warehouseCapacities = warehouseCapacities;
+        this.warehouseNames = new NameArena(warehouseNameBytes, warehouseNameOffsets, warehouseCount);
+    }
+
+    /**
+     * Appends a city whose name is the ASCII bytes [nameFrom, nameTo) of the given buffer.
+     *
+     * @param name             the buffer holding the name
+     * @param nameFrom         the first byte of the name
+     * @param nameTo           the end (exclusive) of the name
+     * @param id               the unique identifier of the city
+     * @param x                the x-coordinate of the city
+     * @param y                the y-coordinate of the city
+     * @param demand           the demand of the city
+     * @param priorityOrdinal  the ordinal of the priority of the city
+     */
+    public void addCity(byte[] name, int nameFrom, int nameTo, int id, int x, int y, int demand, int priorityOrdinal) {
+        if (priorityOrdinal < 0 || priorityOrdinal >= PRIORITIES.length) {
+            throw new IllegalArgumentException("Invalid priority ordinal: " + priorityOrdinal);
+        }
+        if (cityCount == cityIds.length) {
+            int capacity = grow(cityCount);
+            cityIds = Arrays.copyOf(cityIds, capacity);
+            cityXs = Arrays.copyOf(cityXs, capacity);
+            cityYs = Arrays.copyOf(cityYs, capacity);
+            cityDemands = Arrays.copyOf(cityDemands, capacity);
+            cityPriorities = Arrays.copyOf(cityPriorities, capacity);
+        }
+        cityIds[cityCount] = id;
+        cityXs[cityCount] = x;
+        cityYs[cityCount] = y;
+        cityDemands[cityCount] = demand;
+        cityPriorities[cityCount] = (byte) priorityOrdinal;
+        cityNames.add(name, nameFrom, nameTo);
+        cityCount++;
+    }
+
+    /**
+     * Appends a warehouse whose name is the ASCII bytes [nameFrom, nameTo) of the given buffer.
+     *
+     * @param name     the buffer holding the name
+     * @param nameFrom the first byte of the name
+     * @param nameTo   the end (exclusive) of the name
+     * @param id       the unique identifier of the warehouse
+     * @param x        the x-coordinate of the warehouse
+     * @param y        the y-coordinate of the warehouse
+     * @param capacity the capacity of the warehouse
+     */
+    public void addWarehouse(byte[] name, int nameFrom, int nameTo, int id, int x, int y, int capacity) {
+        if (warehouseCount == warehouseIds.length) {
+            int newCapacity = grow(warehouseCount);
+            warehouseIds = Arrays.copyOf(warehouseIds, newCapacity);
+            warehouseXs = Arrays.copyOf(warehouseXs, newCapacity);
+            warehouseYs = Arrays.copyOf(warehouseYs, newCapacity);
+            warehouseCapacities = Arrays.copyOf(warehouseCapacities, newCapacity);
+        }
+        warehouseIds[warehouseCount] = id;
+        warehouseXs[warehouseCount] = x;
+        warehouseYs[warehouseCount] = y;
+        warehouseCapacities[warehouseCount] = capacity;
+        warehouseNames.add(name, nameFrom, nameTo);
+        warehouseCount++;
+    }
+
+    /**
+     * Returns the next capacity of a full column (1.5x).
+     */
+    private static int grow(int size) {
+        long capacity = size + (size >> 1) + 1;
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many rows: " + size);
+        }
+        return (int) capacity;
+    }
+
+    public int cityCount() {
+        return cityCount;
+    }
+
+    public int cityId(int i) {
+        return cityIds[i];
+    }
+
+    public int cityX(int i) {
+        return cityXs[i];
+    }
+
+    public int cityY(int i) {
+        return cityYs[i];
+    }
+
+    public int cityDemand(int i) {
+        return cityDemands[i];
+    }
+
+    public EmergencySupplyNetwork.Priority cityPriority(int i) {
+        return PRIORITIES[cityPriorities[i]];
+    }
+
+    public String cityName(int i) {
+        return cityNames.get(i);
+    }
+
+    public int warehouseCount() {
+        return warehouseCount;
+    }
+
+    public int warehouseId(int j) {
+        return warehouseIds[j];
+    }
+
+    public int warehouseX(int j) {
+        return warehouseXs[j];
+    }
+
+    public int warehouseY(int j) {
+        return warehouseYs[j];
+    }
+
+    public int warehouseCapacity(int j) {
+        return warehouseCapacities[j];
+    }
+
+    public String warehouseName(int j) {
+        return warehouseNames.get(j);
+    }
+
+    // Backing arrays (at least count rows), for NetworkBinaryFormat; they must not be modified
+
+    int[] cityIdColumn() {
+        return cityIds;
+    }
+
+    int[] cityXColumn() {
+        return cityXs;
+    }
+
+    int[] cityYColumn() {
+        return cityYs;
+    }
+
+    int[] cityDemandColumn() {
+        return cityDemands;
+    }
+
+    byte[] cityPriorityColumn() {
+        return cityPriorities;
+    }
+
+    byte[] cityNameBytes() {
+        return cityNames.bytes;
+    }
+
+    int[] cityNameOffsets() {
+        return cityNames.offsets;
+    }
+
+    int[] warehouseIdColumn() {
+        return warehouseIds;
+    }
+
+    int[] warehouseXColumn() {
+        return warehouseXs;
+    }
+
+    int[] warehouseYColumn() {
+        return warehouseYs;
+    }
+
+    int[] warehouseCapacityColumn() {
+        return warehouseCapacities;
+    }
+
+    byte[] warehouseNameBytes() {
+        return warehouseNames.bytes;
+    }
+
+    int[] warehouseNameOffsets() {
+        return warehouseNames.offsets;
+    }
+
+    /**
+     * Materializes the city at the given row.
+     *
+     * @param i the row of the city
+     * @return a new City object
+     */
+    public EmergencySupplyNetwork.City city(int i) {
+        return new EmergencySupplyNetwork.City(cityIds[i], cityXs[i], cityYs[i], cityDemands[i], cityPriority(i), cityName(i));
+    }
+
+    /**
+     * Materializes the warehouse at the given row.
+     *
+     * @param j the row of the warehouse
+     * @return a new Warehouse object
+     */
+    public EmergencySupplyNetwork.Warehouse warehouse(int j) {
+        return new EmergencySupplyNetwork.Warehouse(warehouseIds[j], warehouseXs[j], warehouseYs[j], warehouseCapacities[j], warehouseName(j));
+    }
+
+    /**
+     * Materializes all the cities, in row order.
+     *
+     * @return a new list of City objects
+     */
+    public List<EmergencySupplyNetwork.City> toCities() {
+        List<EmergencySupplyNetwork.City> cities = new ArrayList<>(cityCount);
+        for (int i = 0; i < cityCount; i++) {
+            cities.add(city(i));
+        }
+        return cities;
+    }
+
+    /**
+     * Materializes all the warehouses, in row order.
+     *
+     * @return a new list of Warehouse objects
+     */
+    public List<EmergencySupplyNetwork.Warehouse> toWarehouses() {
+        List<EmergencySupplyNetwork.Warehouse> warehouses = new ArrayList<>(warehouseCount);
+        for (int j = 0; j < warehouseCount; j++) {
+            warehouses.add(warehouse(j));
+        }
+        return warehouses;
+    }
+
+    /**
+     * Names stored back to back as ASCII bytes; name i is [offsets[i], offsets[i + 1]).
+     */
+    private static class NameArena {
+        private byte[] bytes;
+        private int[] offsets;
+        private int count;
+
+        NameArena() {
+            this(new byte[INITIAL_CAPACITY * 8], new int[INITIAL_CAPACITY + 1], 0);
+        }
+
+        NameArena(byte[] bytes, int[] offsets, int count) {
+            if (offsets.length < count + 1 || offsets[0] != 0 || offsets[count] > bytes.length) {
+                throw new IllegalArgumentException("Invalid name offsets");
+            }
+            for (int i = 0; i < count; i++) {
+                if (offsets[i] > offsets[i + 1]) {
+                    throw new IllegalArgumentException("Invalid name offsets");
+                }
+            }
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.count = count;
+        }
+
+        void add(byte[] name, int from, int to) {
+            int length = to - from;
+            int end = offsets[count];
+            if (end + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(grow(bytes.length), end + length));
+            }
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, grow(offsets.length));
+            }
+            System.arraycopy(name, from, bytes, end, length);
+            offsets[++count] = end + length;
+        }
+
+        String get(int i) {
+            return new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.US_ASCII);
+        }
+    }
+}
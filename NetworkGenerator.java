@@ -0,0 +1,449 @@
+// NetworkGenerator.java
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The NetworkGenerator class generates synthetic networks for load testing, in the exact
+ * format read by InputParser (a "Cities:" section, then a "Warehouses:" section). The file
+ * is written line by line through a buffer, so networks of many gigabytes can be generated
+ * with constant memory, and the same seed always produces the same network.
+ *
+ * Usage: java NetworkGenerator [options]
+ *
+ *   --cities=N             number of cities (default 1000)
+ *   --warehouses=N         number of warehouses (default cities / 10, at least 1)
+ *   --layout=L             coordinate distribution (default uniform):
+ *                            uniform     cities and warehouses uniform on the square
+ *                            clustered   cities and warehouses gathered around the same cluster centers
+ *                            city-dense  cities packed in dense cores, warehouses uniform (mostly far)
+ *   --side=S               side of the square of the coordinates (default grows with sqrt(cities))
+ *   --clusters=K           number of cluster centers or cores (default 10)
+ *   --spread=D             standard deviation of the distance to the center (default side / 50)
+ *   --demand=SPEC          distribution of the demands (default uniform:10:100)
+ *   --capacity=SPEC        distribution of the capacities (default uniform:50:150)
+ *   --capacity-ratio=R     scale the capacities so that their total is about R times the total
+ *                          demand (default 1.0); 0 keeps the capacities as drawn
+ *   --priorities=H:M:L     relative weights of the High, Medium and Low priorities (default 1:1:1)
+ *   --seed=S               seed of the random generator (default 42)
+ *   --output=PATH          output file (default: standard output)
+ *
+ * A distribution SPEC is one of uniform:MIN:MAX, normal:MEAN:STDDEV, exponential:MEAN or
+ * constant:VALUE; the values drawn are rounded and never negative.
+ *
+ * Cities are named like the test cases (A, B, ..., Z, AA, ...) with IDs 1..N; warehouses are
+ * named W1, W2, ... with IDs following the cities, so all IDs are unique.
+ */
+public class NetworkGenerator {
+    private static final String[] PRIORITY_NAMES = {"High", "Medium", "Low"};
+
+    /**
+     * Coordinate distributions.
+     */
+    public enum Layout { UNIFORM, CLUSTERED, CITY_DENSE }
+
+    private int cityCount = 1000;
+    private int warehouseCount = -1; // -1 means cities / 10
+    private Layout layout = Layout.UNIFORM;
+    private int side = -1; // -1 means it grows with the number of cities
+    private int clusterCount = 10;
+    private double spread = -1; // -1 means side / 50
+    private Distribution demand = Distribution.parse("uniform:10:100");
+    private Distribution capacity = Distribution.parse("uniform:50:150");
+    private double capacityRatio = 1.0;
+    private double[] priorityWeights = {1, 1, 1};
+    private long seed = 42;
+
+    /**
+     * Sets the number of cities, 0 or more (default 1000).
+     */
+    public NetworkGenerator setCities(int cityCount) {
+        if (cityCount < 0) throw new IllegalArgumentException("Negative number of cities: " + cityCount);
+        this.cityCount = cityCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of warehouses, 0 or more (default a tenth of the cities, at least 1).
+     */
+    public NetworkGenerator setWarehouses(int warehouseCount) {
+        if (warehouseCount < 0) throw new IllegalArgumentException("Negative number of warehouses: " + warehouseCount);
+        this.warehouseCount = warehouseCount;
+        return this;
+    }
+
+    /**
+     * Sets how the coordinates of the cities and warehouses are distributed (default UNIFORM).
+     */
+    public NetworkGenerator setLayout(Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * Sets the side of the square of the coordinates, at least 1 (default grows with sqrt(cities)).
+     */
+    public NetworkGenerator setSide(int side) {
+        if (side < 1) throw new IllegalArgumentException("The side must be positive: " + side);
+        this.side = side;
+        return this;
+    }
+
+    /**
+     * Sets the number of cluster centers or dense cores, at least 1 (default 10).
+     */
+    public NetworkGenerator setClusters(int clusterCount) {
+        if (clusterCount < 1) throw new IllegalArgumentException("At least one cluster is needed: " + clusterCount);
+        this.clusterCount = clusterCount;
+        return this;
+    }
+
+    /**
+     * Sets the standard deviation of the distance to a cluster center, 0 or more (default side / 50).
+     */
+    public NetworkGenerator setSpread(double spread) {
+        if (spread < 0) throw new IllegalArgumentException("Negative spread: " + spread);
+        this.spread = spread;
+        return this;
+    }
+
+    /**
+     * Sets the distribution of the city demands (default uniform:10:100).
+     */
+    public NetworkGenerator setDemand(Distribution demand) {
+        this.demand = demand;
+        return this;
+    }
+
+    /**
+     * Sets the distribution of the warehouse capacities (default uniform:50:150).
+     */
+    public NetworkGenerator setCapacity(Distribution capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the ratio of the total capacity to the total demand, 0 or more (default 1.0, 0 keeps the capacities as drawn).
+     */
+    public NetworkGenerator setCapacityRatio(double capacityRatio) {
+        if (capacityRatio < 0) throw new IllegalArgumentException("Negative capacity ratio: " + capacityRatio);
+        this.capacityRatio = capacityRatio;
+        return this;
+    }
+
+    /**
+     * Sets the relative weights of the High, Medium and Low priorities, none negative and not all 0 (default 1:1:1).
+     */
+    public NetworkGenerator setPriorityWeights(double high, double medium, double low) {
+        if (high < 0 || medium < 0 || low < 0 || high + medium + low <= 0) {
+            throw new IllegalArgumentException("Invalid priority weights: " + high + ":" + medium + ":" + low);
+        }
+        this.priorityWeights = new double[] {high, medium, low};
+        return this;
+    }
+
+    /**
+     * Sets the seed of the random generator, any value (default 42).
+     */
+    public NetworkGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public static void main(String[] args) throws IOException {
+        NetworkGenerator generator = new NetworkGenerator();
+        String output = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String option = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (option) {
+                case "--cities": generator.setCities(Integer.parseInt(value)); break;
+                case "--warehouses": generator.setWarehouses(Integer.parseInt(value)); break;
+                case "--layout": generator.setLayout(Layout.valueOf(value.toUpperCase().replace('-', '_'))); break;
+                case "--side": generator.setSide(Integer.parseInt(value)); break;
+                case "--clusters": generator.setClusters(Integer.parseInt(value)); break;
+                case "--spread": generator.setSpread(Double.parseDouble(value)); break;
+                case "--demand": generator.setDemand(Distribution.parse(value)); break;
+                case "--capacity": generator.setCapacity(Distribution.parse(value)); break;
+                case "--capacity-ratio": generator.setCapacityRatio(Double.parseDouble(value)); break;
+                case "--priorities": {
+                    String[] weights = value.split(":");
+                    if (weights.length != 3) throw new IllegalArgumentException("Expected --priorities=H:M:L, got " + value);
+                    generator.setPriorityWeights(Double.parseDouble(weights[0]), Double.parseDouble(weights[1]), Double.parseDouble(weights[2]));
+                    break;
+                }
+                case "--seed": generator.setSeed(Long.parseLong(value)); break;
+                case "--output": output = value; break;
+                default: throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (output == null) {
+            generator.write(System.out);
+            System.out.flush();
+        } else {
+            generator.write(Paths.get(output));
+        }
+    }
+
+    /**
+     * Writes the network to a file.
+     *
+     * @param path the file to write
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the network to a stream, in the text format of the input files. The stream is
+     * flushed but not closed.
+     *
+     * @param out the stream to write to
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 20);
+        StringBuilder line = new StringBuilder(128);
+        generate(new RowSink() {
+            @Override
+            public void section(String header) throws IOException {
+                writer.write(header);
+                writer.write('\n');
+            }
+
+            @Override
+            public void city(String name, int id, int x, int y, int demand, int priority) throws IOException {
+                line.setLength(0);
+                line.append("City ").append(name).append(": ID = ").append(id)
+                    .append(", Coordinates = (").append(x).append(", ").append(y)
+                    .append("), Demand = ").append(demand).append(" units, Priority = ").append(PRIORITY_NAMES[priority]).append('\n');
+                writer.append(line);
+            }
+
+            @Override
+            public void warehouse(String name, int id, int x, int y, int capacity) throws IOException {
+                line.setLength(0);
+                line.append("Warehouse ").append(name).append(": ID = ").append(id)
+                    .append(", Coordinates = (").append(x).append(", ").append(y)
+                    .append("), Capacity = ").append(capacity).append(" units\n");
+                writer.append(line);
+            }
+        });
+        writer.flush();
+    }
+
+    /**
+     * Generates the network in memory, without going through text. The rows are the ones the
+     * file would contain, in the same order.
+     *
+     * @return the cities and warehouses, in columnar form
+     */
+    public NetworkColumns generate() {
+        NetworkColumns columns = new NetworkColumns();
+        try {
+            generate(new RowSink() {
+                @Override
+                public void section(String header) {
+                }
+
+                @Override
+                public void city(String name, int id, int x, int y, int demand, int priority) {
+                    byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+                    // Priority ordinals go LOW, MEDIUM, HIGH while the weights go High, Medium, Low
+                    columns.addCity(bytes, 0, bytes.length, id, x, y, demand, EmergencySupplyNetwork.Priority.values().length - 1 - priority);
+                }
+
+                @Override
+                public void warehouse(String name, int id, int x, int y, int capacity) {
+                    byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+                    columns.addWarehouse(bytes, 0, bytes.length, id, x, y, capacity);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by this sink
+        }
+        return columns;
+    }
+
+    /**
+     * Receives the generated rows, in order.
+     */
+    private interface RowSink {
+        void section(String header) throws IOException;
+
+        /**
+         * @param priority index in PRIORITY_NAMES (0 = High, 1 = Medium, 2 = Low)
+         */
+        void city(String name, int id, int x, int y, int demand, int priority) throws IOException;
+
+        void warehouse(String name, int id, int x, int y, int capacity) throws IOException;
+    }
+
+    /**
+     * Draws the network and hands every row to the sink. Only the cluster centers are kept in
+     * memory; the total demand is accumulated to scale the capacities.
+     */
+    private void generate(RowSink sink) throws IOException {
+        int warehouses = warehouseCount >= 0 ? warehouseCount : Math.max(1, cityCount / 10);
+        if ((long) cityCount + warehouses > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cities and warehouses for int IDs");
+        }
+        int squareSide = side > 0 ? side : (int) Math.max(100, Math.min(Integer.MAX_VALUE / 2, Math.sqrt(cityCount) * 10));
+        double deviation = spread >= 0 ? spread : squareSide / 50.0;
+        Random random = new Random(seed);
+
+        // Cluster centers (used by the clustered and city-dense layouts)
+        int[] centerXs = new int[clusterCount];
+        int[] centerYs = new int[clusterCount];
+        for (int k = 0; k < clusterCount; k++) {
+            centerXs[k] = random.nextInt(squareSide);
+            centerYs[k] = random.nextInt(squareSide);
+        }
+
+        // Cumulative priority weights
+        double totalWeight = priorityWeights[0] + priorityWeights[1] + priorityWeights[2];
+        double highThreshold = priorityWeights[0] / totalWeight;
+        double mediumThreshold = (priorityWeights[0] + priorityWeights[1]) / totalWeight;
+
+        sink.section("Cities:");
+        long totalDemand = 0;
+        int[] point = new int[2];
+        for (int i = 0; i < cityCount; i++) {
+            switch (layout) {
+                case UNIFORM:
+                    uniformPoint(random, squareSide, point);
+                    break;
+                case CLUSTERED:
+                    clusteredPoint(random, squareSide, centerXs, centerYs, deviation, point);
+                    break;
+                default: // CITY_DENSE: dense cores, a tenth of the clustered spread
+                    clusteredPoint(random, squareSide, centerXs, centerYs, deviation / 10, point);
+                    break;
+            }
+            int cityDemand = demand.sample(random);
+            totalDemand += cityDemand;
+            double p = random.nextDouble();
+            int priority = p < highThreshold ? 0 : p < mediumThreshold ? 1 : 2;
+            sink.city(letters(i), i + 1, point[0], point[1], cityDemand, priority);
+        }
+
+        sink.section("");
+        sink.section("Warehouses:");
+        double scale = capacityRatio > 0 && warehouses > 0 && capacity.mean() > 0
+                ? capacityRatio * totalDemand / (warehouses * capacity.mean()) : 1;
+        for (int j = 0; j < warehouses; j++) {
+            if (layout == Layout.CLUSTERED) {
+                clusteredPoint(random, squareSide, centerXs, centerYs, deviation, point);
+            } else {
+                uniformPoint(random, squareSide, point);
+            }
+            int warehouseCapacity = (int) Math.min(Integer.MAX_VALUE, Math.round(capacity.sample(random) * scale));
+            sink.warehouse("W" + (j + 1), cityCount + 1 + j, point[0], point[1], warehouseCapacity);
+        }
+    }
+
+    private static void uniformPoint(Random random, int side, int[] point) {
+        point[0] = random.nextInt(side);
+        point[1] = random.nextInt(side);
+    }
+
+    /**
+     * Draws a point around a random center, with a normal offset, kept inside the square.
+     */
+    private static void clusteredPoint(Random random, int side, int[] centerXs, int[] centerYs, double deviation, int[] point) {
+        int k = random.nextInt(centerXs.length);
+        point[0] = clamp(Math.round(centerXs[k] + random.nextGaussian() * deviation), side);
+        point[1] = clamp(Math.round(centerYs[k] + random.nextGaussian() * deviation), side);
+    }
+
+    private static int clamp(long value, int side) {
+        return (int) Math.max(0, Math.min(side - 1, value));
+    }
+
+    /**
+     * Names cities like the test cases: A, B, ..., Z, AA, AB, ...
+     */
+    static String letters(int index) {
+        StringBuilder name = new StringBuilder();
+        for (long n = index + 1L; n > 0; n = (n - 1) / 26) {
+            name.append((char) ('A' + (n - 1) % 26));
+        }
+        return name.reverse().toString();
+    }
+
+    /**
+     * A distribution of non-negative integer values (demands, capacities).
+     */
+    public static class Distribution {
+        private final String kind;
+        private final double a, b;
+
+        private Distribution(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        /**
+         * Parses uniform:MIN:MAX, normal:MEAN:STDDEV, exponential:MEAN or constant:VALUE.
+         *
+         * @param spec the specification
+         * @return the distribution
+         */
+        public static Distribution parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                switch (parts[0]) {
+                    case "uniform":
+                        if (parts.length == 3 && Double.parseDouble(parts[1]) <= Double.parseDouble(parts[2])) {
+                            return new Distribution("uniform", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                        }
+                        break;
+                    case "normal":
+                        if (parts.length == 3) return new Distribution("normal", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                        break;
+                    case "exponential":
+                        if (parts.length == 2) return new Distribution("exponential", Double.parseDouble(parts[1]), 0);
+                        break;
+                    case "constant":
+                        if (parts.length == 2) return new Distribution("constant", Double.parseDouble(parts[1]), 0);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid distribution: " + spec
+                    + " (expected uniform:MIN:MAX, normal:MEAN:STDDEV, exponential:MEAN or constant:VALUE)");
+        }
+
+        /**
+         * Draws a value, rounded and clamped to [0, Integer.MAX_VALUE].
+         */
+        int sample(Random random) {
+            double value;
+            switch (kind) {
+                case "uniform": value = a + random.nextDouble() * (b - a); break;
+                case "normal": value = a + random.nextGaussian() * b; break;
+                case "exponential": value = -a * Math.log(1 - random.nextDouble()); break;
+                default: value = a; break;
+            }
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(value)));
+        }
+
+        /**
+         * The mean of the distribution (before rounding and clamping).
+         */
+        double mean() {
+            return kind.equals("uniform") ? (a + b) / 2 : a;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+// NetworkListener.java
+
+/**
+ * The NetworkListener interface receives the events of the network computations: the
+ * allocations made to every city, the transfers between warehouses, and the merges of
+ * clusters. Reporting them is what used to be done with System.out.println in the middle
+ * of the computations; with a listener, the output is opt-in and can be moved off the
+ * critical path (see ConsoleEventSink).
+ *
+ * Every method has an empty default implementation, and NONE is the listener used when
+ * nobody listens, so the computations never check for null.
+ *
+ * Methods:
+ *   {onCityAllocation(City)}: A city starts being served.
+ *   {onAllocation(City, Warehouse, int)}: Units of a warehouse were allocated to a city.
+ *   {onRevocation(City, Warehouse, int)}: An allocation was taken back from a city.
+ *   {onTransfer(Transfer)}: Units were transferred between two warehouses.
+ *   {onMerge(int, int, int)}: The clusters of two cities were merged.
+ */
+public interface NetworkListener extends DynamicResourceSharing.MergeListener {
+    /**
+     * The listener that ignores every event.
+     */
+    NetworkListener NONE = new NetworkListener() { };
+
+    /**
+     * Called when the allocation starts serving a city, before its allocations.
+     *
+     * @param city the city being served
+     */
+    default void onCityAllocation(EmergencySupplyNetwork.City city) {
+    }
+
+    /**
+     * Called for every allocation of units from a warehouse to a city.
+     *
+     * @param city      the city served
+     * @param warehouse the warehouse the units come from
+     * @param units     the number of units allocated
+     */
+    default void onAllocation(EmergencySupplyNetwork.City city, EmergencySupplyNetwork.Warehouse warehouse, int units) {
+    }
+
+    /**
+     * Called for every allocation taken back from a city (see AllocationState.revokeWarehouse).
+     *
+     * @param city      the city that was served
+     * @param warehouse the warehouse the units came from
+     * @param units     the number of units of the allocation
+     */
+    default void onRevocation(EmergencySupplyNetwork.City city, EmergencySupplyNetwork.Warehouse warehouse, int units) {
+    }
+
+    /**
+     * Called for every transfer of the resource redistribution.
+     *
+     * @param transfer the transfer performed
+     */
+    default void onTransfer(ResourceRedistribution.Transfer transfer) {
+    }
+
+    @Override
+    default void onMerge(int cityId1, int cityId2, int clusterId) {
+    }
+}
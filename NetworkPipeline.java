@@ -0,0 +1,365 @@
+// NetworkPipeline.java
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The NetworkPipeline class loads a network on the dense cost matrix with the parsing, the
+ * costs and the warehouse ranking overlapped, instead of running them one after the other
+ * (InputParser, then DenseCostMatrix, then WarehouseRanking on the first allocation).
+ *
+ * The costs of a city only need the warehouses, so the warehouses are parsed first: the
+ * last "Warehouses:" header is found from the end of the file, and its section is parsed on
+ * its own. Then one thread parses the city lines, window by window (see MappedInputParser),
+ * and hands every window as a batch to a bounded queue, while worker threads take the
+ * batches and compute their cost rows and warehouse rankings. The queue bounds the parsed
+ * batches waiting for a worker, so a fast parser never holds more than a few windows of
+ * the file. Once the last batch is done, the batches are assembled in the order of the file:
+ * the network is the same as the one InputParser and the dense constructor would give, with
+ * its ranking already computed.
+ *
+ * The allocation itself cannot start before the last city is parsed, as it serves the
+ * cities by priority over the whole network. Files of another layout (a warehouse section
+ * before the cities, cities after the last warehouse section, no warehouses, or a binary
+ * network file) are loaded sequentially, with the same result.
+ *
+ * Methods:
+ *   {load(String, int, int)}: Loads a network, overlapping the parsing, costs and ranking.
+ */
+public class NetworkPipeline {
+    private static final int WINDOW_SIZE = 4 << 20; // Bytes of city lines parsed per batch
+    private static final int QUEUE_CAPACITY = 4; // Parsed batches waiting for a worker
+    private static final Batch END = new Batch(-1, 0, null); // Tells a worker that the parsing is over
+
+    /**
+     * A window of city lines: its cities, then their costs and rankings once a worker is done.
+     */
+    private static class Batch {
+        final int index; // Position of the batch in the file
+        final int firstCity; // Index of its first city in the network
+        final NetworkColumns columns;
+        List<EmergencySupplyNetwork.City> cities;
+        Rows costs;
+        int[][] rankings;
+        long candidatesRanked;
+        long comparisons;
+
+        Batch(int index, int firstCity, NetworkColumns columns) {
+            this.index = index;
+            this.firstCity = firstCity;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Thrown by the parser when the file does not have the layout of the pipeline.
+     */
+    private static class LayoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LayoutException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Loads the network of a file on the dense cost matrix, with the warehouse ranking of
+     * every city computed. The parsing of the cities is overlapped with the costs and
+     * rankings of the cities already parsed.
+     *
+     * @param filePath the path to the input file
+     * @param depth    the number of cheapest warehouses ranked per city, or 0 to rank all of them
+     * @param threads  the number of worker threads computing the costs and rankings
+     * @return the network, as InputParser and the dense constructor would build it
+     * @throws IOException If an I/O error occurs while reading the file.
+     * @throws IllegalArgumentException If a parameter is invalid or the dense cost matrix is too large.
+     */
+    public static EmergencySupplyNetwork load(String filePath, int depth, int threads) throws IOException {
+        if (depth < 0) {
+            throw new IllegalArgumentException("The ranking depth must not be negative: " + depth);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is needed: " + threads);
+        }
+        if (NetworkBinaryFormat.isBinary(Paths.get(filePath))) {
+            return loadSequentially(filePath, depth);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long header = MappedInputParser.findLastWarehousesHeader(channel);
+            if (header < 0) {
+                return loadSequentially(filePath, depth);
+            }
+            // The warehouse section first: the cities are costed as soon as they are parsed
+            NetworkColumns tail = MappedInputParser.parse(channel, header, channel.size(), WINDOW_SIZE, null, filePath);
+            if (tail.cityCount() > 0 || tail.warehouseCount() == 0) {
+                return loadSequentially(filePath, depth);
+            }
+            List<EmergencySupplyNetwork.Warehouse> warehouses = tail.toWarehouses();
+            List<Batch> batches = run(channel, header, filePath, warehouses, depth, threads);
+            if (batches == null) {
+                return loadSequentially(filePath, depth);
+            }
+            return assemble(batches, warehouses, depth);
+        }
+    }
+
+    /**
+     * Loads the network without overlapping anything, for the layouts the pipeline does not handle.
+     */
+    private static EmergencySupplyNetwork loadSequentially(String filePath, int depth) throws IOException {
+        InputParser.ParsedData data = InputParser.parseInput(filePath);
+        EmergencySupplyNetwork network = new EmergencySupplyNetwork(data.cities, data.warehouses);
+        network.setRankingDepth(depth);
+        network.getWarehouseRanking().rankAll();
+        return network;
+    }
+
+    /**
+     * Parses the cities of [0, end) on a parser thread and costs and ranks them on the workers.
+     *
+     * @return the batches, in no particular order, or null if the file has warehouses before the cities
+     */
+    private static List<Batch> run(FileChannel channel, long end, String filePath,
+                                   List<EmergencySupplyNetwork.Warehouse> warehouses, int depth, int threads)
+            throws IOException {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<Throwable> failure = new AtomicReference<>(); // First error of any thread
+        List<Batch> done = Collections.synchronizedList(new ArrayList<>());
+        int[] warehouseXs = new int[warehouses.size()];
+        int[] warehouseYs = new int[warehouses.size()];
+        for (int j = 0; j < warehouses.size(); j++) {
+            warehouseXs[j] = warehouses.get(j).x;
+            warehouseYs[j] = warehouses.get(j).y;
+        }
+
+        Thread parser = new Thread(() -> {
+            int[] next = new int[2]; // Index of the next batch, index of its first city
+            try {
+                MappedInputParser.parse(channel, 0, end, WINDOW_SIZE, columns -> {
+                    if (columns.warehouseCount() > 0) {
+                        throw new LayoutException("Warehouses before the cities");
+                    }
+                    if (columns.cityCount() == 0 || failure.get() != null) return;
+                    if ((long) next[1] + columns.cityCount() > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Too many cities for the dense cost matrix");
+                    }
+                    put(queue, new Batch(next[0]++, next[1], columns));
+                    next[1] += columns.cityCount();
+                }, filePath);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                for (int k = 0; k < threads; k++) {
+                    put(queue, END);
+                }
+            }
+        }, "network-parser");
+
+        Thread[] workers = new Thread[threads];
+        for (int k = 0; k < threads; k++) {
+            workers[k] = new Thread(() -> {
+                Batch batch;
+                while ((batch = take(queue)) != END) {
+                    if (failure.get() != null) continue; // Drain the queue so that the parser never blocks
+                    try {
+                        compute(batch, warehouseXs, warehouseYs, depth);
+                        done.add(batch);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "network-costs-" + k);
+        }
+
+        parser.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            parser.join();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + filePath, e);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof LayoutException) return null;
+        if (error instanceof IOException) throw (IOException) error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+        return done;
+    }
+
+    /**
+     * Computes the cities, cost rows and rankings of a batch.
+     */
+    private static void compute(Batch batch, int[] warehouseXs, int[] warehouseYs, int depth) {
+        int cityCount = batch.columns.cityCount(), warehouseCount = warehouseXs.length;
+        if ((long) cityCount * warehouseCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A dense cost matrix of " + ((long) cityCount * warehouseCount)
+                    + " cells per batch does not fit in one array, use a sparse cost provider");
+        }
+        double[] costs = new double[cityCount * warehouseCount];
+        for (int i = 0; i < cityCount; i++) {
+            int x = batch.columns.cityX(i), y = batch.columns.cityY(i);
+            int offset = i * warehouseCount;
+            for (int j = 0; j < warehouseCount; j++) {
+                costs[offset + j] = EmergencySupplyNetwork.transportationCost(x, y, warehouseXs[j], warehouseYs[j]);
+            }
+        }
+        batch.costs = new Rows(cityCount, warehouseCount, costs);
+        WarehouseRanking ranking = new WarehouseRanking(batch.costs, depth).rankAll();
+        batch.rankings = new int[cityCount][];
+        for (int i = 0; i < cityCount; i++) {
+            batch.rankings[i] = ranking.rank(i);
+        }
+        batch.candidatesRanked = ranking.getCandidatesRanked();
+        batch.comparisons = ranking.getComparisons();
+        batch.cities = batch.columns.toCities();
+    }
+
+    /**
+     * Builds the network from the batches, put back in the order of the file.
+     */
+    private static EmergencySupplyNetwork assemble(List<Batch> batches, List<EmergencySupplyNetwork.Warehouse> warehouses,
+                                                   int depth) {
+        batches.sort(Comparator.comparingInt(batch -> batch.index));
+        int cityCount = 0;
+        for (Batch batch : batches) {
+            cityCount += batch.cities.size();
+        }
+        List<EmergencySupplyNetwork.City> cities = new ArrayList<>(cityCount);
+        Rows[] blocks = new Rows[batches.size()];
+        int[] firstCities = new int[batches.size()];
+        int[][] rankings = new int[cityCount][];
+        long candidatesRanked = 0, comparisons = 0;
+        for (int b = 0; b < batches.size(); b++) {
+            Batch batch = batches.get(b);
+            cities.addAll(batch.cities);
+            blocks[b] = batch.costs;
+            firstCities[b] = batch.firstCity;
+            System.arraycopy(batch.rankings, 0, rankings, batch.firstCity, batch.rankings.length);
+            candidatesRanked += batch.candidatesRanked;
+            comparisons += batch.comparisons;
+        }
+        CostProvider costs = new BlockCostMatrix(cityCount, warehouses.size(), blocks, firstCities);
+        EmergencySupplyNetwork network = new EmergencySupplyNetwork(cities, warehouses, costs);
+        network.setWarehouseRanking(new WarehouseRanking(costs, depth, rankings, candidatesRanked, comparisons));
+        return network;
+    }
+
+    private static void put(BlockingQueue<Batch> queue, Batch batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing over a batch", e);
+        }
+    }
+
+    private static Batch take(BlockingQueue<Batch> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+
+    /**
+     * The dense cost rows of the cities of one batch, row-major as in DenseCostMatrix.
+     */
+    private static class Rows implements CostProvider {
+        private final int cityCount;
+        private final int warehouseCount;
+        private final double[] costs; // costs[cityIndex * warehouseCount + warehouseIndex]
+        private final int[] allWarehouses;
+
+        Rows(int cityCount, int warehouseCount, double[] costs) {
+            this.cityCount = cityCount;
+            this.warehouseCount = warehouseCount;
+            this.costs = costs;
+            this.allWarehouses = new int[warehouseCount];
+            for (int j = 0; j < warehouseCount; j++) {
+                this.allWarehouses[j] = j;
+            }
+        }
+
+        @Override
+        public int cityCount() {
+            return cityCount;
+        }
+
+        @Override
+        public int warehouseCount() {
+            return warehouseCount;
+        }
+
+        @Override
+        public double cost(int cityIndex, int warehouseIndex) {
+            return costs[cityIndex * warehouseCount + warehouseIndex];
+        }
+
+        @Override
+        public int[] candidates(int cityIndex) {
+            return allWarehouses;
+        }
+    }
+
+    /**
+     * The dense cost matrix of the network, kept as the rows of its batches (no copy into
+     * one array, which would double the memory at the end of the load).
+     */
+    private static class BlockCostMatrix implements CostProvider {
+        private final int cityCount;
+        private final int warehouseCount;
+        private final Rows[] blocks;
+        private final int[] firstCities; // Index of the first city of each block
+        private final int[] blockOfCity; // Block holding the row of each city
+        private final int[] allWarehouses;
+
+        BlockCostMatrix(int cityCount, int warehouseCount, Rows[] blocks, int[] firstCities) {
+            this.cityCount = cityCount;
+            this.warehouseCount = warehouseCount;
+            this.blocks = blocks;
+            this.firstCities = firstCities;
+            this.blockOfCity = new int[cityCount];
+            for (int b = 0; b < blocks.length; b++) {
+                Arrays.fill(blockOfCity, firstCities[b], firstCities[b] + blocks[b].cityCount(), b);
+            }
+            this.allWarehouses = new int[warehouseCount];
+            for (int j = 0; j < warehouseCount; j++) {
+                this.allWarehouses[j] = j;
+            }
+        }
+
+        @Override
+        public int cityCount() {
+            return cityCount;
+        }
+
+        @Override
+        public int warehouseCount() {
+            return warehouseCount;
+        }
+
+        @Override
+        public double cost(int cityIndex, int warehouseIndex) {
+            int b = blockOfCity[cityIndex];
+            return blocks[b].cost(cityIndex - firstCities[b], warehouseIndex);
+        }
+
+        @Override
+        public int[] candidates(int cityIndex) {
+            return allWarehouses;
+        }
+    }
+}
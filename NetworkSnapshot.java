@@ -0,0 +1,199 @@
+// NetworkSnapshot.java
+import java.util.*;
+
+/**
+ * The NetworkSnapshot class is an immutable view of a network, taken once and shared by any
+ * number of allocation runs: the demands and capacities of the cities and warehouses (copied
+ * into primitive arrays at the time of the snapshot), the cost provider, the completed
+ * warehouse ranking of every city and the priority order in which the cities are served.
+ *
+ * allocateResources() consumes its input: it writes into City.demand and
+ * Warehouse.remainingCapacity, so a second scenario used to require parsing the file again.
+ * A run on a snapshot works on an AllocationState instead, which only holds the remaining
+ * demands and capacities as int[] and the allocations made. Creating a state copies two
+ * arrays, never the object graph, and since nothing in the snapshot changes after its
+ * construction, states of the same snapshot can be allocated concurrently from several
+ * threads (each state itself being used by one thread at a time).
+ *
+ * The City and Warehouse objects are only used for their IDs, names, coordinates and
+ * priorities, and as the keys and warehouses of the allocations; later changes of their
+ * demand or remaining capacity do not affect the snapshot.
+ *
+ * Methods:
+ *   {NetworkSnapshot(EmergencySupplyNetwork)}: Takes the snapshot of a network.
+ *   {newState()}: Creates an allocation state with the demands and capacities of the snapshot.
+ *   {cityCount(), warehouseCount()}: Return the size of the network.
+ *   {getCity(int), getWarehouse(int)}: Return a city or a warehouse by index.
+ *   {getDemand(int), getCapacity(int)}: Return the demand of a city or the capacity of a warehouse.
+ *   {getCities(), getWarehouses()}: Return the (unmodifiable) lists of cities and warehouses.
+ *   {getCostProvider(), getWarehouseRanking()}: Return the shared cost structures.
+ *   {getCityOrdering()}: Returns the ordering of the cities of the same priority.
+ */
+public class NetworkSnapshot {
+    private final List<EmergencySupplyNetwork.City> cities;
+    private final List<EmergencySupplyNetwork.Warehouse> warehouses;
+    private final int[] demands; // Demand of each city when the snapshot was taken
+    private final int[] capacities; // Capacity of each warehouse
+    private final CostProvider costProvider;
+    private final WarehouseRanking ranking; // Completed, so that it is only read
+    private final CityOrdering ordering; // Order of the cities of the same priority
+    private final int[] order; // City indices in allocation order (by priority, from HIGH to LOW)
+
+    /**
+     * Takes the snapshot of a network: its current city demands, its warehouse capacities,
+     * its costs and its warehouse ranking, which is completed for every city (this is the
+     * expensive part, done once for all the runs).
+     *
+     * @param network the network
+     */
+    public NetworkSnapshot(EmergencySupplyNetwork network) {
+        this.cities = Collections.unmodifiableList(new ArrayList<>(network.getCities()));
+        this.warehouses = Collections.unmodifiableList(new ArrayList<>(network.getWarehouses()));
+        this.demands = new int[cities.size()];
+        for (int i = 0; i < demands.length; i++) {
+            demands[i] = cities.get(i).demand;
+        }
+        this.capacities = new int[warehouses.size()];
+        for (int j = 0; j < capacities.length; j++) {
+            capacities[j] = warehouses.get(j).capacity;
+        }
+        this.costProvider = network.getCostProvider();
+        this.ranking = network.getWarehouseRanking().rankAll();
+        this.ordering = network.getCityOrdering();
+        this.order = network.allocationOrder();
+    }
+
+    /**
+     * Creates an allocation state with the demands and capacities of the snapshot, and no
+     * allocation yet.
+     *
+     * @return a new allocation state
+     */
+    public AllocationState newState() {
+        return new AllocationState(this);
+    }
+
+    /**
+     * Returns the number of cities.
+     *
+     * @return the number of cities
+     */
+    public int cityCount() {
+        return demands.length;
+    }
+
+    /**
+     * Returns the number of warehouses.
+     *
+     * @return the number of warehouses
+     */
+    public int warehouseCount() {
+        return capacities.length;
+    }
+
+    /**
+     * Returns a city by index.
+     *
+     * @param i the index of the city
+     * @return the city
+     */
+    public EmergencySupplyNetwork.City getCity(int i) {
+        return cities.get(i);
+    }
+
+    /**
+     * Returns a warehouse by index.
+     *
+     * @param j the index of the warehouse
+     * @return the warehouse
+     */
+    public EmergencySupplyNetwork.Warehouse getWarehouse(int j) {
+        return warehouses.get(j);
+    }
+
+    /**
+     * Returns the demand of a city when the snapshot was taken.
+     *
+     * @param i the index of the city
+     * @return the demand of the city
+     */
+    public int getDemand(int i) {
+        return demands[i];
+    }
+
+    /**
+     * Returns the capacity of a warehouse.
+     *
+     * @param j the index of the warehouse
+     * @return the capacity of the warehouse
+     */
+    public int getCapacity(int j) {
+        return capacities[j];
+    }
+
+    /**
+     * Returns the cities, in the order used to index the costs.
+     *
+     * @return the unmodifiable list of cities
+     */
+    public List<EmergencySupplyNetwork.City> getCities() {
+        return cities;
+    }
+
+    /**
+     * Returns the warehouses, in the order used to index the costs.
+     *
+     * @return the unmodifiable list of warehouses
+     */
+    public List<EmergencySupplyNetwork.Warehouse> getWarehouses() {
+        return warehouses;
+    }
+
+    /**
+     * Returns the cost provider of the network.
+     *
+     * @return the cost provider
+     */
+    public CostProvider getCostProvider() {
+        return costProvider;
+    }
+
+    /**
+     * Returns the warehouse ranking of the network, completed for every city.
+     *
+     * @return the warehouse ranking
+     */
+    public WarehouseRanking getWarehouseRanking() {
+        return ranking;
+    }
+
+    /**
+     * Returns the ordering of the cities of the same priority, taken from the network.
+     *
+     * @return the city ordering
+     */
+    public CityOrdering getCityOrdering() {
+        return ordering;
+    }
+
+    /**
+     * Returns the city indices in allocation order. The array is shared and must not be modified.
+     */
+    int[] allocationOrder() {
+        return order;
+    }
+
+    /**
+     * Copies the demands of the cities (for a new state).
+     */
+    int[] copyDemands() {
+        return demands.clone();
+    }
+
+    /**
+     * Copies the capacities of the warehouses (for a new state).
+     */
+    int[] copyCapacities() {
+        return capacities.clone();
+    }
+}
@@ -0,0 +1,368 @@
+// OnlineResourceSharing.java
+import java.util.*;
+
+/**
+ * The OnlineResourceSharing class maintains the clusters of DynamicResourceSharing while the
+ * allocations change: links between a city and a warehouse can be added and removed at any
+ * time (a warehouse going offline, a city served again from other warehouses...), and the
+ * cluster queries always answer for the current links, without rebuilding anything.
+ *
+ * The clusters are the groups of cities served by exactly the same set of warehouses (see
+ * shareResources and mergeSharedResources): an equivalence between the warehouse sets of the
+ * cities, not the connectivity of a graph. Removing a link thus never has to look for another
+ * path between two cities, as a general dynamic connectivity structure would: it only moves
+ * the city from the group of its old set to the group of its new one, and the clusters it
+ * leaves behind stay whole. So every update is exact and costs O(k), k being the number of
+ * warehouses of the city, plus one expected O(1) hash lookup:
+ *
+ *   1. The warehouses of every city are a sorted int[], with the number of links of each
+ *      (a city may be allocated twice from the same warehouse, and keeps it until both
+ *      allocations are removed).
+ *   2. The hash of a set is the sum of a 64-bit mix of its warehouse IDs, which does not
+ *      depend on the order and is updated in O(1) when a warehouse comes in or goes out.
+ *   3. The groups are found by hash; groups of different sets with the same hash are
+ *      chained and told apart by comparing the sets.
+ *   4. The members of a group form a doubly linked list (int[] next and prev), so a city
+ *      joins or leaves a group in O(1). The cluster ID is the city ID of the oldest member.
+ *
+ * When built from a mapping, the cities join their groups in the order of the mapping, so
+ * the cluster IDs are the ones of mergeSharedResources on the cities in that order. A city
+ * without any warehouse is in the cluster of the cities without any warehouse, as with an
+ * empty list in DynamicResourceSharing.
+ *
+ * The class is a NetworkListener: given to AllocationState.allocate and revokeWarehouse,
+ * it follows the links of the allocations as they are made and taken back.
+ *
+ * Methods:
+ *   {OnlineResourceSharing(Map)}: Builds the clusters of the given city-to-warehouse mapping.
+ *   {addLink(int, int)}: Adds a link between a city and a warehouse.
+ *   {removeLink(int, int)}: Removes a link between a city and a warehouse.
+ *   {find(int)}: Returns the cluster ID of a city.
+ *   {areInSameCluster(int, int)}: Determines if two cities are in the same cluster.
+ *   {getClusterSize(int)}: Returns the number of cities in the cluster of a city.
+ *   {getClusterCount()}: Returns the number of clusters.
+ *   {members(int)}: Returns the IDs of the cities in the cluster of a city.
+ *   {getWarehouses(int)}: Returns the IDs of the warehouses of a city.
+ */
+public class OnlineResourceSharing implements NetworkListener {
+    private static final int[] NONE = new int[0];
+
+    private final int[] cityIds; // Index -> city ID
+    private final DynamicResourceSharing.IdIndex indexOf; // City ID -> index
+
+    // Links of every city index: sorted warehouse IDs, number of links of each, set hash
+    private final int[][] warehousesOf;
+    private final int[][] linksOf;
+    private final long[] hashOf;
+
+    // Groups (clusters) and their members
+    private final int[] groupOf; // Group of each city index
+    private final int[] next, prev; // Members of a group, from the oldest: -1 at the ends
+    private int[] head = new int[16], tail = new int[16], size = new int[16]; // Of each group
+    private int[] sameHash = new int[16]; // Next group with the same hash, -1 at the end
+    private final Map<Long, Integer> groupOfHash = new HashMap<>(); // First group of each set hash
+    private int[] freeGroups = new int[16]; // Group numbers of the empty groups, to reuse
+    private int freeCount;
+    private int groupCount; // Group numbers used so far (empty ones included)
+    private int clusterCount; // Non-empty groups
+
+    /**
+     * Builds the clusters of the given city-to-warehouse mapping: every city joins the group
+     * of its set of warehouses, in the iteration order of the mapping.
+     *
+     * @param cityToWarehouses A map where the key is a city ID and the value is a list of warehouse IDs associated with that city (or null for none).
+     */
+    public OnlineResourceSharing(Map<Integer, List<Integer>> cityToWarehouses) {
+        int n = cityToWarehouses.size();
+        cityIds = new int[n];
+        indexOf = new DynamicResourceSharing.IdIndex(n);
+        warehousesOf = new int[n][];
+        linksOf = new int[n][];
+        hashOf = new long[n];
+        groupOf = new int[n];
+        next = new int[n];
+        prev = new int[n];
+
+        int index = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : cityToWarehouses.entrySet()) {
+            cityIds[index] = entry.getKey();
+            indexOf.put(entry.getKey(), index);
+            warehousesOf[index] = NONE;
+            linksOf[index] = NONE;
+            if (entry.getValue() != null) {
+                for (int warehouseId : entry.getValue()) {
+                    link(index, warehouseId);
+                }
+            }
+            join(index);
+            index++;
+        }
+    }
+
+    /**
+     * Adds a link between a city and a warehouse. If the city did not have the warehouse,
+     * it moves to the cluster of its new set of warehouses.
+     *
+     * @param cityId      the ID of the city
+     * @param warehouseId the ID of the warehouse
+     * @return true if the set of warehouses of the city changed
+     * @throws IllegalArgumentException if the city is not part of the mapping
+     */
+    public boolean addLink(int cityId, int warehouseId) {
+        int i = index(cityId);
+        leave(i);
+        boolean changed = link(i, warehouseId);
+        join(i);
+        return changed;
+    }
+
+    /**
+     * Removes a link between a city and a warehouse. If it was the last link of the city to
+     * the warehouse, the city moves to the cluster of its new set of warehouses.
+     *
+     * @param cityId      the ID of the city
+     * @param warehouseId the ID of the warehouse
+     * @return true if the set of warehouses of the city changed
+     * @throws IllegalArgumentException if the city is not part of the mapping, or not linked to the warehouse
+     */
+    public boolean removeLink(int cityId, int warehouseId) {
+        int i = index(cityId);
+        int[] warehouses = warehousesOf[i];
+        int p = Arrays.binarySearch(warehouses, warehouseId);
+        if (p < 0) {
+            throw new IllegalArgumentException("City " + cityId + " is not linked to warehouse " + warehouseId);
+        }
+        if (--linksOf[i][p] > 0) {
+            return false; // Still linked
+        }
+        leave(i);
+        int[] links = linksOf[i];
+        int[] newWarehouses = new int[warehouses.length - 1];
+        int[] newLinks = new int[warehouses.length - 1];
+        System.arraycopy(warehouses, 0, newWarehouses, 0, p);
+        System.arraycopy(warehouses, p + 1, newWarehouses, p, warehouses.length - p - 1);
+        System.arraycopy(links, 0, newLinks, 0, p);
+        System.arraycopy(links, p + 1, newLinks, p, links.length - p - 1);
+        warehousesOf[i] = newWarehouses;
+        linksOf[i] = newLinks;
+        hashOf[i] -= mix(warehouseId);
+        join(i);
+        return true;
+    }
+
+    @Override
+    public void onAllocation(EmergencySupplyNetwork.City city, EmergencySupplyNetwork.Warehouse warehouse, int units) {
+        addLink(city.id, warehouse.id);
+    }
+
+    @Override
+    public void onRevocation(EmergencySupplyNetwork.City city, EmergencySupplyNetwork.Warehouse warehouse, int units) {
+        removeLink(city.id, warehouse.id);
+    }
+
+    /**
+     * Returns the cluster ID of a city: the ID of the oldest city of its cluster.
+     *
+     * @param cityId the ID of the city
+     * @return the cluster ID
+     */
+    public int find(int cityId) {
+        return cityIds[head[groupOf[index(cityId)]]];
+    }
+
+    /**
+     * Determines if two cities are in the same cluster, that is, if they are currently
+     * linked to the same set of warehouses.
+     *
+     * @param cityId1 the ID of the first city
+     * @param cityId2 the ID of the second city
+     * @return true if both cities are in the same cluster, false otherwise
+     */
+    public boolean areInSameCluster(int cityId1, int cityId2) {
+        return groupOf[index(cityId1)] == groupOf[index(cityId2)];
+    }
+
+    /**
+     * Returns the number of cities in the cluster of the given city.
+     *
+     * @param cityId the ID of the city
+     * @return the size of the cluster of the city
+     */
+    public int getClusterSize(int cityId) {
+        return size[groupOf[index(cityId)]];
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of clusters
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Returns the IDs of the cities in the cluster of a city (the city included), from the
+     * oldest member.
+     *
+     * @param cityId the ID of the city
+     * @return the IDs of the members of its cluster
+     */
+    public int[] members(int cityId) {
+        int group = groupOf[index(cityId)];
+        int[] ids = new int[size[group]];
+        int m = 0;
+        for (int i = head[group]; i >= 0; i = next[i]) {
+            ids[m++] = cityIds[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the IDs of the warehouses currently linked to a city, sorted.
+     *
+     * @param cityId the ID of the city
+     * @return the warehouse IDs
+     */
+    public int[] getWarehouses(int cityId) {
+        return warehousesOf[index(cityId)].clone();
+    }
+
+    /**
+     * Adds a link to the warehouses of a city (the city must not be in a group).
+     *
+     * @return true if the warehouse is new to the city
+     */
+    private boolean link(int i, int warehouseId) {
+        int[] warehouses = warehousesOf[i];
+        int p = Arrays.binarySearch(warehouses, warehouseId);
+        if (p >= 0) {
+            linksOf[i][p]++;
+            return false;
+        }
+        p = -p - 1;
+        int[] links = linksOf[i];
+        int[] newWarehouses = new int[warehouses.length + 1];
+        int[] newLinks = new int[warehouses.length + 1];
+        System.arraycopy(warehouses, 0, newWarehouses, 0, p);
+        System.arraycopy(warehouses, p, newWarehouses, p + 1, warehouses.length - p);
+        System.arraycopy(links, 0, newLinks, 0, p);
+        System.arraycopy(links, p, newLinks, p + 1, links.length - p);
+        newWarehouses[p] = warehouseId;
+        newLinks[p] = 1;
+        warehousesOf[i] = newWarehouses;
+        linksOf[i] = newLinks;
+        hashOf[i] += mix(warehouseId);
+        return true;
+    }
+
+    /**
+     * Puts a city at the end of the group of its set of warehouses, creating the group if needed.
+     */
+    private void join(int i) {
+        Long hash = hashOf[i];
+        Integer first = groupOfHash.get(hash);
+        int group = -1;
+        for (int g = first == null ? -1 : first; g >= 0; g = sameHash[g]) {
+            if (Arrays.equals(warehousesOf[head[g]], warehousesOf[i])) {
+                group = g;
+                break;
+            }
+        }
+        if (group < 0) {
+            group = newGroup();
+            sameHash[group] = first == null ? -1 : first;
+            groupOfHash.put(hash, group);
+            clusterCount++;
+        }
+
+        groupOf[i] = group;
+        next[i] = -1;
+        prev[i] = tail[group];
+        if (tail[group] >= 0) {
+            next[tail[group]] = i;
+        } else {
+            head[group] = i;
+        }
+        tail[group] = i;
+        size[group]++;
+    }
+
+    /**
+     * Takes a city out of its group, dropping the group if it becomes empty.
+     */
+    private void leave(int i) {
+        int group = groupOf[i];
+        if (prev[i] >= 0) next[prev[i]] = next[i];
+        else head[group] = next[i];
+        if (next[i] >= 0) prev[next[i]] = prev[i];
+        else tail[group] = prev[i];
+        if (--size[group] > 0) return;
+
+        // Unchain the empty group from the groups of its hash
+        Long hash = hashOf[i];
+        int first = groupOfHash.get(hash);
+        if (first == group) {
+            if (sameHash[group] >= 0) groupOfHash.put(hash, sameHash[group]);
+            else groupOfHash.remove(hash);
+        } else {
+            int g = first;
+            while (sameHash[g] != group) {
+                g = sameHash[g];
+            }
+            sameHash[g] = sameHash[group];
+        }
+        if (freeCount == freeGroups.length) {
+            freeGroups = Arrays.copyOf(freeGroups, freeCount * 2);
+        }
+        freeGroups[freeCount++] = group;
+        clusterCount--;
+    }
+
+    /**
+     * Returns an empty group: a free one, or a new one.
+     */
+    private int newGroup() {
+        int group;
+        if (freeCount > 0) {
+            group = freeGroups[--freeCount];
+        } else {
+            if (groupCount == head.length) {
+                int capacity = groupCount * 2;
+                head = Arrays.copyOf(head, capacity);
+                tail = Arrays.copyOf(tail, capacity);
+                size = Arrays.copyOf(size, capacity);
+                sameHash = Arrays.copyOf(sameHash, capacity);
+            }
+            group = groupCount++;
+        }
+        head[group] = -1;
+        tail[group] = -1;
+        size[group] = 0;
+        return group;
+    }
+
+    /**
+     * Returns the index of a city ID.
+     *
+     * @throws IllegalArgumentException if the city is not part of the mapping
+     */
+    private int index(int cityId) {
+        int i = indexOf.get(cityId);
+        if (i < 0) {
+            throw new IllegalArgumentException("Unknown city ID: " + cityId);
+        }
+        return i;
+    }
+
+    /**
+     * Mixes a warehouse ID into 64 bits (the finalizer of SplitMix64), so that the sums of
+     * different sets rarely collide.
+     */
+    private static long mix(int warehouseId) {
+        long z = warehouseId * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,304 @@
+// ParallelTierAllocator.java
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelTierAllocator class computes exactly the allocation of the greedy
+ * EmergencySupplyNetwork.allocateResources(), serving independent cities concurrently.
+ *
+ * The greedy serves the HIGH, then the MEDIUM, then the LOW priority cities, one at a time.
+ * Two cities of the same tier only influence each other through the warehouses they both
+ * draw from, and only if such a warehouse can run out during the tier: a warehouse whose
+ * remaining capacity covers the demand of all the cities of the tier that rank it is never
+ * exhausted, so whatever the order, each of them takes from it exactly what it still needs.
+ * Such warehouses are "uncontended". The others are "contended".
+ *
+ * So each tier is allocated in three steps:
+ *   1. The cities of the tier are partitioned by contended warehouse overlap (union-find:
+ *      two cities ranking the same contended warehouse are in the same component).
+ *   2. The components are allocated in parallel on a ForkJoinPool, each one sequentially in
+ *      the greedy order. A contended warehouse belongs to a single component, so its
+ *      remaining capacity is updated directly. An uncontended warehouse is only read (its
+ *      capacity is enough for everyone), the units taken from it are recorded.
+ *   3. The units taken from the uncontended warehouses are subtracted, and the listener of
+ *      the network is notified of every allocation, both in the greedy order on the calling
+ *      thread, so that the events are the ones of the sequential allocation.
+ * The next tier starts from the capacities left by the previous one.
+ *
+ * The result (allocations, City.demand, Warehouse.remainingCapacity) is the one of the
+ * sequential greedy, whatever the number of threads. The parallelism depends on the costs:
+ * with the dense cost matrix every city ranks every warehouse, so a tier usually forms a
+ * single component and is allocated sequentially; with a sparse cost graph or a ranking
+ * depth (--nearest=K), cities far apart rarely share a contended warehouse.
+ *
+ * Methods:
+ *   {ParallelTierAllocator(EmergencySupplyNetwork)}: Creates the allocator for a network.
+ *   {allocate()}: Allocates on the common pool.
+ *   {allocate(ForkJoinPool)}: Allocates on the given pool.
+ */
+public class ParallelTierAllocator {
+    // Components with less ranked warehouses than this in total are allocated by one task
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private final EmergencySupplyNetwork network;
+
+    /**
+     * Creates a parallel allocator for the given network.
+     *
+     * @param network the network whose cities and warehouses are allocated
+     */
+    public ParallelTierAllocator(EmergencySupplyNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * Allocates the resources like allocateResources(), in parallel on the common pool.
+     *
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects representing the resources allocated to that city.
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocate() {
+        return allocate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Allocates the resources like allocateResources(), in parallel on the given pool.
+     *
+     * @param pool the pool the components are allocated on
+     * @return A map where the key is a City object and the value is a list of ResourceAllocation objects representing the resources allocated to that city.
+     */
+    public Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocate(ForkJoinPool pool) {
+        List<EmergencySupplyNetwork.City> cities = network.getCities();
+        List<EmergencySupplyNetwork.Warehouse> warehouses = network.getWarehouses();
+        WarehouseRanking ranking = network.getWarehouseRanking();
+        NetworkListener listener = network.getListener();
+
+        // Initialize remaining capacity of warehouses
+        for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
+            warehouse.remainingCapacity = warehouse.capacity;
+        }
+
+        // The greedy order, in which the tiers are contiguous
+        int[] order = network.allocationOrder();
+        // Allocations of each city, by city index (null until served); the tasks only set the slots of their cities
+        List<List<EmergencySupplyNetwork.ResourceAllocation>> cityAllocations = new ArrayList<>(Collections.nCopies(cities.size(), null));
+        boolean[] contended = new boolean[warehouses.size()];
+        long[] tierDemand = new long[warehouses.size()];
+        int[] owner = new int[warehouses.size()];
+
+        int tierStart = 0;
+        while (tierStart < order.length) {
+            EmergencySupplyNetwork.Priority priority = cities.get(order[tierStart]).priority;
+            int tierEnd = tierStart + 1;
+            while (tierEnd < order.length && cities.get(order[tierEnd]).priority == priority) {
+                tierEnd++;
+            }
+            int[] tier = Arrays.copyOfRange(order, tierStart, tierEnd);
+            Tier components = partition(tier, cities, warehouses, ranking, contended, tierDemand, owner);
+            pool.invoke(new ComponentTask(components, 0, components.count, cities, warehouses, ranking, contended, cityAllocations));
+
+            // Apply the uncontended allocations and report the tier, in the greedy order
+            for (int cityIndex : tier) {
+                EmergencySupplyNetwork.City city = cities.get(cityIndex);
+                listener.onCityAllocation(city);
+                if (cityAllocations.get(cityIndex) == null) continue;
+                // The allocations follow the ranking of the city, so both are walked together
+                int[] ranked = ranking.rank(cityIndex);
+                int r = 0;
+                for (EmergencySupplyNetwork.ResourceAllocation allocation : cityAllocations.get(cityIndex)) {
+                    while (warehouses.get(ranked[r]) != allocation.warehouse) r++;
+                    if (!contended[ranked[r]]) {
+                        allocation.warehouse.remainingCapacity -= allocation.units;
+                    }
+                    listener.onAllocation(city, allocation.warehouse, allocation.units);
+                }
+            }
+            tierStart = tierEnd;
+        }
+
+        // sort the allocations by city id for consistent output
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations =
+                new TreeMap<>((c1, c2) -> Integer.compare(c1.id, c2.id));
+        for (int i = 0; i < cities.size(); i++) {
+            if (cityAllocations.get(i) != null) {
+                allocations.put(cities.get(i), cityAllocations.get(i));
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * Finds the contended warehouses of a tier and groups its cities into independent
+     * components, each one keeping the greedy order of its cities.
+     */
+    private static Tier partition(int[] tier, List<EmergencySupplyNetwork.City> cities,
+                                  List<EmergencySupplyNetwork.Warehouse> warehouses, WarehouseRanking ranking,
+                                  boolean[] contended, long[] tierDemand, int[] owner) {
+        // Demand of the tier on each warehouse (the rankings are computed here, on the calling thread)
+        Arrays.fill(tierDemand, 0);
+        for (int cityIndex : tier) {
+            int[] ranked = ranking.rank(cityIndex); // Computed for every city, before the tasks read it
+            int demand = cities.get(cityIndex).demand;
+            if (demand == 0) continue;
+            for (int w : ranked) {
+                tierDemand[w] += demand;
+            }
+        }
+        for (int w = 0; w < contended.length; w++) {
+            int remaining = warehouses.get(w).remainingCapacity;
+            contended[w] = remaining > 0 && remaining < tierDemand[w];
+        }
+
+        // Union the cities sharing a contended warehouse (positions in the tier, union by size)
+        int[] parent = new int[tier.length];
+        int[] size = new int[tier.length];
+        Arrays.fill(owner, -1);
+        for (int p = 0; p < tier.length; p++) {
+            parent[p] = p;
+            size[p] = 1;
+            if (cities.get(tier[p]).demand == 0) continue;
+            for (int w : ranking.rank(tier[p])) {
+                if (!contended[w]) continue;
+                if (owner[w] < 0) {
+                    owner[w] = p;
+                } else {
+                    int root1 = find(parent, owner[w]), root2 = find(parent, p);
+                    if (root1 != root2) {
+                        if (size[root1] < size[root2]) {
+                            int swap = root1; root1 = root2; root2 = swap;
+                        }
+                        parent[root2] = root1;
+                        size[root1] += size[root2];
+                    }
+                }
+            }
+        }
+
+        // Number the components in the order of their first city, then bucket the cities (stable)
+        int[] componentOf = new int[tier.length];
+        int[] componentOfRoot = new int[tier.length];
+        Arrays.fill(componentOfRoot, -1);
+        int count = 0;
+        for (int p = 0; p < tier.length; p++) {
+            int root = find(parent, p);
+            if (componentOfRoot[root] < 0) {
+                componentOfRoot[root] = count++;
+            }
+            componentOf[p] = componentOfRoot[root];
+        }
+        Tier components = new Tier(count, tier.length);
+        for (int p = 0; p < tier.length; p++) {
+            components.start[componentOf[p] + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            components.start[c + 1] += components.start[c];
+        }
+        int[] next = Arrays.copyOf(components.start, count);
+        for (int p = 0; p < tier.length; p++) {
+            components.cities[next[componentOf[p]]++] = tier[p];
+        }
+        return components;
+    }
+
+    /**
+     * Finds the root of a position, halving the path on the way.
+     */
+    private static int find(int[] parent, int p) {
+        while (parent[p] != p) {
+            parent[p] = parent[parent[p]];
+            p = parent[p];
+        }
+        return p;
+    }
+
+    /**
+     * The components of a tier: the cities of component c are cities[start[c]..start[c + 1]).
+     */
+    private static class Tier {
+        final int count;
+        final int[] start;
+        final int[] cities;
+
+        Tier(int count, int cityCount) {
+            this.count = count;
+            this.start = new int[count + 1];
+            this.cities = new int[cityCount];
+        }
+    }
+
+    /**
+     * Allocates a range of components, splitting it while it is large enough.
+     */
+    private static class ComponentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Tier tier;
+        private final int from, to; // Range of components
+        private final List<EmergencySupplyNetwork.City> cities;
+        private final List<EmergencySupplyNetwork.Warehouse> warehouses;
+        private final WarehouseRanking ranking;
+        private final boolean[] contended;
+        private final List<List<EmergencySupplyNetwork.ResourceAllocation>> cityAllocations;
+
+        ComponentTask(Tier tier, int from, int to, List<EmergencySupplyNetwork.City> cities,
+                      List<EmergencySupplyNetwork.Warehouse> warehouses, WarehouseRanking ranking,
+                      boolean[] contended, List<List<EmergencySupplyNetwork.ResourceAllocation>> cityAllocations) {
+            this.tier = tier;
+            this.from = from;
+            this.to = to;
+            this.cities = cities;
+            this.warehouses = warehouses;
+            this.ranking = ranking;
+            this.contended = contended;
+            this.cityAllocations = cityAllocations;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && work() > SEQUENTIAL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ComponentTask(tier, from, mid, cities, warehouses, ranking, contended, cityAllocations),
+                          new ComponentTask(tier, mid, to, cities, warehouses, ranking, contended, cityAllocations));
+                return;
+            }
+            for (int n = tier.start[from]; n < tier.start[to]; n++) {
+                allocateCity(tier.cities[n]);
+            }
+        }
+
+        /**
+         * Estimates the work of the range: the number of ranked warehouses of its cities.
+         */
+        private long work() {
+            long work = 0;
+            for (int n = tier.start[from]; n < tier.start[to] && work <= SEQUENTIAL_THRESHOLD; n++) {
+                work += ranking.rank(tier.cities[n]).length;
+            }
+            return work;
+        }
+
+        /**
+         * Serves one city like the greedy. Only the contended warehouses are updated here.
+         */
+        private void allocateCity(int cityIndex) {
+            EmergencySupplyNetwork.City city = cities.get(cityIndex);
+            for (int w : ranking.rank(cityIndex)) {
+                // If city demand is already met, stop allocating
+                if (city.demand == 0) break;
+
+                EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(w);
+                if (warehouse.remainingCapacity > 0) {
+                    int allocatedUnits = Math.min(city.demand, warehouse.remainingCapacity); // Allocate the minimum of the two
+                    if (cityAllocations.get(cityIndex) == null) {
+                        cityAllocations.set(cityIndex, new ArrayList<>());
+                    }
+                    cityAllocations.get(cityIndex).add(new EmergencySupplyNetwork.ResourceAllocation(warehouse, allocatedUnits));
+                    if (contended[w]) {
+                        warehouse.remainingCapacity -= allocatedUnits; // Only this component uses the warehouse
+                    }
+                    city.demand -= allocatedUnits; // Update demand of the city
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+// PipelineBenchmark.java
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The PipelineBenchmark class measures every stage of the NetworkApp pipeline on synthetic
+ * networks of increasing size, so that an optimization (or a regression) of any stage shows
+ * up as a number:
+ *
+ *   parse              InputParser.parseInput on the generated input file
+ *   parse-binary       NetworkBinaryFormat.read of the same network saved in the binary format
+ *   cost-matrix        The dense cost matrix (calculateCostMatrix), when it fits in memory
+ *   cost-cache         CostMatrixCache.open of the unchanged network (mapping the cached matrix)
+ *   allocate           EmergencySupplyNetwork.allocateResources
+ *   redistribute       ResourceRedistribution.redistributeResources
+ *   sharing-merge      DynamicResourceSharing: constructor and mergeSharedResources (union)
+ *   sharing-find       DynamicResourceSharing.find on every city
+ *   sharing-clusters   DynamicResourceSharing.getClusters
+ *   json-map           JsonUtils.mapToJson of the allocations and capacities
+ *   json-stream        The same document written by JsonStreamWriter
+ *
+ * Usage: java PipelineBenchmark [--sizes=10,100,...] [--warmup=N] [--iterations=N] [--stages=a,b,...] [--seed=S]
+ *
+ *   --sizes       numbers of cities (default 10 to 1,000,000 by powers of 10); there is one
+ *                 warehouse per 10 cities, between 5 and 1000
+ *   --warmup      untimed runs of each stage before measuring (default 2)
+ *   --iterations  timed runs of each stage (default 5)
+ *   --stages      only run the given stages (default all)
+ *   --seed        seed of the synthetic networks (default 42)
+ *
+ * The networks are uniform random networks from NetworkGenerator, written in the text format of
+ * TestCase2.txt to a temporary file and parsed back, so the parse stage reads real input. Every timed run starts from a fresh state (demands
+ * and capacities are restored by an untimed setup). When the dense matrix would exceed
+ * DENSE_CELL_LIMIT cells, the allocation runs on the sparse graph of the NEAREST_WAREHOUSES
+ * nearest warehouses instead, and the cost-matrix stage is skipped.
+ *
+ * This is a plain harness (System.nanoTime, warmup runs, median of the timed runs) rather
+ * than JMH, which is not part of this build; use a large heap for the largest sizes.
+ */
+public class PipelineBenchmark {
+    private static final long DENSE_CELL_LIMIT = 50_000_000L; // 400 MB of doubles
+    private static final int NEAREST_WAREHOUSES = 10;
+    private static final String[] ALL_STAGES = {"parse", "parse-binary", "cost-matrix", "cost-cache", "allocate", "redistribute",
+            "sharing-merge", "sharing-find", "sharing-clusters", "json-map", "json-stream"};
+
+    private static volatile long sink; // Consumes the results so that the work cannot be optimized away
+
+    /**
+     * A step of a benchmark, the timed part or its setup.
+     */
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private final int warmup;
+    private final int iterations;
+    private final Set<String> stages;
+
+    private PipelineBenchmark(int warmup, int iterations, Set<String> stages) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.stages = stages;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10, 100, 1_000, 10_000, 100_000, 1_000_000};
+        int warmup = 2;
+        int iterations = 5;
+        Set<String> stages = new LinkedHashSet<>(Arrays.asList(ALL_STAGES));
+        long seed = 42;
+        for (String arg : args) {
+            if (arg.startsWith("--sizes=")) {
+                String[] parts = arg.substring("--sizes=".length()).split(",");
+                sizes = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    sizes[i] = Integer.parseInt(parts[i].trim().replace("_", ""));
+                }
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--stages=")) {
+                stages = new LinkedHashSet<>(Arrays.asList(arg.substring("--stages=".length()).split(",")));
+                Set<String> unknown = new LinkedHashSet<>(stages);
+                unknown.removeAll(Arrays.asList(ALL_STAGES));
+                if (!unknown.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown stages " + unknown + ", expected some of " + Arrays.toString(ALL_STAGES));
+                }
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("At least one iteration is needed");
+        }
+
+        PipelineBenchmark benchmark = new PipelineBenchmark(warmup, iterations, stages);
+        System.out.printf("%-10s %-10s %-18s %12s %12s %12s%n", "Cities", "Warehouses", "Stage", "Median (ms)", "Min (ms)", "Max (ms)");
+        for (int size : sizes) {
+            benchmark.run(size, Math.max(5, Math.min(1000, size / 10)), seed);
+        }
+    }
+
+    /**
+     * Runs the selected stages on one synthetic network.
+     */
+    private void run(int cityCount, int warehouseCount, long seed) throws Exception {
+        Path input = Files.createTempFile("network-" + cityCount + "-", ".txt");
+        try {
+            new NetworkGenerator().setCities(cityCount).setWarehouses(warehouseCount).setSeed(seed).write(input);
+
+            // Parse
+            // The result of each stage is held in an AtomicReference, set by the measured steps
+            AtomicReference<InputParser.ParsedData> parsed = new AtomicReference<>();
+            measure(cityCount, warehouseCount, "parse", () -> { }, () -> {
+                parsed.set(InputParser.parseInput(input.toString()));
+                sink += parsed.get().cities.size();
+            });
+            if (parsed.get() == null) {
+                parsed.set(InputParser.parseInput(input.toString()));
+            }
+            if (stages.contains("parse-binary")) {
+                Path binary = Files.createTempFile("network-" + cityCount + "-", NetworkBinaryFormat.EXTENSION);
+                try {
+                    NetworkBinaryFormat.write(binary, MappedInputParser.parse(input.toString()), null, null);
+                    measure(cityCount, warehouseCount, "parse-binary", () -> { }, () -> {
+                        sink += NetworkBinaryFormat.read(binary).network.cityCount();
+                    });
+                } finally {
+                    Files.deleteIfExists(binary);
+                }
+            }
+            List<EmergencySupplyNetwork.City> cities = parsed.get().cities;
+            List<EmergencySupplyNetwork.Warehouse> warehouses = parsed.get().warehouses;
+            int[] demands = new int[cities.size()];
+            for (int i = 0; i < demands.length; i++) {
+                demands[i] = cities.get(i).demand;
+            }
+
+            // Cost matrix
+            boolean dense = (long) cityCount * warehouseCount <= DENSE_CELL_LIMIT;
+            if (dense) {
+                measure(cityCount, warehouseCount, "cost-matrix", () -> { }, () -> {
+                    sink += Double.doubleToLongBits(DenseCostMatrix.compute(cities, warehouses).cost(0, 0));
+                });
+            } else if (stages.contains("cost-matrix")) {
+                System.out.printf("%-10d %-10d %-18s %12s%n", cityCount, warehouseCount, "cost-matrix", "skipped (too large)");
+            }
+            if (dense && stages.contains("cost-cache")) {
+                Path cache = Files.createTempFile("costs-" + cityCount + "-", ".bin");
+                try {
+                    CostMatrixCache.open(cache, cities, warehouses); // Written once, then every run is a hit
+                    measure(cityCount, warehouseCount, "cost-cache", () -> { }, () -> {
+                        sink += Double.doubleToLongBits(CostMatrixCache.open(cache, cities, warehouses).cost(0, 0));
+                    });
+                } finally {
+                    Files.deleteIfExists(cache);
+                }
+            }
+            CostProvider costs = dense ? DenseCostMatrix.compute(cities, warehouses)
+                    : SpatialCostGraph.nearest(cities, warehouses, NEAREST_WAREHOUSES);
+
+            // Allocation (nobody listens to the allocation events, so nothing is printed)
+            AtomicReference<EmergencySupplyNetwork> network = new AtomicReference<>();
+            Step resetAllocation = () -> {
+                for (int i = 0; i < demands.length; i++) {
+                    cities.get(i).demand = demands[i];
+                }
+                network.set(new EmergencySupplyNetwork(cities, warehouses, costs));
+            };
+            AtomicReference<Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>>> allocations = new AtomicReference<>();
+            measure(cityCount, warehouseCount, dense ? "allocate" : "allocate (k=" + NEAREST_WAREHOUSES + ")", resetAllocation, () -> {
+                allocations.set(network.get().allocateResources());
+                sink += allocations.get().size();
+            }, "allocate");
+            if (allocations.get() == null) {
+                resetAllocation.run();
+                allocations.set(network.get().allocateResources());
+            }
+            int[] remaining = new int[warehouses.size()];
+            for (int j = 0; j < remaining.length; j++) {
+                remaining[j] = warehouses.get(j).remainingCapacity;
+            }
+
+            // Redistribution (from the capacities left by the allocation)
+            AtomicReference<ResourceRedistribution> redistribution = new AtomicReference<>();
+            measure(cityCount, warehouseCount, "redistribute", () -> {
+                for (int j = 0; j < remaining.length; j++) {
+                    warehouses.get(j).remainingCapacity = remaining[j];
+                }
+                redistribution.set(new ResourceRedistribution(warehouses));
+            }, () -> sink += redistribution.get().redistributeResources().size());
+
+            // Dynamic resource sharing, on the warehouses of each city's allocations
+            Map<Integer, List<Integer>> cityToWarehouses = new HashMap<>();
+            List<Integer> cityIds = new ArrayList<>(cities.size());
+            for (EmergencySupplyNetwork.City city : cities) {
+                List<Integer> warehouseIds = new ArrayList<>();
+                List<EmergencySupplyNetwork.ResourceAllocation> cityAllocations = allocations.get().get(city);
+                if (cityAllocations != null) {
+                    for (EmergencySupplyNetwork.ResourceAllocation allocation : cityAllocations) {
+                        warehouseIds.add(allocation.warehouse.id);
+                    }
+                }
+                cityToWarehouses.put(city.id, warehouseIds);
+                cityIds.add(city.id);
+            }
+            AtomicReference<DynamicResourceSharing> sharing = new AtomicReference<>();
+            measure(cityCount, warehouseCount, "sharing-merge", () -> { }, () -> {
+                sharing.set(new DynamicResourceSharing(cityToWarehouses));
+                sharing.get().mergeSharedResources(cityIds, null);
+                sink += sharing.get().getClusterCount();
+            });
+            if (sharing.get() == null) {
+                sharing.set(new DynamicResourceSharing(cityToWarehouses));
+                sharing.get().mergeSharedResources(cityIds, null);
+            }
+            measure(cityCount, warehouseCount, "sharing-find", () -> { }, () -> {
+                long sum = 0;
+                for (int cityId : cityIds) {
+                    sum += sharing.get().find(cityId);
+                }
+                sink += sum;
+            });
+            measure(cityCount, warehouseCount, "sharing-clusters", () -> { }, () -> sink += sharing.get().getClusters().size());
+
+            // JSON output of the allocations and remaining capacities
+            measure(cityCount, warehouseCount, "json-map", () -> { }, () -> {
+                sink += JsonUtils.mapToJson(allocationDocument(allocations.get(), warehouses), 4).length();
+            });
+            measure(cityCount, warehouseCount, "json-stream", () -> { }, () -> {
+                try (JsonStreamWriter json = new JsonStreamWriter(OutputStream.nullOutputStream(), 4)) {
+                    json.value(allocationDocument(allocations.get(), warehouses));
+                }
+            });
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    private void measure(int cityCount, int warehouseCount, String stage, Step setup, Step timed) throws Exception {
+        measure(cityCount, warehouseCount, stage, setup, timed, stage);
+    }
+
+    /**
+     * Runs the warmup and timed iterations of a stage and prints its median, min and max times.
+     *
+     * @param label the name printed for the stage
+     * @param stage the name used to select the stage
+     */
+    private void measure(int cityCount, int warehouseCount, String label, Step setup, Step timed, String stage) throws Exception {
+        if (!stages.contains(stage)) return;
+        for (int i = 0; i < warmup; i++) {
+            setup.run();
+            timed.run();
+        }
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            setup.run();
+            long start = System.nanoTime();
+            timed.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-10d %-10d %-18s %12.3f %12.3f %12.3f%n", cityCount, warehouseCount, label,
+                times[iterations / 2] / 1e6, times[0] / 1e6, times[iterations - 1] / 1e6);
+    }
+
+    /**
+     * Builds the "Task 1 and 2" part of the NetworkApp document, without the cost matrix.
+     */
+    private static Map<String, Object> allocationDocument(
+            Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations,
+            List<EmergencySupplyNetwork.Warehouse> warehouses) {
+        List<Object> allocationArray = new ArrayList<>();
+        for (Map.Entry<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> entry : allocations.entrySet()) {
+            Map<String, Object> thisAllocation = new LinkedHashMap<>();
+            thisAllocation.put("City", entry.getKey().name);
+            thisAllocation.put("Priority", entry.getKey().priority.name());
+            List<Object> allocs = new ArrayList<>();
+            for (EmergencySupplyNetwork.ResourceAllocation allocation : entry.getValue()) {
+                Map<String, Object> thisAlloc = new LinkedHashMap<>();
+                thisAlloc.put("Units", allocation.units);
+                thisAlloc.put("Warehouse", "Warehouse " + allocation.warehouse.id);
+                allocs.add(thisAlloc);
+            }
+            thisAllocation.put("Allocated", allocs);
+            allocationArray.add(thisAllocation);
+        }
+        Map<String, Object> remCap = new LinkedHashMap<>();
+        for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
+            remCap.put("Warehouse " + warehouse.id, warehouse.remainingCapacity);
+        }
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("Resource Allocation", allocationArray);
+        document.put("Remaining Capacities", remCap);
+        return document;
+    }
+}
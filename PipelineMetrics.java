@@ -0,0 +1,268 @@
+// PipelineMetrics.java
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The PipelineMetrics class measures a run of the pipeline (parse, costs, allocation,
+ * redistribution, clustering, output), stage by stage: the wall time, the bytes allocated
+ * and the number of items processed by each stage, plus named counters of the work done
+ * inside the algorithms (comparisons of the warehouse ranking, heap operations of the
+ * redistribution, find steps of the clustering...).
+ *
+ * The stages run one after the other: start(name) begins a stage (ending the previous one),
+ * and end(items) ends it. A stage started again under the same name accumulates. The
+ * allocated bytes are read from com.sun.management.ThreadMXBean when the JVM supports it,
+ * and only count the thread that runs the stages (the work of a ForkJoinPool is not
+ * included); they are -1 otherwise. The counters are set from the getters of the algorithms
+ * at the end of their stage, so the algorithms only increment plain long fields.
+ *
+ * The metrics are written as a json document (see writeJson), and can be registered as an
+ * MXBean, so that jconsole or any JMX client can follow a long run while it happens.
+ *
+ * Methods:
+ *   {start(String)}: Starts a stage, ending the current one.
+ *   {end(long)}: Ends the current stage with the number of items it processed.
+ *   {count(String, long)}: Adds to a counter.
+ *   {getStageMillis(String), getCounter(String)}: Return a measure.
+ *   {writeJson(OutputStream)}: Writes the metrics as json.
+ *   {register(), unregister()}: Expose or hide the metrics through JMX.
+ */
+public class PipelineMetrics {
+    /**
+     * The name under which the metrics are registered in the platform MBean server.
+     */
+    public static final String OBJECT_NAME = "EmergencySupplyNetwork:type=PipelineMetrics";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The metrics as seen from JMX: the current stage and the measures of every stage, by name.
+     */
+    public interface MetricsMXBean {
+        String getCurrentStage();
+
+        long getElapsedMillis();
+
+        Map<String, Long> getStageMillis();
+
+        Map<String, Long> getStageAllocatedBytes();
+
+        Map<String, Long> getStageItems();
+
+        Map<String, Long> getCounters();
+    }
+
+    /**
+     * The measures of a stage, accumulated over its runs.
+     */
+    private static class Stage {
+        long nanos;
+        long allocatedBytes;
+        long items;
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new LinkedHashMap<>(); // In the order they first ran
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private String current; // Name of the running stage, null between stages
+    private long currentStart; // System.nanoTime() at the start of the running stage
+    private long currentBytes; // Allocated bytes of the thread at the start of the running stage
+    private ObjectName registered; // Name in the MBean server, null when not registered
+
+    /**
+     * Starts a stage, ending the current one (with no item) if there is one.
+     *
+     * @param name the name of the stage
+     */
+    public synchronized void start(String name) {
+        if (current != null) {
+            end(0);
+        }
+        current = Objects.requireNonNull(name);
+        currentBytes = allocatedBytes();
+        currentStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current stage.
+     *
+     * @param items the number of items (cities, allocations, transfers...) processed by the stage
+     * @throws IllegalStateException If no stage is running.
+     */
+    public synchronized void end(long items) {
+        if (current == null) {
+            throw new IllegalStateException("No stage is running");
+        }
+        long nanos = System.nanoTime() - currentStart;
+        long bytes = allocatedBytes();
+        Stage stage = stages.computeIfAbsent(current, name -> new Stage());
+        stage.nanos += nanos;
+        stage.allocatedBytes = bytes < 0 || stage.allocatedBytes < 0 ? -1 : stage.allocatedBytes + bytes - currentBytes;
+        stage.items += items;
+        current = null;
+    }
+
+    /**
+     * Adds to a counter, creating it at 0 if needed.
+     *
+     * @param name  the name of the counter
+     * @param value the value to add
+     */
+    public synchronized void count(String name, long value) {
+        counters.merge(name, value, Long::sum);
+    }
+
+    /**
+     * Returns the wall time of a stage, in milliseconds.
+     *
+     * @param name the name of the stage
+     * @return the wall time of the stage, 0 if it never ended
+     */
+    public synchronized double getStageMillis(String name) {
+        Stage stage = stages.get(name);
+        return stage == null ? 0 : stage.nanos / 1e6;
+    }
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param name the name of the counter
+     * @return the value of the counter, 0 if it was never counted
+     */
+    public synchronized long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    /**
+     * Writes the metrics as a json document: the total wall time, the stages in the order
+     * they first ran (wall time in milliseconds, allocated bytes and items) and the counters.
+     *
+     * @param out the stream to write to (not closed)
+     * @throws IOException If an I/O error occurs.
+     */
+    public synchronized void writeJson(OutputStream out) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(out, 4);
+        json.beginObject();
+        json.name("Total Millis").value(round((System.nanoTime() - startNanos) / 1e6));
+        json.name("Stages").beginArray();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            json.beginObject();
+            json.name("Stage").value(entry.getKey());
+            json.name("Millis").value(round(entry.getValue().nanos / 1e6));
+            json.name("Allocated Bytes").value(entry.getValue().allocatedBytes);
+            json.name("Items").value(entry.getValue().items);
+            json.endObject();
+        }
+        json.endArray();
+        json.name("Counters").beginObject();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            json.name(counter.getKey()).value(counter.getValue().longValue());
+        }
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, under OBJECT_NAME. The values read
+     * through JMX are the live ones: the running stage and the stages ended so far.
+     *
+     * @throws JMException If the metrics cannot be registered (e.g. the name is already used).
+     */
+    public synchronized void register() throws JMException {
+        if (registered != null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        server.registerMBean(new StandardMBean(new View(), MetricsMXBean.class, true), name);
+        registered = name;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they were registered.
+     *
+     * @throws JMException If the metrics cannot be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (registered == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        registered = null;
+    }
+
+    /**
+     * The MXBean view of the metrics (a class cannot implement an interface it declares).
+     */
+    private class View implements MetricsMXBean {
+        @Override
+        public String getCurrentStage() {
+            synchronized (PipelineMetrics.this) {
+                return current;
+            }
+        }
+
+        @Override
+        public long getElapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+
+        @Override
+        public Map<String, Long> getStageMillis() {
+            synchronized (PipelineMetrics.this) {
+                Map<String, Long> millis = new LinkedHashMap<>();
+                stages.forEach((name, stage) -> millis.put(name, stage.nanos / 1_000_000));
+                return millis;
+            }
+        }
+
+        @Override
+        public Map<String, Long> getStageAllocatedBytes() {
+            synchronized (PipelineMetrics.this) {
+                Map<String, Long> bytes = new LinkedHashMap<>();
+                stages.forEach((name, stage) -> bytes.put(name, stage.allocatedBytes));
+                return bytes;
+            }
+        }
+
+        @Override
+        public Map<String, Long> getStageItems() {
+            synchronized (PipelineMetrics.this) {
+                Map<String, Long> items = new LinkedHashMap<>();
+                stages.forEach((name, stage) -> items.put(name, stage.items));
+                return items;
+            }
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            synchronized (PipelineMetrics.this) {
+                return new LinkedHashMap<>(counters);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rounds a number of milliseconds to the microsecond.
+     */
+    private static double round(double millis) {
+        return Math.round(millis * 1000) / 1000.0;
+    }
+}
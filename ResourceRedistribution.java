@@ -5,27 +5,74 @@ import java.util.*;
  * The ResourceRedistribution class is responsible for managing the redistribution
  * of resources between warehouses with surplus and those in need. It uses two
  * priority queues (heaps) to categorize warehouses based on their remaining capacity.
- * 
+ *
+ * Every warehouse has two levels, given by TargetLevel policies:
+ * - its surplus level: above it, the warehouse has surplus resources to give;
+ * - its need level: below it, the warehouse needs resources.
+ * A warehouse gives down to its surplus level and receives up to its need level, so the
+ * need level can be lower than the surplus level (a band in which a warehouse neither gives
+ * nor receives) but not higher. By default both levels are 50 units for every warehouse.
+ * The levels can be fixed, proportional to the capacity, a percentile of the remaining
+ * capacities, or given per warehouse.
+ *
  * The surplusHeap is a max heap that stores warehouses with surplus resources,
- * sorted by their remaining capacity in descending order.
- * 
- * The needHeap is a min heap that stores warehouses that need resources,
- * sorted by their remaining capacity in ascending order.
- * 
- * Warehouses with a remaining capacity greater than 50 are added to the surplusHeap.
- * Warehouses with a remaining capacity less than 50 are added to the needHeap.
- * 
+ * sorted by their surplus (remaining capacity above the surplus level) in descending order.
+ *
+ * The needHeap is a max heap that stores warehouses that need resources,
+ * sorted by their need (missing capacity below the need level) in descending order.
+ * With the default levels, these are the warehouses with the most and the least remaining capacity.
+ *
  * The redistributeResources method processes the two heaps and transfers resources
  * from surplus warehouses to those in need until either heap is empty. It returns
- * a list of transfers performed during the redistribution process.
- * 
+ * a list of transfers performed during the redistribution process. The warehouse in
+ * need with the largest need is served first, from:
+ * - LARGEST_FIRST (default): the warehouse with the largest surplus, wherever it is;
+ * - COST_WEIGHTED: the cheapest to transport from (same distance-tiered cost as
+ *   EmergencySupplyNetwork) among the warehouses with the largest surpluses (see
+ *   setCandidateWindow), so that transfers preferably go to nearby warehouses;
+ * - NEAREST: the nearest warehouses with surplus, wherever they are in the surplus heap,
+ *   until its need is filled. They are found with a k-d tree over the coordinates of the
+ *   warehouses with surplus, from which a warehouse is removed when its surplus runs out.
+ *   The transport cost grows with the distance, so this is also the cheapest source.
+ * Each transfer empties a surplus or fills a need, so there are at most S + N transfers,
+ * each costing O(log n) heap operations (times the candidate window for COST_WEIGHTED,
+ * or a nearest neighbour query, O(log n) on average, for NEAREST).
+ *
  * The Transfer class represents a transfer of resources between two warehouses.
  * It contains information about the source warehouse, the destination warehouse,
  * and the number of units being transferred.
+ *
+ * Every transfer is also reported to the listener set with setListener (none by default).
+ *
+ * The remaining capacities are read from the warehouses and the transfers update them, unless
+ * the redistribution is given its own array of remaining capacities: the transfers then only
+ * update that array, and the warehouses are left untouched (see AllocationState).
  */
 public class ResourceRedistribution {
-    private PriorityQueue<EmergencySupplyNetwork.Warehouse> surplusHeap;
-    private PriorityQueue<EmergencySupplyNetwork.Warehouse> needHeap;
+    /**
+     * The level used when no policy is given, for both the surplus and the need.
+     */
+    public static final int DEFAULT_LEVEL = 50;
+
+    /**
+     * How the warehouse in need is matched with a warehouse with surplus.
+     */
+    public enum Matching {
+        LARGEST_FIRST, // The largest surplus
+        COST_WEIGHTED, // The cheapest transport among the largest surpluses
+        NEAREST // The nearest surpluses (spatial index)
+    }
+
+    private final List<EmergencySupplyNetwork.Warehouse> warehouses;
+    private final int[] remaining; // Remaining capacity of each warehouse, by index
+    private final boolean updateWarehouses; // Whether the transfers also update Warehouse.remainingCapacity
+    private final int[] surplusLevel; // Level above which each warehouse gives, by index
+    private final int[] needLevel; // Level below which each warehouse receives, by index
+    private MaxHeap surplusHeap; // Indices of the warehouses with surplus, by surplus
+    private MaxHeap needHeap; // Indices of the warehouses in need, by need
+    private Matching matching = Matching.LARGEST_FIRST;
+    private int candidateWindow = 8; // Surplus warehouses compared by COST_WEIGHTED
+    private NetworkListener listener = NetworkListener.NONE; // Receives the transfers
 
     /**
      * Constructs a ResourceRedistribution object that categorizes warehouses into
@@ -39,72 +86,495 @@ public class ResourceRedistribution {
      * The needHeap is a min heap that stores warehouses that need resources,
      * sorted by their remaining capacity in ascending order.
      *
-     * Warehouses with a remaining capacity greater than 50 are added to the surplusHeap.
+     * Warehouses with a remaining capacity greater than 50 (DEFAULT_LEVEL) are added to the surplusHeap.
      * Warehouses with a remaining capacity less than 50 are added to the needHeap.
      */
     public ResourceRedistribution(List<EmergencySupplyNetwork.Warehouse> warehouses) {
-        // Max heap for surplus warehouses (sorts by units in descending order)
-        // Here we use a subtraction through a lambda expression to reverse the order of the comparison
-        surplusHeap = new PriorityQueue<>((w1, w2) -> w2.remainingCapacity - w1.remainingCapacity);
+        this(warehouses, fixed(DEFAULT_LEVEL));
+    }
+
+    /**
+     * Constructs a ResourceRedistribution object that brings every warehouse to its target
+     * level: warehouses above it give, warehouses below it receive.
+     *
+     * @param warehouses the list of warehouses to be categorized
+     * @param target     the target level of each warehouse
+     */
+    public ResourceRedistribution(List<EmergencySupplyNetwork.Warehouse> warehouses, TargetLevel target) {
+        this(warehouses, target, target);
+    }
+
+    /**
+     * Constructs a ResourceRedistribution object with distinct need and surplus levels.
+     *
+     * @param warehouses   the list of warehouses to be categorized
+     * @param needLevel    the level below which a warehouse receives (up to that level)
+     * @param surplusLevel the level above which a warehouse gives (down to that level)
+     * @throws IllegalArgumentException if the need level of a warehouse is above its surplus level
+     */
+    public ResourceRedistribution(List<EmergencySupplyNetwork.Warehouse> warehouses, TargetLevel needLevel, TargetLevel surplusLevel) {
+        this(warehouses, remainingCapacities(warehouses), true, needLevel, surplusLevel);
+    }
+
+    /**
+     * Constructs a ResourceRedistribution object on an array of remaining capacities instead of
+     * the remaining capacities of the warehouses. The transfers update the array, and the
+     * warehouses (only used for their IDs, coordinates and capacities) are not modified.
+     *
+     * @param warehouses          the list of warehouses to be categorized
+     * @param remainingCapacities the remaining capacity of each warehouse, indexed like the list
+     * @param needLevel           the level below which a warehouse receives (up to that level)
+     * @param surplusLevel        the level above which a warehouse gives (down to that level)
+     * @throws IllegalArgumentException if the array does not match the warehouses, or the need level of a warehouse is above its surplus level
+     */
+    public ResourceRedistribution(List<EmergencySupplyNetwork.Warehouse> warehouses, int[] remainingCapacities,
+                                  TargetLevel needLevel, TargetLevel surplusLevel) {
+        this(warehouses, remainingCapacities, false, needLevel, surplusLevel);
+    }
 
-        // Min heap for warehouses that need resources (sorts by units in ascending order)
-        needHeap = new PriorityQueue<>(Comparator.comparingInt(w -> w.remainingCapacity));
+    private ResourceRedistribution(List<EmergencySupplyNetwork.Warehouse> warehouses, int[] remainingCapacities, boolean updateWarehouses,
+                                   TargetLevel needLevel, TargetLevel surplusLevel) {
+        if (remainingCapacities.length != warehouses.size()) {
+            throw new IllegalArgumentException("Expected " + warehouses.size() + " remaining capacities, got " + remainingCapacities.length);
+        }
+        this.warehouses = warehouses;
+        this.remaining = remainingCapacities;
+        this.updateWarehouses = updateWarehouses;
+        this.surplusLevel = new int[warehouses.size()];
+        this.needLevel = new int[warehouses.size()];
+        for (int i = 0; i < warehouses.size(); i++) {
+            EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(i);
+            this.surplusLevel[i] = surplusLevel.level(warehouse);
+            this.needLevel[i] = needLevel.level(warehouse);
+            if (this.needLevel[i] > this.surplusLevel[i]) {
+                throw new IllegalArgumentException("The need level of Warehouse " + warehouse.id + " (" + this.needLevel[i]
+                        + ") is above its surplus level (" + this.surplusLevel[i] + ")");
+            }
+        }
+
+        // Max heap for surplus warehouses (sorts by surplus in descending order)
+        surplusHeap = new MaxHeap(warehouses.size());
+
+        // Max heap for warehouses that need resources (sorts by need in descending order,
+        // that is by remaining capacity in ascending order when the levels are the same)
+        needHeap = new MaxHeap(warehouses.size());
 
         // Categorize warehouses into surplus and need heaps
-        for (EmergencySupplyNetwork.Warehouse warehouse : warehouses) {
-            if (warehouse.remainingCapacity > 50) {
-                surplusHeap.add(warehouse);
-            } else if (warehouse.remainingCapacity < 50) {
-                needHeap.add(warehouse);
+        for (int i = 0; i < warehouses.size(); i++) {
+            if (surplus(i) > 0) {
+                surplusHeap.add(i, surplus(i));
+            } else if (need(i) > 0) {
+                needHeap.add(i, need(i));
             }
         }
     }
 
+    /**
+     * Sets the listener notified of every transfer made by redistributeResources().
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setListener(NetworkListener listener) {
+        this.listener = listener == null ? NetworkListener.NONE : listener;
+    }
+
+    /**
+     * Sets how warehouses in need are matched with warehouses with surplus.
+     *
+     * @param matching the matching (LARGEST_FIRST by default)
+     */
+    public void setMatching(Matching matching) {
+        this.matching = Objects.requireNonNull(matching);
+    }
+
+    /**
+     * Sets the number of warehouses with the largest surpluses among which COST_WEIGHTED
+     * picks the cheapest one to transport from. A larger window finds closer warehouses,
+     * and costs O(window log n) per transfer.
+     *
+     * @param window the number of candidates, at least 1
+     */
+    public void setCandidateWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The candidate window must be at least 1: " + window);
+        }
+        this.candidateWindow = window;
+    }
+
+    /**
+     * Returns the number of operations (adds and polls) made on the surplus and need heaps
+     * so far, their construction included.
+     *
+     * @return the number of heap operations
+     */
+    public long getHeapOperations() {
+        return surplusHeap.operations + needHeap.operations;
+    }
+
     /**
      * Redistributes resources between warehouses with surplus and those in need.
-     * 
+     *
      * This method processes two heaps: one containing warehouses with surplus resources
      * and another containing warehouses with resource needs. It transfers resources from
      * surplus warehouses to those in need until either heap is empty.
-     * 
+     *
      * @return a list of transfers performed during the redistribution process.
      */
     public List<Transfer> redistributeResources() {
+        if (matching == Matching.NEAREST) {
+            return redistributeNearest();
+        }
+
         // List to collect the transfers done
         List<Transfer> transfers = new ArrayList<>();
 
         while (!surplusHeap.isEmpty() && !needHeap.isEmpty()) {
-            // Get the warehouses with the most surplus and the most need
+            // Get the warehouse with the most need, and the warehouse with surplus it is served from
             // Note that poll() removes the warehouse from the heap
-            EmergencySupplyNetwork.Warehouse surplusWarehouse = surplusHeap.poll();
-            EmergencySupplyNetwork.Warehouse needWarehouse = needHeap.poll();
+            int need = needHeap.poll();
+            int surplus = matching == Matching.COST_WEIGHTED ? pollCheapestSurplus(need) : surplusHeap.poll();
+            EmergencySupplyNetwork.Warehouse surplusWarehouse = warehouses.get(surplus);
+            EmergencySupplyNetwork.Warehouse needWarehouse = warehouses.get(need);
 
             // Calculate the amount of units that can be transferred
             // The amount of units that can be transferred is the minimum
             // between the surplus that can be given and what is missing
-            int surplusCanGive = surplusWarehouse.remainingCapacity - 50;
-            int needIsMissing = 50 - needWarehouse.remainingCapacity;
-            int transferableAmount = Math.min(surplusCanGive, needIsMissing);
+            int transferableAmount = Math.min(surplus(surplus), need(need));
 
             // Update the remaining capacity of the warehouses
-            surplusWarehouse.remainingCapacity -= transferableAmount;
-            needWarehouse.remainingCapacity += transferableAmount;
+            move(surplus, need, transferableAmount);
 
             // Add the transfer to the list of transfers
-            transfers.add(new Transfer(surplusWarehouse, needWarehouse, transferableAmount));
+            Transfer transfer = new Transfer(surplusWarehouse, needWarehouse, transferableAmount);
+            transfers.add(transfer);
+            listener.onTransfer(transfer);
 
             // Add the warehouses back to their respective heaps
-            if (surplusWarehouse.remainingCapacity > 50) {
-                surplusHeap.add(surplusWarehouse);
+            if (surplus(surplus) > 0) {
+                surplusHeap.add(surplus, surplus(surplus));
+            }
+            if (need(need) > 0) {
+                needHeap.add(need, need(need));
+            }
+        }
+
+        return transfers;
+    }
+
+    /**
+     * Redistributes resources with the NEAREST matching: the warehouse with the largest need
+     * is filled from its nearest warehouses with surplus, then the next one, and so on.
+     *
+     * @return a list of transfers performed during the redistribution process.
+     */
+    private List<Transfer> redistributeNearest() {
+        List<Transfer> transfers = new ArrayList<>();
+
+        // Spatial index over the warehouses with surplus (point p is warehouse sources[p], in index order)
+        int[] sources = new int[surplusHeap.size()];
+        while (!surplusHeap.isEmpty()) {
+            sources[surplusHeap.size() - 1] = surplusHeap.poll();
+        }
+        Arrays.sort(sources);
+        int[] xs = new int[sources.length];
+        int[] ys = new int[sources.length];
+        for (int p = 0; p < sources.length; p++) {
+            xs[p] = warehouses.get(sources[p]).x;
+            ys[p] = warehouses.get(sources[p]).y;
+        }
+        KdTree index = new KdTree(xs, ys);
+
+        while (!needHeap.isEmpty() && index.size() > 0) {
+            int need = needHeap.poll();
+            EmergencySupplyNetwork.Warehouse needWarehouse = warehouses.get(need);
+
+            // Pull from the nearest warehouses with surplus until the need is filled
+            while (need(need) > 0 && index.size() > 0) {
+                int point = index.nearest(needWarehouse.x, needWarehouse.y, 1)[0];
+                int surplus = sources[point];
+                EmergencySupplyNetwork.Warehouse surplusWarehouse = warehouses.get(surplus);
+
+                int transferableAmount = Math.min(surplus(surplus), need(need));
+                move(surplus, need, transferableAmount);
+
+                Transfer transfer = new Transfer(surplusWarehouse, needWarehouse, transferableAmount);
+                transfers.add(transfer);
+                listener.onTransfer(transfer);
+
+                if (surplus(surplus) <= 0) {
+                    index.remove(point); // No surplus left to give
+                }
             }
-            if (needWarehouse.remainingCapacity < 50) {
-                needHeap.add(needWarehouse);
+            if (need(need) > 0) {
+                needHeap.add(need, need(need)); // The surplus ran out before this need was filled
             }
         }
 
+        // Keep the heaps consistent with what is left
+        for (int p = 0; p < sources.length; p++) {
+            if (index.contains(p)) {
+                surplusHeap.add(sources[p], surplus(sources[p]));
+            }
+        }
         return transfers;
     }
 
+    /**
+     * Removes from the surplus heap the cheapest warehouse to transport from among the
+     * candidateWindow largest surpluses (the largest surplus first on equal costs), and
+     * puts the other candidates back.
+     */
+    private int pollCheapestSurplus(int need) {
+        EmergencySupplyNetwork.Warehouse needWarehouse = warehouses.get(need);
+        int count = Math.min(candidateWindow, surplusHeap.size());
+        int[] candidates = new int[count];
+        int[] surpluses = new int[count];
+        int best = 0;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < count; c++) {
+            surpluses[c] = surplusHeap.peekKey();
+            candidates[c] = surplusHeap.poll();
+            EmergencySupplyNetwork.Warehouse candidate = warehouses.get(candidates[c]);
+            double cost = EmergencySupplyNetwork.transportationCost(candidate.x, candidate.y, needWarehouse.x, needWarehouse.y);
+            if (cost < bestCost) {
+                best = c;
+                bestCost = cost;
+            }
+        }
+        for (int c = 0; c < count; c++) {
+            if (c != best) {
+                surplusHeap.add(candidates[c], surpluses[c]);
+            }
+        }
+        return candidates[best];
+    }
+
+    /**
+     * Moves units from the remaining capacity of a warehouse to another's.
+     */
+    private void move(int from, int to, int units) {
+        remaining[from] -= units;
+        remaining[to] += units;
+        if (updateWarehouses) {
+            warehouses.get(from).remainingCapacity = remaining[from];
+            warehouses.get(to).remainingCapacity = remaining[to];
+        }
+    }
+
+    /**
+     * Returns the units the warehouse can give (negative or zero if none).
+     */
+    private int surplus(int index) {
+        return remaining[index] - surplusLevel[index];
+    }
+
+    /**
+     * Returns the units the warehouse is missing (negative or zero if none).
+     */
+    private int need(int index) {
+        return needLevel[index] - remaining[index];
+    }
+
+    /**
+     * Copies the remaining capacities of the warehouses into an array.
+     */
+    private static int[] remainingCapacities(List<EmergencySupplyNetwork.Warehouse> warehouses) {
+        int[] remaining = new int[warehouses.size()];
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = warehouses.get(i).remainingCapacity;
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the same level for every warehouse.
+     *
+     * @param level the level, in units
+     * @return the policy
+     */
+    public static TargetLevel fixed(int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("The level must not be negative: " + level);
+        }
+        return warehouse -> level;
+    }
+
+    /**
+     * Returns a level proportional to the capacity of each warehouse (rounded).
+     *
+     * @param fraction the fraction of the capacity, between 0 and 1
+     * @return the policy
+     */
+    public static TargetLevel proportional(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("The fraction must be between 0 and 1: " + fraction);
+        }
+        return warehouse -> (int) Math.round(fraction * warehouse.capacity);
+    }
+
+    /**
+     * Returns, for every warehouse, the given percentile of the current remaining capacities
+     * of the warehouses (nearest rank). For instance the median brings the warehouses below
+     * the median up to it, from the warehouses above it.
+     *
+     * @param warehouses the warehouses whose remaining capacities define the level
+     * @param percentile the percentile, between 0 and 100
+     * @return the policy
+     */
+    public static TargetLevel percentile(List<EmergencySupplyNetwork.Warehouse> warehouses, double percentile) {
+        return percentile(remainingCapacities(warehouses), percentile);
+    }
+
+    /**
+     * Returns, for every warehouse, the given percentile of the remaining capacities (nearest rank).
+     *
+     * @param remainingCapacities the remaining capacities that define the level (not modified)
+     * @param percentile          the percentile, between 0 and 100
+     * @return the policy
+     */
+    public static TargetLevel percentile(int[] remainingCapacities, double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100: " + percentile);
+        }
+        if (remainingCapacities.length == 0) {
+            return fixed(0);
+        }
+        int[] remaining = remainingCapacities.clone();
+        Arrays.sort(remaining);
+        int rank = (int) Math.ceil(percentile / 100 * remaining.length); // Nearest rank, 1-based
+        return fixed(Math.max(0, remaining[Math.max(rank, 1) - 1]));
+    }
+
+    /**
+     * Returns the level given for each warehouse ID, or the fallback's for the others.
+     *
+     * @param levels   the level of the warehouses, by warehouse ID
+     * @param fallback the policy of the warehouses without a level
+     * @return the policy
+     */
+    public static TargetLevel perWarehouse(Map<Integer, Integer> levels, TargetLevel fallback) {
+        Map<Integer, Integer> copy = new HashMap<>(levels);
+        return warehouse -> {
+            Integer level = copy.get(warehouse.id);
+            return level != null ? level : fallback.level(warehouse);
+        };
+    }
+
+    /**
+     * Parses a target level: "50" (units), "40%" (of the capacity) or "p50" (percentile
+     * of the remaining capacities of the given warehouses).
+     *
+     * @param spec       the level to parse
+     * @param warehouses the warehouses, for the percentile
+     * @return the policy
+     */
+    public static TargetLevel parseLevel(String spec, List<EmergencySupplyNetwork.Warehouse> warehouses) {
+        return parseLevel(spec, remainingCapacities(warehouses));
+    }
+
+    /**
+     * Parses a target level like parseLevel(String, List), the percentiles being taken over
+     * the given remaining capacities.
+     *
+     * @param spec                the level to parse
+     * @param remainingCapacities the remaining capacities, for the percentile
+     * @return the policy
+     */
+    public static TargetLevel parseLevel(String spec, int[] remainingCapacities) {
+        try {
+            if (spec.endsWith("%")) {
+                return proportional(Double.parseDouble(spec.substring(0, spec.length() - 1)) / 100);
+            } else if (spec.startsWith("p")) {
+                return percentile(remainingCapacities, Double.parseDouble(spec.substring(1)));
+            }
+            return fixed(Integer.parseInt(spec));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid target level: " + spec, e);
+        }
+    }
+
+    /**
+     * Gives the level of a warehouse, in units (the surplus or the need level).
+     */
+    public interface TargetLevel {
+        /**
+         * Returns the level of the warehouse.
+         *
+         * @param warehouse the warehouse
+         * @return the level, in units
+         */
+        int level(EmergencySupplyNetwork.Warehouse warehouse);
+    }
+
+    /**
+     * A binary max heap of warehouse indices on int keys (the surplus or the need of each
+     * warehouse, which does not change while it is in the heap). Its sift operations are those
+     * of java.util.PriorityQueue with the comparator (k1, k2) -> Integer.compare(k2, k1), so
+     * warehouses with equal keys come out in the same order as from a PriorityQueue, without
+     * boxing the indices or reading the warehouses on every comparison.
+     */
+    private static class MaxHeap {
+        private final int[] items;
+        private final int[] keys;
+        private int size;
+        private long operations; // Adds and polls
+
+        MaxHeap(int capacity) {
+            this.items = new int[capacity];
+            this.keys = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int peekKey() {
+            return keys[0];
+        }
+
+        void add(int item, int key) {
+            operations++;
+            // Sift up
+            int k = size++;
+            while (k > 0) {
+                int parent = (k - 1) >>> 1;
+                if (key <= keys[parent]) break;
+                items[k] = items[parent];
+                keys[k] = keys[parent];
+                k = parent;
+            }
+            items[k] = item;
+            keys[k] = key;
+        }
+
+        int poll() {
+            operations++;
+            int result = items[0];
+            int n = --size;
+            if (n > 0) {
+                // Sift down the last element from the root
+                int item = items[n], key = keys[n];
+                int k = 0, half = n >>> 1;
+                while (k < half) {
+                    int child = 2 * k + 1;
+                    int right = child + 1;
+                    if (right < n && keys[child] < keys[right]) child = right;
+                    if (key >= keys[child]) break;
+                    items[k] = items[child];
+                    keys[k] = keys[child];
+                    k = child;
+                }
+                items[k] = item;
+                keys[k] = key;
+            }
+            return result;
+        }
+    }
+
     /**
      * Represents a transfer of resources between two warehouses.
      */
@@ -0,0 +1,506 @@
+// ScenarioRunner.java
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The ScenarioRunner class evaluates many what-if scenarios against one base network in a
+ * single run: the network is parsed and its costs and warehouse ranking are computed once
+ * (see NetworkSnapshot), then every scenario applies its changes to its own AllocationState
+ * and runs the allocation, the redistribution and the clustering. The scenarios run in
+ * parallel, since their states share nothing but the read-only snapshot.
+ *
+ * The scenario file lists the scenarios, each one a header line followed by its changes,
+ * applied in order. Cities and warehouses are given by ID, or "*" for all of them; blank
+ * lines and lines starting with # are ignored:
+ *
+ *   Scenario Warehouse 101 destroyed:
+ *   Warehouse 101: Offline
+ *
+ *   Scenario Demand surge:
+ *   City 1: Demand = 1500
+ *   City *: Demand *= 1.2
+ *   City 3: Priority = High
+ *   Warehouse 102: Capacity += 100
+ *
+ * The changes are "Demand" and "Capacity" with =, +=, -= (down to 0) or *= (rounded),
+ * "Priority = High|Medium|Low", and "Offline", which empties a warehouse and keeps it out of
+ * the redistribution. A scenario without changes is the base network.
+ *
+ * Each scenario is summarized on one line: total and unmet demand, number of cities not
+ * fully served, transportation cost of the allocation, transfers of the redistribution and
+ * units transferred, and number of clusters of cities sharing the same warehouses.
+ *
+ * Usage: java ScenarioRunner <network> <scenarios> [options]
+ *
+ * The network is a text or binary network file, like the input of NetworkApp.
+ *
+ * Options:
+ *   --nearest=K   Only connect each city to its K nearest warehouses (sparse cost graph)
+ *   --target=L    Target level of the redistribution: "50" (units), "40%" (of capacity) or "p50" (percentile)
+ *   --matching=M  How warehouses in need are served: "largest-first" (default), "cost-weighted" or "nearest"
+ *   --tie-break=T Order of the cities of the same priority: "id" (default), "demand", "+demand" or "cost" (see CityOrdering)
+ *   --threads=N   Number of scenarios run at the same time (default: the number of processors)
+ *   --json=FILE   Also write the summaries to FILE
+ *
+ * Methods:
+ *   {ScenarioRunner(NetworkSnapshot)}: Creates a runner on the snapshot of the base network.
+ *   {parseScenarios(Path)}: Reads a scenario file.
+ *   {run(Scenario)}: Evaluates one scenario.
+ *   {runAll(List, int)}: Evaluates scenarios in parallel.
+ */
+public class ScenarioRunner {
+    private final NetworkSnapshot snapshot;
+    private final Map<Integer, Integer> cityIndex = new HashMap<>(); // City ID -> index
+    private final Map<Integer, Integer> warehouseIndex = new HashMap<>(); // Warehouse ID -> index
+    private final List<Integer> cityIds = new ArrayList<>(); // In the order of the cities, for the clustering
+    private String targetLevel; // Target level of the redistribution, DEFAULT_LEVEL when null
+    private ResourceRedistribution.Matching matching = ResourceRedistribution.Matching.LARGEST_FIRST;
+
+    /**
+     * Main method: runs the scenarios of a file against a network (see the class comment).
+     *
+     * @param args the command line arguments
+     * @throws Exception If the files cannot be read or a scenario fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java ScenarioRunner <network> <scenarios> [--nearest=K] [--target=L] [--matching=M] [--tie-break=T] [--threads=N] [--json=FILE]");
+            return;
+        }
+        int nearestWarehouses = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String targetLevel = null;
+        ResourceRedistribution.Matching matching = ResourceRedistribution.Matching.LARGEST_FIRST;
+        CityOrdering cityOrdering = CityOrdering.BY_ID;
+        String jsonPath = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--nearest=")) {
+                nearestWarehouses = Integer.parseInt(args[i].substring("--nearest=".length()));
+            } else if (args[i].startsWith("--target=")) {
+                targetLevel = args[i].substring("--target=".length());
+            } else if (args[i].startsWith("--matching=")) {
+                matching = ResourceRedistribution.Matching.valueOf(
+                        args[i].substring("--matching=".length()).toUpperCase().replace('-', '_'));
+            } else if (args[i].startsWith("--tie-break=")) {
+                cityOrdering = CityOrdering.parse(args[i].substring("--tie-break=".length()));
+            } else if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].startsWith("--json=")) {
+                jsonPath = args[i].substring("--json=".length());
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // Load the base network and compute its costs and rankings, once for all the scenarios
+        long start = System.nanoTime();
+        InputParser.ParsedData parsed = InputParser.parseInput(args[0]);
+        EmergencySupplyNetwork network = nearestWarehouses > 0
+                ? new EmergencySupplyNetwork(parsed.cities, parsed.warehouses,
+                        SpatialCostGraph.nearest(parsed.cities, parsed.warehouses, nearestWarehouses))
+                : new EmergencySupplyNetwork(parsed.cities, parsed.warehouses);
+        network.setCityOrdering(cityOrdering);
+        ScenarioRunner runner = new ScenarioRunner(network.snapshot());
+        runner.setTargetLevel(targetLevel);
+        runner.setMatching(matching);
+        List<Scenario> scenarios = parseScenarios(Paths.get(args[1]));
+        System.out.printf("Loaded %d cities and %d warehouses in %d ms, running %d scenarios on %d threads%n",
+                parsed.cities.size(), parsed.warehouses.size(), (System.nanoTime() - start) / 1_000_000, scenarios.size(), threads);
+
+        start = System.nanoTime();
+        List<Summary> summaries = runner.runAll(scenarios, threads);
+        for (Summary summary : summaries) {
+            System.out.println(summary);
+        }
+        System.out.printf("Ran %d scenarios in %d ms%n", summaries.size(), (System.nanoTime() - start) / 1_000_000);
+
+        if (jsonPath != null) {
+            try (JsonStreamWriter json = new JsonStreamWriter(new FileOutputStream(jsonPath), 4)) {
+                json.beginArray();
+                for (Summary summary : summaries) {
+                    json.value(summary.toMap());
+                }
+                json.endArray();
+            }
+            System.out.println("Summaries saved to " + jsonPath);
+        }
+    }
+
+    /**
+     * Creates a runner on the snapshot of the base network.
+     *
+     * @param snapshot the base network
+     */
+    public ScenarioRunner(NetworkSnapshot snapshot) {
+        this.snapshot = snapshot;
+        for (int i = 0; i < snapshot.cityCount(); i++) {
+            cityIndex.put(snapshot.getCity(i).id, i);
+            cityIds.add(snapshot.getCity(i).id);
+        }
+        for (int j = 0; j < snapshot.warehouseCount(); j++) {
+            warehouseIndex.put(snapshot.getWarehouse(j).id, j);
+        }
+    }
+
+    /**
+     * Sets the target level of the redistribution ("50", "40%" or "p50", see ResourceRedistribution.parseLevel).
+     * Percentiles are taken over the remaining capacities of each scenario.
+     *
+     * @param spec the target level, or null for the default level
+     */
+    public void setTargetLevel(String spec) {
+        if (spec != null) {
+            ResourceRedistribution.parseLevel(spec, new int[0]); // Fail now rather than in every scenario
+        }
+        this.targetLevel = spec;
+    }
+
+    /**
+     * Sets how warehouses in need are matched with warehouses with surplus.
+     *
+     * @param matching the matching (LARGEST_FIRST by default)
+     */
+    public void setMatching(ResourceRedistribution.Matching matching) {
+        this.matching = Objects.requireNonNull(matching);
+    }
+
+    /**
+     * Evaluates scenarios in parallel.
+     *
+     * @param scenarios the scenarios
+     * @param threads   the number of scenarios evaluated at the same time
+     * @return the summaries, in the order of the scenarios
+     * @throws InterruptedException If the thread is interrupted while waiting for the scenarios.
+     * @throws ExecutionException If a scenario fails (for instance on an unknown city ID).
+     */
+    public List<Summary> runAll(List<Scenario> scenarios, int threads) throws InterruptedException, ExecutionException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1: " + threads);
+        }
+        List<Callable<Summary>> tasks = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            check(scenario); // Report an unknown ID before running anything
+            tasks.add(() -> run(scenario));
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Summary> summaries = new ArrayList<>();
+            for (Future<Summary> summary : pool.invokeAll(tasks)) {
+                summaries.add(summary.get());
+            }
+            return summaries;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Evaluates one scenario: applies its changes to a new state of the snapshot, then runs
+     * the allocation, the redistribution and the clustering.
+     *
+     * @param scenario the scenario
+     * @return the summary of the scenario
+     */
+    public Summary run(Scenario scenario) {
+        long start = System.nanoTime();
+        AllocationState state = snapshot.newState();
+        boolean[] offline = new boolean[snapshot.warehouseCount()];
+        for (Change change : scenario.changes) {
+            apply(change, state, offline);
+        }
+        Summary summary = new Summary(scenario.name);
+        for (int i = 0; i < snapshot.cityCount(); i++) {
+            summary.demand += state.getRemainingDemand(i);
+        }
+
+        // Allocation
+        Map<EmergencySupplyNetwork.City, List<EmergencySupplyNetwork.ResourceAllocation>> allocations = state.allocate();
+        summary.unmetDemand = state.getUnmetDemand();
+        for (int i = 0; i < snapshot.cityCount(); i++) {
+            if (state.getRemainingDemand(i) > 0) summary.unservedCities++;
+        }
+        summary.cost = state.getTotalCost();
+
+        // Redistribution (the offline warehouses neither give nor receive)
+        ResourceRedistribution.TargetLevel level = targetLevel == null
+                ? ResourceRedistribution.fixed(ResourceRedistribution.DEFAULT_LEVEL)
+                : ResourceRedistribution.parseLevel(targetLevel, state.getRemainingCapacities());
+        ResourceRedistribution.TargetLevel online = warehouse -> offline[warehouseIndex.get(warehouse.id)] ? 0 : level.level(warehouse);
+        ResourceRedistribution redistribution = state.redistribution(online, online);
+        redistribution.setMatching(matching);
+        for (ResourceRedistribution.Transfer transfer : redistribution.redistributeResources()) {
+            summary.transfers++;
+            summary.transferredUnits += transfer.units;
+        }
+
+        // Clustering of the cities served by the same warehouses
+        Map<Integer, List<Integer>> cityToWarehouses = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.cityCount(); i++) {
+            EmergencySupplyNetwork.City city = snapshot.getCity(i);
+            List<Integer> warehouseIds = new ArrayList<>();
+            List<EmergencySupplyNetwork.ResourceAllocation> cityAllocations = allocations.get(city);
+            if (cityAllocations != null) {
+                for (EmergencySupplyNetwork.ResourceAllocation allocation : cityAllocations) {
+                    warehouseIds.add(allocation.warehouse.id);
+                }
+            }
+            cityToWarehouses.put(city.id, warehouseIds);
+        }
+        DynamicResourceSharing sharing = new DynamicResourceSharing(cityToWarehouses);
+        sharing.mergeSharedResources(cityIds, null);
+        summary.clusters = sharing.getClusterCount();
+
+        summary.millis = (System.nanoTime() - start) / 1e6;
+        return summary;
+    }
+
+    /**
+     * Checks that every city and warehouse of the scenario is in the network.
+     *
+     * @throws IllegalArgumentException If an ID is not in the network.
+     */
+    private void check(Scenario scenario) {
+        for (Change change : scenario.changes) {
+            if (!change.all) {
+                indices(change, change.isCity ? cityIndex : warehouseIndex, 0);
+            }
+        }
+    }
+
+    /**
+     * Applies a change to the state.
+     */
+    private void apply(Change change, AllocationState state, boolean[] offline) {
+        if (change.isCity) {
+            for (int i : indices(change, cityIndex, snapshot.cityCount())) {
+                if (change.field == Change.PRIORITY) {
+                    state.setPriority(i, change.priority);
+                } else {
+                    state.setDemand(i, change.apply(state.getRemainingDemand(i)));
+                }
+            }
+        } else {
+            for (int j : indices(change, warehouseIndex, snapshot.warehouseCount())) {
+                if (change.field == Change.OFFLINE) {
+                    state.setCapacity(j, 0);
+                    offline[j] = true;
+                } else {
+                    state.setCapacity(j, change.apply(state.getRemainingCapacity(j)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the cities or warehouses a change applies to.
+     */
+    private static int[] indices(Change change, Map<Integer, Integer> indexOfId, int count) {
+        if (change.all) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        Integer index = indexOfId.get(change.id);
+        if (index == null) {
+            throw new IllegalArgumentException((change.isCity ? "City " : "Warehouse ") + change.id
+                    + " is not in the network (line " + change.line + ")");
+        }
+        return new int[] {index};
+    }
+
+    /**
+     * Reads a scenario file (see the class comment for the format).
+     *
+     * @param path the scenario file
+     * @return the scenarios, in the order of the file
+     * @throws IOException If an I/O error occurs.
+     * @throws IllegalArgumentException If a line is not a scenario header or a change.
+     */
+    public static List<Scenario> parseScenarios(Path path) throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        Scenario current = null;
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.startsWith("Scenario ") && line.endsWith(":")) {
+                current = new Scenario(line.substring("Scenario ".length(), line.length() - 1).trim());
+                scenarios.add(current);
+            } else if (current == null) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": a change before the first scenario: " + line);
+            } else {
+                current.changes.add(Change.parse(line, lineNumber));
+            }
+        }
+        return scenarios;
+    }
+
+    /**
+     * A named list of changes to the base network.
+     */
+    public static class Scenario {
+        final String name;
+        final List<Change> changes = new ArrayList<>();
+
+        public Scenario(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "Scenario{name='" + name + "', changes=" + changes.size() + "}";
+        }
+    }
+
+    /**
+     * One line of a scenario: a change of the demand, priority or capacity of one or all the
+     * cities or warehouses.
+     */
+    static class Change {
+        static final int DEMAND = 0, PRIORITY = 1, CAPACITY = 2, OFFLINE = 3;
+
+        final int line; // Line of the scenario file, for the error messages
+        final boolean isCity;
+        final boolean all; // Applies to all the cities or warehouses
+        final int id;
+        final int field;
+        final String operator; // "=", "+=", "-=" or "*="
+        final double value;
+        final EmergencySupplyNetwork.Priority priority;
+
+        private Change(int line, boolean isCity, boolean all, int id, int field, String operator, double value,
+                       EmergencySupplyNetwork.Priority priority) {
+            this.line = line;
+            this.isCity = isCity;
+            this.all = all;
+            this.id = id;
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+            this.priority = priority;
+        }
+
+        /**
+         * Returns the new amount (demand or capacity) given the current one, at least 0.
+         */
+        int apply(int current) {
+            double result;
+            switch (operator) {
+                case "=": result = value; break;
+                case "+=": result = current + value; break;
+                case "-=": result = current - value; break;
+                default: result = Math.round(current * value); break;
+            }
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, result));
+        }
+
+        /**
+         * Parses a change line: "City <ID|*>: <Field> <operator> <value>" or "Warehouse <ID|*>: Offline".
+         */
+        static Change parse(String text, int line) {
+            int colon = text.indexOf(':');
+            String[] target = colon < 0 ? new String[0] : text.substring(0, colon).trim().split("\\s+");
+            if (target.length != 2 || !(target[0].equals("City") || target[0].equals("Warehouse"))) {
+                throw new IllegalArgumentException("Line " + line + ": expected \"City <ID>:\" or \"Warehouse <ID>:\": " + text);
+            }
+            boolean isCity = target[0].equals("City");
+            boolean all = target[1].equals("*");
+            int id = 0;
+            if (!all) {
+                try {
+                    id = Integer.parseInt(target[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Line " + line + ": invalid ID " + target[1], e);
+                }
+            }
+
+            String[] change = text.substring(colon + 1).trim().split("\\s+");
+            if (!isCity && change.length == 1 && change[0].equals("Offline")) {
+                return new Change(line, false, all, id, OFFLINE, null, 0, null);
+            }
+            if (change.length != 3) {
+                throw new IllegalArgumentException("Line " + line + ": expected \"<Field> <operator> <value>\": " + text);
+            }
+            String operator = change[1];
+            if (isCity && change[0].equals("Priority")) {
+                if (!operator.equals("=")) {
+                    throw new IllegalArgumentException("Line " + line + ": a priority can only be set with =: " + text);
+                }
+                try {
+                    return new Change(line, true, all, id, PRIORITY, operator, 0,
+                            EmergencySupplyNetwork.Priority.valueOf(change[2].toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + line + ": unknown priority " + change[2], e);
+                }
+            }
+            int field;
+            if (isCity && change[0].equals("Demand")) {
+                field = DEMAND;
+            } else if (!isCity && change[0].equals("Capacity")) {
+                field = CAPACITY;
+            } else {
+                throw new IllegalArgumentException("Line " + line + ": unknown field " + change[0] + " of a " + target[0].toLowerCase());
+            }
+            if (!(operator.equals("=") || operator.equals("+=") || operator.equals("-=") || operator.equals("*="))) {
+                throw new IllegalArgumentException("Line " + line + ": unknown operator " + operator);
+            }
+            double value;
+            try {
+                value = Double.parseDouble(change[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + line + ": invalid value " + change[2], e);
+            }
+            if (value < 0) {
+                throw new IllegalArgumentException("Line " + line + ": the value must not be negative: " + change[2]);
+            }
+            return new Change(line, isCity, all, id, field, operator, value, null);
+        }
+    }
+
+    /**
+     * The results of one scenario.
+     */
+    public static class Summary {
+        final String name;
+        long demand; // Total demand of the cities
+        long unmetDemand; // Demand left unmet by the allocation
+        int unservedCities; // Cities whose demand is not fully met
+        double cost; // Transportation cost of the allocation
+        int transfers; // Transfers of the redistribution
+        long transferredUnits; // Units moved by the redistribution
+        int clusters; // Clusters of cities sharing the same warehouses
+        double millis; // Time to evaluate the scenario
+
+        Summary(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the summary as an ordered map, for the json.
+         */
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("Scenario", name);
+            map.put("Demand", demand);
+            map.put("Unmet Demand", unmetDemand);
+            map.put("Unserved Cities", unservedCities);
+            map.put("Cost", Math.round(cost * 100) / 100.0);
+            map.put("Transfers", transfers);
+            map.put("Transferred Units", transferredUnits);
+            map.put("Clusters", clusters);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s demand=%d unmet=%d unserved=%d cost=%.2f transfers=%d moved=%d clusters=%d (%.1f ms)",
+                    name, demand, unmetDemand, unservedCities, cost, transfers, transferredUnits, clusters, millis);
+        }
+    }
+}
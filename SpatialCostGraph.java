@@ -0,0 +1,182 @@
+// SpatialCostGraph.java
+import java.util.*;
+
+/**
+ * The SpatialCostGraph class is a sparse alternative to the dense cost matrix. Instead of
+ * computing the cost of every (city, warehouse) pair, it builds a k-d tree over the
+ * warehouse coordinates and only materializes, for each city, either its k nearest
+ * warehouses or the warehouses within a given radius.
+ *
+ * Since the transportation cost (distance times the Drone/Truck/Rail coefficient) grows
+ * with the distance, the nearest warehouses are also the cheapest ones, so the candidates
+ * of each city are stored from the cheapest to the most expensive.
+ *
+ * Memory is proportional to cities x k instead of cities x warehouses. The materialized
+ * costs of a city are returned as they are when its whole candidate row is asked for (as the
+ * ranking does), and cost() computes any single pair on the fly in O(1), which gives the same
+ * value as the materialized cost without searching the row.
+ *
+ * Methods:
+ *   {nearest(List, List, int)}: Builds a graph with the k nearest warehouses of each city.
+ *   {withinRadius(List, List, double)}: Builds a graph with the warehouses within a radius of each city.
+ *   {cost(int, int)}: Returns the transportation cost between a city and a warehouse.
+ *   {candidates(int)}: Returns the materialized warehouses of a city, cheapest first.
+ *   {costs(int, int[])}: Returns the costs between a city and several warehouses.
+ *   {candidatesAt(int, int)}: Returns the warehouses a new city at a location would be connected to.
+ */
+public class SpatialCostGraph implements CostProvider {
+    private final List<EmergencySupplyNetwork.City> cities;
+    private final List<EmergencySupplyNetwork.Warehouse> warehouses;
+    private final int[][] candidateRows; // Candidate warehouse indices of each city, cheapest first
+    private final double[][] costRows; // Cost of each candidate, aligned with candidateRows
+    private final KdTree index; // Spatial index of the warehouses, to connect new cities
+    private final int k; // Number of nearest warehouses per city, 0 for a radius graph
+    private final double radius; // Maximum distance of the warehouses of a radius graph
+
+    /**
+     * Constructs the graph from the already selected candidates of each city.
+     */
+    private SpatialCostGraph(List<EmergencySupplyNetwork.City> cities,
+                             List<EmergencySupplyNetwork.Warehouse> warehouses,
+                             int[][] candidateRows, KdTree index, int k, double radius) {
+        this.cities = cities;
+        this.warehouses = warehouses;
+        this.candidateRows = candidateRows;
+        this.index = index;
+        this.k = k;
+        this.radius = radius;
+        this.costRows = new double[candidateRows.length][];
+
+        // Materialize the cost of each candidate edge
+        for (int i = 0; i < candidateRows.length; i++) {
+            EmergencySupplyNetwork.City city = cities.get(i);
+            costRows[i] = new double[candidateRows[i].length];
+            for (int n = 0; n < candidateRows[i].length; n++) {
+                EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(candidateRows[i][n]);
+                costRows[i][n] = EmergencySupplyNetwork.transportationCost(city.x, city.y, warehouse.x, warehouse.y);
+            }
+        }
+    }
+
+    /**
+     * Builds a sparse cost graph in which every city is connected to its k nearest warehouses.
+     *
+     * @param cities     the list of cities in the network
+     * @param warehouses the list of warehouses in the network
+     * @param k          the number of warehouses kept per city
+     * @return the sparse cost graph
+     */
+    public static SpatialCostGraph nearest(List<EmergencySupplyNetwork.City> cities,
+                                           List<EmergencySupplyNetwork.Warehouse> warehouses, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of nearest warehouses must be positive: " + k);
+        }
+        KdTree index = buildIndex(warehouses);
+        int[][] rows = new int[cities.size()][];
+        for (int i = 0; i < cities.size(); i++) {
+            EmergencySupplyNetwork.City city = cities.get(i);
+            rows[i] = index.nearest(city.x, city.y, k);
+        }
+        return new SpatialCostGraph(cities, warehouses, rows, index, k, 0);
+    }
+
+    /**
+     * Builds a sparse cost graph in which every city is connected to all warehouses
+     * at a distance of at most radius.
+     *
+     * @param cities     the list of cities in the network
+     * @param warehouses the list of warehouses in the network
+     * @param radius     the maximum distance between a city and its warehouses
+     * @return the sparse cost graph
+     */
+    public static SpatialCostGraph withinRadius(List<EmergencySupplyNetwork.City> cities,
+                                                List<EmergencySupplyNetwork.Warehouse> warehouses, double radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("The radius must not be negative: " + radius);
+        }
+        KdTree index = buildIndex(warehouses);
+        int[][] rows = new int[cities.size()][];
+        for (int i = 0; i < cities.size(); i++) {
+            EmergencySupplyNetwork.City city = cities.get(i);
+            rows[i] = index.withinRadius(city.x, city.y, radius);
+        }
+        return new SpatialCostGraph(cities, warehouses, rows, index, 0, radius);
+    }
+
+    /**
+     * Builds the k-d tree over the warehouse coordinates.
+     */
+    private static KdTree buildIndex(List<EmergencySupplyNetwork.Warehouse> warehouses) {
+        int[] xs = new int[warehouses.size()];
+        int[] ys = new int[warehouses.size()];
+        for (int j = 0; j < warehouses.size(); j++) {
+            xs[j] = warehouses.get(j).x;
+            ys[j] = warehouses.get(j).y;
+        }
+        return new KdTree(xs, ys);
+    }
+
+    @Override
+    public int cityCount() {
+        return cities.size();
+    }
+
+    @Override
+    public int warehouseCount() {
+        return warehouses.size();
+    }
+
+    @Override
+    public double cost(int cityIndex, int warehouseIndex) {
+        // Same computation as the materialized costs, cheaper than looking the pair up in the row
+        EmergencySupplyNetwork.City city = cities.get(cityIndex);
+        EmergencySupplyNetwork.Warehouse warehouse = warehouses.get(warehouseIndex);
+        return EmergencySupplyNetwork.transportationCost(city.x, city.y, warehouse.x, warehouse.y);
+    }
+
+    @Override
+    public int[] candidates(int cityIndex) {
+        return candidateRows[cityIndex];
+    }
+
+    /**
+     * Returns the costs between a city and the given warehouses. For the candidate row of the
+     * city itself (the array returned by candidates), this is its materialized cost row, which
+     * must not be modified by the caller.
+     *
+     * @param cityIndex        the index of the city
+     * @param warehouseIndices the indices of the warehouses
+     * @return the transportation costs, aligned with the warehouse indices
+     */
+    @Override
+    public double[] costs(int cityIndex, int[] warehouseIndices) {
+        if (warehouseIndices == candidateRows[cityIndex]) return costRows[cityIndex];
+        return CostProvider.super.costs(cityIndex, warehouseIndices);
+    }
+
+    /**
+     * Returns the warehouses a city at the location would be connected to: its k nearest
+     * warehouses, or the warehouses within the radius, cheapest first.
+     *
+     * @param x the x-coordinate of the city
+     * @param y the y-coordinate of the city
+     * @return the indices of the candidate warehouses
+     */
+    @Override
+    public int[] candidatesAt(int x, int y) {
+        return k > 0 ? index.nearest(x, y, k) : index.withinRadius(x, y, radius);
+    }
+
+    /**
+     * Returns the total number of materialized (city, warehouse) edges.
+     *
+     * @return the number of edges in the graph
+     */
+    public long edgeCount() {
+        long count = 0;
+        for (int[] row : candidateRows) {
+            count += row.length;
+        }
+        return count;
+    }
+}
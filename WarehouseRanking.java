@@ -0,0 +1,300 @@
+// WarehouseRanking.java
+
+/**
+ * The WarehouseRanking class holds, for every city, its candidate warehouses ordered from
+ * the cheapest to the most expensive transportation cost. Each ranking is a primitive int[]
+ * of warehouse indices, computed once from the cost provider with index-based lookups and
+ * then reused by every allocation run on the same network.
+ *
+ * Warehouses with the same cost keep their index order, which is the order a stable sort
+ * of the warehouse list by cost would give.
+ *
+ * Rankings are computed lazily, the first time a city asks for its own. When a depth k is
+ * given, only the k cheapest candidates of each city are kept, which bounds both the memory
+ * (cities x k) and the work of an allocation (O(k) per city).
+ *
+ * Methods:
+ *   {WarehouseRanking(CostProvider, int)}: Creates the ranking over a cost provider.
+ *   {rank(int)}: Returns the ranked warehouse indices of a city.
+ *   {rankAll()}: Computes the rankings of all the cities at once.
+ *   {getDepth()}: Returns the maximum number of warehouses kept per city.
+ *   {getCandidatesRanked(), getComparisons()}: Return the work done by the rankings computed so far.
+ */
+public class WarehouseRanking {
+    private final CostProvider costProvider;
+    private final int depth; // Maximum number of warehouses kept per city, 0 for all of them
+    private final int[][] rankings; // Ranked warehouse indices of each city, null until computed
+    private long candidatesRanked; // Candidates looked at by the rankings computed so far
+    private long comparisons; // Comparisons of (cost, warehouse) entries made by those rankings
+
+    /**
+     * Creates the ranking of the candidate warehouses of every city of the provider.
+     *
+     * @param costProvider the provider of the costs and candidates
+     * @param depth        the number of cheapest warehouses kept per city, or 0 to rank all candidates
+     */
+    public WarehouseRanking(CostProvider costProvider, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("The ranking depth must not be negative: " + depth);
+        }
+        this.costProvider = costProvider;
+        this.depth = depth;
+        this.rankings = new int[costProvider.cityCount()][];
+    }
+
+    /**
+     * Creates a ranking from the rankings of every city, computed elsewhere (see NetworkPipeline,
+     * which ranks the cities batch by batch while the file is parsed), with the work they took.
+     *
+     * @param costProvider     the provider of the costs and candidates
+     * @param depth            the depth the rankings were computed with
+     * @param rankings         the ranked warehouse indices of each city
+     * @param candidatesRanked the number of candidates looked at to compute them
+     * @param comparisons      the number of comparisons made to compute them
+     */
+    WarehouseRanking(CostProvider costProvider, int depth, int[][] rankings, long candidatesRanked, long comparisons) {
+        if (rankings.length != costProvider.cityCount()) {
+            throw new IllegalArgumentException("Expected " + costProvider.cityCount() + " rankings, got " + rankings.length);
+        }
+        this.costProvider = costProvider;
+        this.depth = depth;
+        this.rankings = rankings;
+        this.candidatesRanked = candidatesRanked;
+        this.comparisons = comparisons;
+    }
+
+    /**
+     * Returns the maximum number of warehouses kept per city.
+     *
+     * @return the ranking depth, 0 meaning all candidates are ranked
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of candidate warehouses looked at by the rankings computed so far.
+     *
+     * @return the number of candidates ranked
+     */
+    public long getCandidatesRanked() {
+        return candidatesRanked;
+    }
+
+    /**
+     * Returns the number of comparisons of (cost, warehouse) entries made by the rankings
+     * computed so far, in the heap of the cheapest candidates and in the sort.
+     *
+     * @return the number of comparisons
+     */
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Returns the warehouse indices of the city, from the cheapest to the most expensive.
+     * The returned array must not be modified by the caller.
+     *
+     * @param cityIndex the index of the city
+     * @return the ranked warehouse indices
+     */
+    public int[] rank(int cityIndex) {
+        int[] ranking = rankings[cityIndex];
+        if (ranking == null) {
+            ranking = computeRanking(cityIndex);
+            rankings[cityIndex] = ranking;
+        }
+        return ranking;
+    }
+
+    /**
+     * Computes the rankings of all the cities that do not have theirs yet. The lazy
+     * computation in rank() is not synchronized, so a ranking shared between threads must
+     * be completed first (and then safely published, e.g. through a final field).
+     *
+     * @return this ranking
+     */
+    public WarehouseRanking rankAll() {
+        for (int i = 0; i < rankings.length; i++) {
+            rank(i);
+        }
+        return this;
+    }
+
+    /**
+     * Sorts the candidates of a city by cost, keeping only the cheapest ones if a depth is set.
+     */
+    private int[] computeRanking(int cityIndex) {
+        int[] candidates = costProvider.candidates(cityIndex);
+        return rank(candidates, costProvider.costs(cityIndex, candidates)); // Each pair is looked at once
+    }
+
+    /**
+     * Ranks candidate warehouses by cost, keeping only the cheapest ones if a depth is set, for
+     * a city that is not in the cost provider (see IncrementalAllocator.addCity). The work is
+     * counted with the rankings of the cities of the provider.
+     *
+     * @param candidates     the indices of the candidate warehouses
+     * @param candidateCosts the costs of the candidates, aligned with their indices
+     * @return the ranked warehouse indices
+     */
+    int[] rank(int[] candidates, double[] candidateCosts) {
+        int n = candidates.length;
+        int keep = depth == 0 ? n : Math.min(depth, n);
+
+        double[] costs = new double[keep]; // Only the k cheapest are held, so a bounded ranking stays bounded
+        int[] warehouses = new int[keep];
+        int size = 0;
+        long compared = 0;
+
+        if (keep == n) {
+            // Rank all candidates
+            for (int c = 0; c < n; c++) {
+                warehouses[c] = candidates[c];
+                costs[c] = candidateCosts[c];
+            }
+            size = n;
+        } else {
+            // Keep the k cheapest candidates in a max-heap (the most expensive on top)
+            for (int c = 0; c < n; c++) {
+                int warehouse = candidates[c];
+                double cost = candidateCosts[c];
+                if (size < keep) {
+                    costs[size] = cost;
+                    warehouses[size] = warehouse;
+                    compared += siftUp(costs, warehouses, size++);
+                } else {
+                    compared++;
+                    if (less(cost, warehouse, costs[0], warehouses[0])) {
+                        costs[0] = cost;
+                        warehouses[0] = warehouse;
+                        compared += siftDown(costs, warehouses, 0, size);
+                    }
+                }
+            }
+        }
+
+        compared += sort(costs, warehouses, size);
+        candidatesRanked += n;
+        comparisons += compared;
+        int[] ranking = new int[size];
+        System.arraycopy(warehouses, 0, ranking, 0, size);
+        return ranking;
+    }
+
+    /**
+     * Orders two (cost, warehouse index) entries: by cost, then by index.
+     */
+    private static boolean less(double cost1, int warehouse1, double cost2, int warehouse2) {
+        return cost1 < cost2 || (cost1 == cost2 && warehouse1 < warehouse2);
+    }
+
+    /**
+     * Sifts an entry up the max-heap, returning the number of comparisons made.
+     */
+    private static int siftUp(double[] costs, int[] warehouses, int i) {
+        int compared = 0;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            compared++;
+            if (!less(costs[parent], warehouses[parent], costs[i], warehouses[i])) break;
+            swap(costs, warehouses, i, parent);
+            i = parent;
+        }
+        return compared;
+    }
+
+    /**
+     * Sifts an entry down the max-heap, returning the number of comparisons made.
+     */
+    private static int siftDown(double[] costs, int[] warehouses, int i, int size) {
+        int compared = 0;
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, largest = i;
+            if (left < size) {
+                compared++;
+                if (less(costs[largest], warehouses[largest], costs[left], warehouses[left])) largest = left;
+            }
+            if (right < size) {
+                compared++;
+                if (less(costs[largest], warehouses[largest], costs[right], warehouses[right])) largest = right;
+            }
+            if (largest == i) return compared;
+            swap(costs, warehouses, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(double[] costs, int[] warehouses, int i, int j) {
+        double cost = costs[i];
+        costs[i] = costs[j];
+        costs[j] = cost;
+        int warehouse = warehouses[i];
+        warehouses[i] = warehouses[j];
+        warehouses[j] = warehouse;
+    }
+
+    /**
+     * Sorts the first n entries of the two parallel arrays by (cost, warehouse index),
+     * using a merge sort on primitive arrays (no boxing, no comparator objects).
+     *
+     * @return the number of comparisons made
+     */
+    static long sort(double[] costs, int[] warehouses, int n) {
+        if (n < 2) return 0;
+        double[] costBuffer = new double[n];
+        int[] warehouseBuffer = new int[n];
+        return mergeSort(costs, warehouses, costBuffer, warehouseBuffer, 0, n);
+    }
+
+    private static long mergeSort(double[] costs, int[] warehouses, double[] costBuffer, int[] warehouseBuffer, int lo, int hi) {
+        long compared = 0;
+        if (hi - lo <= 16) {
+            // Insertion sort for small ranges
+            for (int i = lo + 1; i < hi; i++) {
+                double cost = costs[i];
+                int warehouse = warehouses[i];
+                int j = i - 1;
+                while (j >= lo) {
+                    compared++;
+                    if (!less(cost, warehouse, costs[j], warehouses[j])) break;
+                    costs[j + 1] = costs[j];
+                    warehouses[j + 1] = warehouses[j];
+                    j--;
+                }
+                costs[j + 1] = cost;
+                warehouses[j + 1] = warehouse;
+            }
+            return compared;
+        }
+        int mid = (lo + hi) >>> 1;
+        compared += mergeSort(costs, warehouses, costBuffer, warehouseBuffer, lo, mid);
+        compared += mergeSort(costs, warehouses, costBuffer, warehouseBuffer, mid, hi);
+        compared++;
+        if (!less(costs[mid], warehouses[mid], costs[mid - 1], warehouses[mid - 1])) return compared; // Already in order
+
+        // Merge the two sorted halves through the buffers
+        System.arraycopy(costs, lo, costBuffer, lo, hi - lo);
+        System.arraycopy(warehouses, lo, warehouseBuffer, lo, hi - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            compared++;
+            if (less(costBuffer[j], warehouseBuffer[j], costBuffer[i], warehouseBuffer[i])) {
+                costs[k] = costBuffer[j];
+                warehouses[k++] = warehouseBuffer[j++];
+            } else {
+                costs[k] = costBuffer[i];
+                warehouses[k++] = warehouseBuffer[i++];
+            }
+        }
+        while (i < mid) {
+            costs[k] = costBuffer[i];
+            warehouses[k++] = warehouseBuffer[i++];
+        }
+        while (j < hi) {
+            costs[k] = costBuffer[j];
+            warehouses[k++] = warehouseBuffer[j++];
+        }
+        return compared;
+    }
+}